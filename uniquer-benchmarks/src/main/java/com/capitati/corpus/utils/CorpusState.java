@@ -0,0 +1,102 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A synthetic corpus of {@link #NO_PAIRS} pairs, both in memory and as
+ * source and target files in a private temporary directory.
+ * <p>
+ * Benchmarks that process the whole corpus once per invocation declare
+ * {@code @OperationsPerInvocation(CorpusState.NO_PAIRS)} so that JMH reports
+ * lines per second, and bytes per line with {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+  public static final int NO_PAIRS = 100000;
+
+  @Param({"0.3"})
+  public double duplicateRatio;
+
+  public File directory;
+  public File sourceFile;
+  public File targetFile;
+  public List<ImmutablePair<String, String>> pairs;
+  public Logger logger;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = File.createTempFile("uniquer", "bench");
+    if(directory.delete() == false || directory.mkdir() == false) {
+      throw new IOException("Could not create " + directory);
+    }
+
+    sourceFile = new File(directory, "corpus.src");
+    targetFile = new File(directory, "corpus.trg");
+    new SyntheticCorpus(1, 80, 1.1, duplicateRatio).write(
+        sourceFile, targetFile, NO_PAIRS);
+    pairs = new SyntheticCorpus(1, 80, 1.1, duplicateRatio).generate(NO_PAIRS);
+
+    // Keep the duplicate and filter logging out of the measurements
+    logger = Logger.getLogger("uniquer-benchmarks");
+    logger.setLevel(org.apache.log4j.Level.OFF);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    deleteAll(directory);
+  }
+
+  public CorpusUniquer createCorpusUniquer() {
+    return new CorpusUniquer(
+        sourceFile,
+        targetFile,
+        Charsets.UTF_8,
+        1024,
+        directory,
+        Charsets.UTF_8,
+        logger);
+  }
+
+  public HashUniquer createHashUniquer() {
+    return new HashUniquer(
+        sourceFile,
+        targetFile,
+        Charsets.UTF_8,
+        directory,
+        Charsets.UTF_8,
+        logger);
+  }
+
+  public NearDuplicateUniquer createNearDuplicateUniquer() {
+    return new NearDuplicateUniquer(
+        sourceFile,
+        targetFile,
+        Charsets.UTF_8,
+        directory,
+        Charsets.UTF_8,
+        logger);
+  }
+
+  private static void deleteAll(final File file) {
+    final File[] children = file.listFiles();
+    if(children != null) {
+      for(final File child : children) {
+        deleteAll(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,61 @@
+package com.capitati.corpus.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The duplicate detection structures, without any I/O.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class DedupBenchmark {
+  private final List<byte[]> sourceKeys = new ArrayList<byte[]>();
+  private final List<byte[]> targetKeys = new ArrayList<byte[]>();
+  private final Fingerprints fingerprints = new Fingerprints();
+  private final long[] fingerprint = new long[2];
+
+  @Setup(Level.Trial)
+  public void setUp(final CorpusState corpus) {
+    for(final ImmutablePair<String, String> pair : corpus.pairs) {
+      sourceKeys.add(SortKeys.encode(pair.getLeft()));
+      targetKeys.add(SortKeys.encode(pair.getRight()));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CorpusState.NO_PAIRS)
+  public int fingerprintSet() {
+    final FingerprintSet set = new FingerprintSet(64L * 1024 * 1024);
+    for(int i = 0; i < sourceKeys.size(); i++) {
+      fingerprints.fingerprint(
+          sourceKeys.get(i), targetKeys.get(i), fingerprint);
+      set.add(fingerprint[0], fingerprint[1]);
+    }
+    return set.size();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CorpusState.NO_PAIRS)
+  public int targetFingerprintSet() {
+    // One large group: the worst case for the per group target set
+    final TargetFingerprintSet set =
+        new TargetFingerprintSet(16 * 1024 * 1024, CorpusState.NO_PAIRS);
+    for(final byte[] target : targetKeys) {
+      set.add(fingerprints.fingerprint(target), target);
+    }
+    return set.size();
+  }
+}
@@ -0,0 +1,99 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Merging k sorted runs, with duplicate removal, into the output files.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class MergeBenchmark {
+  @Param({"loser-tree", "priority-queue"})
+  public String engine;
+
+  @Param({"4", "64"})
+  public int noRuns;
+
+  @Param({"none"})
+  public String codec;
+
+  @Param({"0", "1048576"})
+  public int readAheadSize;
+
+  private CorpusUniquer uniquer;
+  private File sourceOutput;
+  private File targetOutput;
+  private final List<File> sortedRuns = new ArrayList<File>();
+  private final List<File> runs = new ArrayList<File>();
+
+  @Setup(Level.Trial)
+  public void setUp(final CorpusState corpus) throws IOException {
+    uniquer = corpus.createCorpusUniquer();
+    uniquer.setMergeEngine(MergeEngine.forName(engine));
+    uniquer.setRunCodec(RunCodec.forName(codec));
+    uniquer.setReadAheadSize(readAheadSize);
+    sourceOutput = new File(corpus.directory, "merged.src");
+    targetOutput = new File(corpus.directory, "merged.trg");
+
+    // Deal the pairs out round robin so that every run spans the key space
+    final List<List<SortRecord>> blocks = new ArrayList<List<SortRecord>>();
+    for(int i = 0; i < noRuns; i++) {
+      blocks.add(new ArrayList<SortRecord>());
+    }
+    int i = 0;
+    for(final ImmutablePair<String, String> pair : corpus.pairs) {
+      blocks.get(i++ % noRuns).add(
+          new SortRecord(pair.getLeft(), pair.getRight()));
+    }
+    for(final List<SortRecord> block : blocks) {
+      sortedRuns.add(uniquer.sortAndSave(block));
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void copyRuns() throws IOException {
+    // The merge deletes its runs as they are exhausted
+    runs.clear();
+    for(final File run : sortedRuns) {
+      final File copy = new File(run.getPath() + ".copy");
+      Files.copy(
+          run.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      runs.add(copy);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for(final File run : sortedRuns) {
+      run.delete();
+    }
+    sourceOutput.delete();
+    targetOutput.delete();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CorpusState.NO_PAIRS)
+  public ImmutablePair<Long, Long> mergeSortedFiles() throws IOException {
+    return uniquer.mergeSortedFiles(sourceOutput, targetOutput, runs);
+  }
+}
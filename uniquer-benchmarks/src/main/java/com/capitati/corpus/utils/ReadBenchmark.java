@@ -0,0 +1,67 @@
+package com.capitati.corpus.utils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+
+/**
+ * Reading, filtering and keying pairs: the front of the sort phase.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReadBenchmark {
+  @Benchmark
+  @OperationsPerInvocation(CorpusState.NO_PAIRS)
+  public void readPairs(final CorpusState corpus, final Blackhole hole)
+  throws IOException {
+    final CorpusPairReader reader =
+        new CorpusPairReader(
+            corpus.sourceFile, corpus.targetFile, Charsets.UTF_8);
+    try {
+      ImmutablePair<String, String> pair;
+      while((pair = reader.readPair()) != null) {
+        hole.consume(pair);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CorpusState.NO_PAIRS)
+  public void filterPairs(final CorpusState corpus, final Blackhole hole) {
+    final Function<ImmutablePair<String, String>, Boolean> filter =
+        PairFilters.create(80);
+    for(final ImmutablePair<String, String> pair : corpus.pairs) {
+      hole.consume(filter.apply(pair));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CorpusState.NO_PAIRS)
+  public void createSortRecords(
+      final CorpusState corpus, final Blackhole hole) {
+    for(final ImmutablePair<String, String> pair : corpus.pairs) {
+      hole.consume(new SortRecord(pair.getLeft(), pair.getRight()));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CorpusState.NO_PAIRS)
+  public void estimateSizes(final CorpusState corpus, final Blackhole hole) {
+    for(final ImmutablePair<String, String> pair : corpus.pairs) {
+      hole.consume(
+          MemoryBudget.sizeOf(new SortRecord(pair.getLeft(), pair.getRight())));
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Sorting a block and writing it out as a run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class SpillBenchmark {
+  @Param({"none", "deflate"})
+  public String codec;
+
+  private CorpusUniquer uniquer;
+  private List<SortRecord> records;
+
+  @Setup(Level.Trial)
+  public void setUp(final CorpusState corpus) {
+    uniquer = corpus.createCorpusUniquer();
+    uniquer.setRunCodec(RunCodec.forName(codec));
+  }
+
+  @Setup(Level.Invocation)
+  public void createRecords(final CorpusState corpus) {
+    // Each invocation sorts the block in place, so start from input order
+    records = new ArrayList<SortRecord>(corpus.pairs.size());
+    for(final ImmutablePair<String, String> pair : corpus.pairs) {
+      records.add(new SortRecord(pair.getLeft(), pair.getRight()));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CorpusState.NO_PAIRS)
+  public long sortAndSave() throws IOException {
+    final File run = uniquer.sortAndSave(records);
+    final long length = run.length();
+    run.delete();
+    return length;
+  }
+}
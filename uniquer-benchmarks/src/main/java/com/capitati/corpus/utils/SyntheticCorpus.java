@@ -0,0 +1,227 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Generates synthetic parallel corpora for the benchmarks.
+ * <p>
+ * Sentence lengths, in tokens, and word choice both follow Zipf
+ * distributions. Source sentences are in a Latin script; each target
+ * sentence is in one of several scripts, including CJK and characters
+ * outside the BMP, so the UTF-8 is genuinely multilingual. A configurable
+ * share of pairs repeat an earlier pair, some of them with different case
+ * or spacing, so that every kind of duplicate the uniquers recognise turns
+ * up.
+ */
+public class SyntheticCorpus {
+  private static final int VOCABULARY_SIZE = 20000;
+  private static final int RECENT_PAIRS = 4096;
+  // First code point and number of letters of each target script
+  private static final int[][] SCRIPTS = {
+      {'a', 26},       // Latin
+      {0x0430, 32},    // Cyrillic
+      {0x03b1, 25},    // Greek
+      {0x0627, 36},    // Arabic
+      {0x0915, 37},    // Devanagari
+      {0x4e00, 20000}, // CJK ideographs
+      {0x1f600, 80}};  // Emoticons, outside the BMP
+
+  /**
+   * Samples 1..n with probability proportional to 1 / k^exponent.
+   */
+  static class ZipfSampler {
+    private final double[] cdf;
+
+    public ZipfSampler(final int n, final double exponent) {
+      cdf = new double[n];
+      double sum = 0;
+      for(int k = 1; k <= n; k++) {
+        sum += 1.0 / Math.pow(k, exponent);
+        cdf[k - 1] = sum;
+      }
+      for(int k = 0; k < n; k++) {
+        cdf[k] /= sum;
+      }
+    }
+
+    public int sample(final Random random) {
+      final int idx = Arrays.binarySearch(cdf, random.nextDouble());
+      return ((idx < 0) ? -idx - 1 : idx) + 1;
+    }
+  }
+
+  private final Random random;
+  private final ZipfSampler lengths;
+  private final ZipfSampler words;
+  private final double duplicateRatio;
+  private final String[][] vocabularies;
+  private final List<ImmutablePair<String, String>> recent =
+      new ArrayList<ImmutablePair<String, String>>();
+
+  /**
+   * @param seed The random seed, so that runs are repeatable.
+   * @param maxNoTokens The longest sentence, in tokens.
+   * @param lengthExponent The Zipf exponent of the sentence lengths.
+   * @param theDuplicateRatio The share of pairs repeating an earlier pair.
+   */
+  public SyntheticCorpus(
+      final long seed,
+      final int maxNoTokens,
+      final double lengthExponent,
+      final double theDuplicateRatio) {
+    random = new Random(seed);
+    lengths = new ZipfSampler(maxNoTokens, lengthExponent);
+    words = new ZipfSampler(VOCABULARY_SIZE, 1.0);
+    duplicateRatio = theDuplicateRatio;
+
+    vocabularies = new String[SCRIPTS.length][VOCABULARY_SIZE];
+    for(int script = 0; script < SCRIPTS.length; script++) {
+      for(int word = 0; word < VOCABULARY_SIZE; word++) {
+        vocabularies[script][word] = createWord(SCRIPTS[script]);
+      }
+    }
+  }
+
+  /**
+   * A corpus with sentences of up to 80 tokens and 30% duplicates.
+   */
+  public SyntheticCorpus(final long seed) {
+    this(seed, 80, 1.1, 0.3);
+  }
+
+  private String createWord(final int[] script) {
+    final StringBuilder word = new StringBuilder();
+    final int length = 1 + random.nextInt((script[1] > 1000) ? 2 : 8);
+    for(int i = 0; i < length; i++) {
+      word.appendCodePoint(script[0] + random.nextInt(script[1]));
+    }
+    return word.toString();
+  }
+
+  private String createSentence(final int script) {
+    final StringBuilder sentence = new StringBuilder();
+    final int noTokens = lengths.sample(random);
+    for(int i = 0; i < noTokens; i++) {
+      if(i > 0) {
+        sentence.append(' ');
+      }
+      String word = vocabularies[script][words.sample(random) - 1];
+      if(i == 0) {
+        word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+      }
+      sentence.append(word);
+    }
+    return sentence.toString();
+  }
+
+  private static String vary(final String sentence, final Random random) {
+    switch(random.nextInt(3)) {
+      case 0:
+        return sentence.toUpperCase();
+      case 1:
+        return sentence.replace(" ", "  ");
+      default:
+        return sentence;
+    }
+  }
+
+  /**
+   * @return The next sentence pair.
+   */
+  public ImmutablePair<String, String> next() {
+    if(recent.size() > 0 && random.nextDouble() < duplicateRatio) {
+      final ImmutablePair<String, String> pair =
+          recent.get(random.nextInt(recent.size()));
+      return new ImmutablePair<String, String>(
+          vary(pair.getLeft(), random), pair.getRight());
+    }
+
+    final ImmutablePair<String, String> pair =
+        new ImmutablePair<String, String>(
+            createSentence(0),
+            createSentence(1 + random.nextInt(SCRIPTS.length - 1)));
+    if(recent.size() < RECENT_PAIRS) {
+      recent.add(pair);
+    } else {
+      recent.set(random.nextInt(RECENT_PAIRS), pair);
+    }
+    return pair;
+  }
+
+  public List<ImmutablePair<String, String>> generate(final int noPairs) {
+    final List<ImmutablePair<String, String>> pairs =
+        new ArrayList<ImmutablePair<String, String>>(noPairs);
+    for(int i = 0; i < noPairs; i++) {
+      pairs.add(next());
+    }
+    return pairs;
+  }
+
+  /**
+   * Writes pairs as aligned UTF-8 source and target files.
+   *
+   * @return The number of bytes written.
+   */
+  public long write(final File source, final File target, final int noPairs)
+  throws IOException {
+    final BufferedWriter sourceWriter =
+        new BufferedWriter(
+            new OutputStreamWriter(
+                new FileOutputStream(source), Charsets.UTF_8));
+    try {
+      final BufferedWriter targetWriter =
+          new BufferedWriter(
+              new OutputStreamWriter(
+                  new FileOutputStream(target), Charsets.UTF_8));
+
+      try {
+        for(int i = 0; i < noPairs; i++) {
+          final ImmutablePair<String, String> pair = next();
+          sourceWriter.write(pair.getLeft());
+          sourceWriter.newLine();
+          targetWriter.write(pair.getRight());
+          targetWriter.newLine();
+        }
+      } finally {
+        targetWriter.close();
+      }
+    } finally {
+      sourceWriter.close();
+    }
+
+    return source.length() + target.length();
+  }
+
+  /**
+   * Usage: SyntheticCorpus SOURCE TARGET NUMBER [DUPLICATE_RATIO [SEED]]
+   */
+  public static void main(final String[] args) throws IOException {
+    if(args.length < 3) {
+      System.err.println(
+          "Usage: SyntheticCorpus SOURCE TARGET NUMBER " +
+          "[DUPLICATE_RATIO [SEED]]");
+      System.exit(1);
+    }
+
+    final double duplicateRatio =
+        (args.length > 3) ? Double.parseDouble(args[3]) : 0.3;
+    final long seed = (args.length > 4) ? Long.parseLong(args[4]) : 1;
+    final long noBytes =
+        new SyntheticCorpus(seed, 80, 1.1, duplicateRatio).write(
+            new File(args[0]), new File(args[1]), Integer.parseInt(args[2]));
+
+    System.out.println(String.format("Wrote %d bytes", noBytes));
+  }
+}
@@ -0,0 +1,51 @@
+package com.capitati.corpus.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Uniquing the whole corpus, end to end, with each {@link UniquingMode}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class UniqueBenchmark {
+  private static final String SUFFIX = "unique";
+
+  @Param({"sort", "hash", "near"})
+  public String mode;
+
+  @Param({"1", "4"})
+  public int noSortThreads;
+
+  @Benchmark
+  @OperationsPerInvocation(CorpusState.NO_PAIRS)
+  public ImmutablePair<Long, Long> unique(final CorpusState corpus)
+  throws Exception {
+    final ICorpusUniquer uniquer;
+    final UniquingMode uniquingMode = UniquingMode.forName(mode);
+    if(uniquingMode == UniquingMode.HASH) {
+      uniquer = corpus.createHashUniquer();
+    } else if(uniquingMode == UniquingMode.NEAR) {
+      final NearDuplicateUniquer nearUniquer =
+          corpus.createNearDuplicateUniquer();
+      nearUniquer.setNoThreads(noSortThreads);
+      uniquer = nearUniquer;
+    } else {
+      final CorpusUniquer sortUniquer = corpus.createCorpusUniquer();
+      sortUniquer.setNoSortThreads(noSortThreads);
+      uniquer = sortUniquer;
+    }
+
+    return uniquer.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+  }
+}
@@ -0,0 +1,266 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+
+/**
+ * Writes dropped pairs to a UTF-8 file of tab separated records on a thread
+ * of its own:
+ * <pre>
+ * reason  line number  source  target
+ * </pre>
+ * where the reason is "duplicate" or "filter:" and the filter's name.
+ * Tabs, line breaks and backslashes within sentences are escaped as \t,
+ * \n, \r and \\.
+ * <p>
+ * Records pass through a bounded queue, so a slow disk holds the uniquer
+ * back rather than filling the heap. Only one in a number of records of
+ * each reason may be written, or none at all, while every drop is still
+ * counted.
+ */
+public class AuditLog implements IAuditSink {
+  public static final String DUPLICATE = "duplicate";
+  public static final String FILTER_PREFIX = "filter:";
+  private static final int QUEUE_CAPACITY = 8192;
+
+  private static final class Record {
+    final String reason;
+    final long lineNumber;
+    final String sourceText;
+    final String targetText;
+    final byte[] sourceBytes;
+    final byte[] targetBytes;
+
+    Record(
+        final String theReason,
+        final long theLineNumber,
+        final String theSourceText,
+        final String theTargetText,
+        final byte[] theSourceBytes,
+        final byte[] theTargetBytes) {
+      reason = theReason;
+      lineNumber = theLineNumber;
+      sourceText = theSourceText;
+      targetText = theTargetText;
+      sourceBytes = theSourceBytes;
+      targetBytes = theTargetBytes;
+    }
+  }
+
+  // Tells the writer thread there are no more records
+  private static final Record END =
+      new Record(null, 0, null, null, null, null);
+
+  private final File file;
+  private final int sampleInterval;
+  private final Map<String, long[]> counts =
+      new LinkedHashMap<String, long[]>();
+  private final BlockingQueue<Record> queue;
+  private final Thread writerThread;
+  private final OutputStream out;
+  // Whatever ended the writes, thrown again to the uniquer
+  private volatile Throwable failure = null;
+  private boolean closed = false;
+
+  /**
+   * @param theFile The file to write, or null to only count drops.
+   * @param theSampleInterval Write one record in this many of each reason;
+   * one writes them all.
+   */
+  public AuditLog(final File theFile, final int theSampleInterval)
+  throws IOException {
+    if(theSampleInterval < 1) {
+      throw new IllegalArgumentException(
+          "Sample interval must be positive: " + theSampleInterval);
+    }
+    file = theFile;
+    sampleInterval = theSampleInterval;
+
+    if(file == null) {
+      out = null;
+      queue = null;
+      writerThread = null;
+      return;
+    }
+
+    out = new BufferedOutputStream(
+        new FileOutputStream(file), RunWriter.BUFFER_SIZE);
+    queue = new ArrayBlockingQueue<Record>(QUEUE_CAPACITY);
+    writerThread = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            writeRecords();
+          }
+        },
+        "uniquer-audit");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * An audit log that only counts drops.
+   */
+  public AuditLog() throws IOException {
+    this(null, 1);
+  }
+
+  // Counts a drop and tells whether it is sampled
+  private synchronized boolean count(final String reason) {
+    long[] count = counts.get(reason);
+    if(count == null) {
+      count = new long[1];
+      counts.put(reason, count);
+    }
+    return (count[0]++ % sampleInterval) == 0 && queue != null;
+  }
+
+  private void checkFailure() throws IOException {
+    if(failure != null) {
+      Throwables.propagateIfInstanceOf(failure, IOException.class);
+      throw Throwables.propagate(failure);
+    }
+  }
+
+  private void enqueue(final Record record) throws IOException {
+    checkFailure();
+    try {
+      queue.put(record);
+    } catch(final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst auditing");
+    }
+  }
+
+  @Override
+  public void dropped(
+      final String filter,
+      final long lineNumber,
+      final String source,
+      final String target) throws IOException {
+    final String reason = FILTER_PREFIX + filter;
+    if(count(reason) == true) {
+      enqueue(new Record(reason, lineNumber, source, target, null, null));
+    }
+  }
+
+  @Override
+  public void duplicate(
+      final long lineNumber, final byte[] source, final byte[] target)
+  throws IOException {
+    if(count(DUPLICATE) == true) {
+      enqueue(new Record(DUPLICATE, lineNumber, null, null, source, target));
+    }
+  }
+
+  /**
+   * @return The number of drops for each reason so far.
+   */
+  public synchronized Map<String, Long> getCounts() {
+    final Map<String, Long> copy = new LinkedHashMap<String, Long>();
+    for(final Map.Entry<String, long[]> count : counts.entrySet()) {
+      copy.put(count.getKey(), count.getValue()[0]);
+    }
+    return Collections.unmodifiableMap(copy);
+  }
+
+  private void writeRecords() {
+    try {
+      while(true) {
+        final Record record = queue.take();
+        if(record == END) {
+          return;
+        }
+
+        // After a failure keep taking records so the uniquer never blocks
+        if(failure == null) {
+          try {
+            writeRecord(record);
+          } catch(final Throwable ex) {
+            failure = ex;
+          }
+        }
+      }
+    } catch(final InterruptedException ex) {
+      failure = new InterruptedIOException("Interrupted whilst auditing");
+      // Wakes the uniquer if it waits for room to see the failure
+      queue.clear();
+    }
+  }
+
+  private void writeRecord(final Record record) throws IOException {
+    out.write(record.reason.getBytes(Charsets.UTF_8));
+    out.write('\t');
+    out.write(Long.toString(record.lineNumber).getBytes(Charsets.UTF_8));
+    out.write('\t');
+    writeEscaped(
+        (record.sourceBytes != null) ?
+            record.sourceBytes : record.sourceText.getBytes(Charsets.UTF_8));
+    out.write('\t');
+    writeEscaped(
+        (record.targetBytes != null) ?
+            record.targetBytes : record.targetText.getBytes(Charsets.UTF_8));
+    out.write('\n');
+  }
+
+  private void writeEscaped(final byte[] sentence) throws IOException {
+    // Multi-byte UTF-8 sequences never contain these ASCII bytes
+    for(final byte b : sentence) {
+      switch(b) {
+        case '\t':
+          out.write('\\');
+          out.write('t');
+          break;
+        case '\n':
+          out.write('\\');
+          out.write('n');
+          break;
+        case '\r':
+          out.write('\\');
+          out.write('r');
+          break;
+        case '\\':
+          out.write('\\');
+          out.write('\\');
+          break;
+        default:
+          out.write(b);
+      }
+    }
+  }
+
+  /**
+   * Writes out the records still queued and closes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    if(closed == true || queue == null) {
+      return;
+    }
+    closed = true;
+
+    try {
+      queue.put(END);
+      writerThread.join();
+      checkFailure();
+    } catch(final InterruptedException ex) {
+      writerThread.interrupt();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst closing " + file);
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A multi-parallel corpus of any number of aligned files, the columns, the
+ * first of which is the pivot. It is read and written as pairs of the
+ * pivot's sentence and the other columns' sentences joined by new lines,
+ * which no sentence read a line at a time can hold, so a uniquer handles
+ * each row as a single pair.
+ */
+public class ColumnCorpus implements ICorpus {
+  static final char SEPARATOR = '\n';
+
+  /**
+   * Joins the sentences of a row after the pivot.
+   */
+  static String joinOthers(final String[] row) {
+    if(row.length == 2) {
+      return row[1];
+    }
+    final StringBuilder joined = new StringBuilder(row[1]);
+    for(int i = 2; i < row.length; i++) {
+      joined.append(SEPARATOR).append(row[i]);
+    }
+    return joined.toString();
+  }
+
+  /**
+   * Splits the sentences after the pivot apart. A pair's target is the
+   * only one.
+   */
+  static String[] splitOthers(final String others) {
+    final List<String> columns = new ArrayList<String>();
+    int start = 0;
+    while(true) {
+      final int end = others.indexOf(SEPARATOR, start);
+      if(end < 0) {
+        columns.add(others.substring(start));
+        return columns.toArray(new String[columns.size()]);
+      }
+      columns.add(others.substring(start, end));
+      start = end + 1;
+    }
+  }
+
+  private final List<File> files;
+
+  /**
+   * @param theFiles The aligned files, at least two, the first of which is
+   * the pivot.
+   */
+  public ColumnCorpus(final List<File> theFiles) {
+    if(theFiles.size() < 2) {
+      throw new IllegalArgumentException(
+          "At least two aligned files are needed: " + theFiles);
+    }
+    files = new ArrayList<File>(theFiles);
+  }
+
+  /**
+   * @return The number of aligned files.
+   */
+  public int getNoColumns() {
+    return files.size();
+  }
+
+  @Override
+  public IPairReader openReader(
+      final Charset charSet, final boolean failOnMismatch) throws IOException {
+    return new ColumnReader(files, charSet, failOnMismatch);
+  }
+
+  @Override
+  public IPairWriter openWriter(
+      final String suffix,
+      final Charset charSet,
+      final CorpusCompression compression,
+      final boolean sync,
+      final boolean append) throws IOException {
+    return new ColumnWriter(
+        getOutputFiles(suffix, compression),
+        charSet,
+        compression,
+        sync,
+        append);
+  }
+
+  @Override
+  public List<File> getOutputFiles(
+      final String suffix, final CorpusCompression compression) {
+    final String extension = "." + suffix + compression.getExtension();
+    final List<File> outputFiles = new ArrayList<File>();
+    for(final File file : files) {
+      outputFiles.add(new File(file.getAbsolutePath() + extension));
+    }
+    return outputFiles;
+  }
+
+  @Override
+  public List<File> getMissingFiles() {
+    final List<File> missingFiles = new ArrayList<File>();
+    for(final File file : files) {
+      if(file.exists() == false) missingFiles.add(file);
+    }
+    return missingFiles;
+  }
+
+  /**
+   * @return The size of all the files, which for named pipes is zero.
+   */
+  @Override
+  public long getSize() {
+    long size = 0;
+    for(final File file : files) {
+      size += file.length();
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    final List<String> paths = new ArrayList<String>();
+    for(final File file : files) {
+      paths.add(file.getAbsolutePath());
+    }
+    return files.size() + " columns [" +
+        StringUtils.join(paths, "], [") + "]";
+  }
+
+  // Writes each sentence of a row to its column's file
+  private static class ColumnWriter implements IPairWriter {
+    private final List<File> files;
+    // The lengths the files had before appending, or -1 when replacing them
+    private final long[] lengths;
+    private final CorpusLineWriter[] writers;
+
+    ColumnWriter(
+        final List<File> theFiles,
+        final Charset theCharSet,
+        final CorpusCompression theCompression,
+        final boolean theSync,
+        final boolean theAppend) throws IOException {
+      files = theFiles;
+      lengths = new long[files.size()];
+      writers = new CorpusLineWriter[files.size()];
+      Arrays.fill(lengths, -1);
+
+      try {
+        for(int i = 0; i < writers.length; i++) {
+          if(theAppend == true) {
+            lengths[i] = files.get(i).length();
+          }
+          writers[i] = new CorpusLineWriter(
+              files.get(i), theCharSet, theCompression, theSync, theAppend);
+        }
+      } catch(final IOException ex) {
+        discard();
+        throw ex;
+      }
+    }
+
+    @Override
+    public void writePair(final byte[] source, final byte[] target)
+    throws IOException {
+      writers[0].writeLine(source);
+      int start = 0;
+      for(int i = 1; i < writers.length; i++) {
+        int end = start;
+        while(end < target.length && target[end] != SEPARATOR) {
+          end++;
+        }
+        writers[i].writeLine(Arrays.copyOfRange(target, start, end));
+        start = end + 1;
+      }
+    }
+
+    /**
+     * Deletes the files, or when appending cuts them back to their lengths
+     * before.
+     */
+    @Override
+    public void discard() throws IOException {
+      try {
+        close();
+      } finally {
+        for(int i = 0; i < writers.length; i++) {
+          if(writers[i] == null) {
+            continue;
+          }
+          if(lengths[i] < 0) {
+            files.get(i).delete();
+          } else {
+            CorpusPairWriter.truncate(files.get(i), lengths[i]);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOException failure = null;
+      for(final CorpusLineWriter writer : writers) {
+        if(writer == null) {
+          continue;
+        }
+        try {
+          writer.close();
+        } catch(final IOException ex) {
+          failure = ex;
+        }
+      }
+      if(failure != null) {
+        throw failure;
+      }
+    }
+  }
+}
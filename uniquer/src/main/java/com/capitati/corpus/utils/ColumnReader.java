@@ -0,0 +1,167 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Reads aligned lines from any number of files, any of which may be
+ * compressed, as rows of stripped sentences. Reading stops when the first
+ * file ends, or any other file ends before it; a mismatch is then either
+ * thrown or recorded, see {@link #getMismatch()}.
+ * <p>
+ * Read as pairs, each row is the first file's sentence and the others'
+ * joined as a {@link ColumnCorpus} does.
+ */
+public class ColumnReader implements IPairReader {
+  private final File[] files;
+  private final BufferedReader[] readers;
+  private final CountingInputStream[] streams;
+  private final boolean failOnMismatch;
+  private long lineNumber = 0;
+  private LineCountMismatchException mismatch = null;
+
+  /**
+   * @param theFailOnMismatch Whether {@link #readRow()} throws a
+   * {@link LineCountMismatchException} when the files have a different
+   * number of lines.
+   */
+  public ColumnReader(
+      final List<File> theFiles,
+      final Charset theCharSet,
+      final boolean theFailOnMismatch) throws IOException {
+    files = theFiles.toArray(new File[theFiles.size()]);
+    readers = new BufferedReader[files.length];
+    streams = new CountingInputStream[files.length];
+    failOnMismatch = theFailOnMismatch;
+
+    try {
+      for(int i = 0; i < files.length; i++) {
+        streams[i] =
+            new CountingInputStream(CorpusCompression.open(files[i]));
+        readers[i] =
+            new BufferedReader(new InputStreamReader(streams[i], theCharSet));
+      }
+    } catch(final IOException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Reads the next row.
+   *
+   * @return The stripped lines of each file, or null once a file is
+   * exhausted.
+   * @throws LineCountMismatchException If failing on mismatches and not
+   * every file is exhausted.
+   */
+  public String[] readRow() throws IOException {
+    final String[] row = new String[files.length];
+    for(int i = 0; i < files.length; i++) {
+      row[i] = StringUtils.strip(readers[i].readLine());
+      if(row[i] == null) {
+        if(i > 0) {
+          mismatched(files[i], files[0]);
+          return null;
+        }
+        for(int j = 1; j < files.length && mismatch == null; j++) {
+          if(readers[j].readLine() != null) {
+            mismatched(files[0], files[j]);
+          }
+        }
+        return null;
+      }
+    }
+
+    lineNumber++;
+    return row;
+  }
+
+  @Override
+  public ImmutablePair<String, String> readPair() throws IOException {
+    final String[] row = readRow();
+    if(row == null) {
+      return null;
+    }
+    return new ImmutablePair<String, String>(
+        row[0], ColumnCorpus.joinOthers(row));
+  }
+
+  @Override
+  public long skipPairs(final long noPairs) throws IOException {
+    long noSkipped = 0;
+    while(noSkipped < noPairs && readRow() != null) {
+      noSkipped++;
+    }
+    return noSkipped;
+  }
+
+  private void mismatched(final File shorterFile, final File longerFile)
+  throws LineCountMismatchException {
+    if(mismatch == null) {
+      mismatch =
+          new LineCountMismatchException(shorterFile, longerFile, lineNumber);
+    }
+    if(failOnMismatch == true) {
+      throw mismatch;
+    }
+  }
+
+  /**
+   * @return The line count mismatch found so far, or null if the files
+   * have been aligned.
+   */
+  @Override
+  public LineCountMismatchException getMismatch() {
+    return mismatch;
+  }
+
+  /**
+   * @return The number of rows read so far, which is also the one based
+   * line number of the last row read.
+   */
+  @Override
+  public long getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * @return The bytes of all the files read so far, which runs ahead of
+   * the rows returned by what the readers buffer.
+   */
+  @Override
+  public long getBytesRead() {
+    long bytesRead = 0;
+    for(final CountingInputStream stream : streams) {
+      bytesRead += stream.getCount();
+    }
+    return bytesRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for(final BufferedReader reader : readers) {
+      if(reader == null) {
+        continue;
+      }
+      try {
+        reader.close();
+      } catch(final IOException ex) {
+        failure = ex;
+      }
+    }
+    if(failure != null) {
+      throw failure;
+    }
+  }
+}
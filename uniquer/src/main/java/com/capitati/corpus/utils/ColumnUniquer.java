@@ -0,0 +1,106 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Uniques a multi-parallel corpus of any number of aligned files, the
+ * columns, in a single external sort and merge.
+ * <p>
+ * Rows are duplicates when their key columns, all of them by default, are
+ * the same once case folded and with runs of spaces made one, just as the
+ * sort mode compares source sentences. The first row of each key in sort
+ * order is kept, which of rows with the same key is the earliest line,
+ * and the output is sorted by the key.
+ * <p>
+ * Each row is read, spilled and merged as a single pair of a
+ * {@link ColumnCorpus}, so every file is read once whatever the number of
+ * columns, and the sort threads, job manifest and metrics of the sort mode
+ * apply as they do to pairs. The filters see each column paired with the
+ * first, the pivot, and a row is dropped when any such pair is.
+ */
+public class ColumnUniquer extends CorpusUniquer {
+  private final int noColumns;
+
+  /**
+   * @param theFiles The aligned files, at least two, the first of which is
+   * the pivot.
+   */
+  public ColumnUniquer(
+      final List<File> theFiles,
+      final Charset theInputCharSet,
+      final int theMaxNumOfTempFiles,
+      final File theTempDirectory,
+      final Charset theOutputCharSet,
+      final Logger theLogger) {
+    this(
+        new ColumnCorpus(theFiles),
+        theInputCharSet,
+        theMaxNumOfTempFiles,
+        theTempDirectory,
+        theOutputCharSet,
+        theLogger);
+  }
+
+  public ColumnUniquer(
+      final ColumnCorpus theCorpus,
+      final Charset theInputCharSet,
+      final int theMaxNumOfTempFiles,
+      final File theTempDirectory,
+      final Charset theOutputCharSet,
+      final Logger theLogger) {
+    super(
+        theCorpus,
+        theInputCharSet,
+        theMaxNumOfTempFiles,
+        theTempDirectory,
+        theOutputCharSet,
+        theLogger);
+    noColumns = theCorpus.getNoColumns();
+
+    final int[] keyColumns = new int[noColumns];
+    for(int i = 0; i < keyColumns.length; i++) {
+      keyColumns[i] = i;
+    }
+    super.setKeyColumns(keyColumns);
+  }
+
+  /**
+   * Parses key columns such as "1,3", numbered from one.
+   *
+   * @return The zero based column indexes.
+   */
+  public static int[] parseKeyColumns(final String specification) {
+    final String[] parts = specification.split(",");
+    final int[] columns = new int[parts.length];
+    for(int i = 0; i < parts.length; i++) {
+      columns[i] = Integer.parseInt(parts[i].trim()) - 1;
+      if(columns[i] < 0) {
+        throw new IllegalArgumentException(
+            "Key columns are numbered from one: " + specification);
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Sets the columns, as zero based indexes, that rows must share to be
+   * duplicates. The default is all of them.
+   */
+  @Override
+  public void setKeyColumns(final int... theKeyColumns) {
+    if(theKeyColumns.length < 1) {
+      throw new IllegalArgumentException("No key columns");
+    }
+    for(final int column : theKeyColumns) {
+      if(column < 0 || column >= noColumns) {
+        throw new IllegalArgumentException(
+            "No key column " + (column + 1) + " in " + noColumns + " files");
+      }
+    }
+    super.setKeyColumns(theKeyColumns);
+  }
+}
@@ -0,0 +1,243 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The compressions corpus files may be read and written in.
+ * <p>
+ * Compressed input is recognised by its extension or, failing that, by its
+ * first bytes, so streams and named pipes are recognised too. It is
+ * decompressed on a thread of its own through a
+ * {@link PrefetchingInputStream}, which overlaps with parsing the lines.
+ */
+public enum CorpusCompression {
+  /**
+   * Plain text.
+   */
+  NONE("") {
+    @Override
+    InputStream decompress(final InputStream in) {
+      return in;
+    }
+
+    @Override
+    OutputStream compress(final OutputStream out) {
+      return out;
+    }
+
+    @Override
+    void finish(final OutputStream out) {
+      // Nothing to finish
+    }
+  },
+  /**
+   * gzip, including files of several concatenated members.
+   */
+  GZIP(".gz") {
+    @Override
+    InputStream decompress(final InputStream in) throws IOException {
+      return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+
+    @Override
+    OutputStream compress(final OutputStream out) throws IOException {
+      return new GZIPOutputStream(out, BUFFER_SIZE);
+    }
+
+    @Override
+    void finish(final OutputStream out) throws IOException {
+      ((GZIPOutputStream )out).finish();
+    }
+  },
+  /**
+   * bzip2, including files of several concatenated streams.
+   */
+  BZIP2(".bz2") {
+    @Override
+    InputStream decompress(final InputStream in) throws IOException {
+      // The decompressor reads a byte at a time
+      return new BZip2CompressorInputStream(
+          new BufferedInputStream(in, BUFFER_SIZE), true);
+    }
+
+    @Override
+    OutputStream compress(final OutputStream out) throws IOException {
+      // The compressor writes a byte at a time, and lets go of the stream
+      // underneath once it is finished
+      final OutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+      return new BZip2CompressorOutputStream(buffered) {
+        @Override
+        public void finish() throws IOException {
+          super.finish();
+          buffered.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            buffered.close();
+          }
+        }
+      };
+    }
+
+    @Override
+    void finish(final OutputStream out) throws IOException {
+      ((BZip2CompressorOutputStream )out).finish();
+    }
+  };
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAGIC_LENGTH = 3;
+
+  /**
+   * Looks a compression up by its command line name, e.g. "gzip".
+   */
+  public static CorpusCompression forName(final String name) {
+    return valueOf(name.trim().toUpperCase());
+  }
+
+  /**
+   * Recognises a compression by a file's extension, or else its first
+   * bytes.
+   */
+  public static CorpusCompression detect(final File file) throws IOException {
+    final CorpusCompression compression = forExtension(file);
+    if(compression != NONE) {
+      return compression;
+    }
+
+    final InputStream in = new FileInputStream(file);
+    try {
+      return forMagic(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static CorpusCompression forExtension(final File file) {
+    for(final CorpusCompression compression : values()) {
+      if(compression != NONE &&
+          file.getName().endsWith(compression.extension) == true) {
+        return compression;
+      }
+    }
+    return NONE;
+  }
+
+  private static CorpusCompression forMagic(final InputStream in)
+  throws IOException {
+    final byte[] magic = new byte[MAGIC_LENGTH];
+    int length = 0;
+    int noBytes = 0;
+    while(length < magic.length &&
+        (noBytes = in.read(magic, length, magic.length - length)) >= 0) {
+      length += noBytes;
+    }
+
+    if(length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+      return GZIP;
+    }
+    if(length >= 3 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h') {
+      return BZIP2;
+    }
+    return NONE;
+  }
+
+  /**
+   * Opens a file, decompressing it if it is compressed.
+   */
+  public static InputStream open(final File file) throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      final CorpusCompression compression = forExtension(file);
+      return (compression != NONE) ?
+          compression.decompressAhead(in) : open(in);
+    } catch(final IOException ex) {
+      in.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Wraps a stream, such as the standard input, so that it is decompressed
+   * if it starts like a compressed one.
+   */
+  public static InputStream open(final InputStream in) throws IOException {
+    final InputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+    buffered.mark(MAGIC_LENGTH);
+    final CorpusCompression compression = forMagic(buffered);
+    buffered.reset();
+
+    return (compression == NONE) ?
+        buffered : compression.decompressAhead(buffered);
+  }
+
+  private final String extension;
+
+  private CorpusCompression(final String theExtension) {
+    extension = theExtension;
+  }
+
+  abstract InputStream decompress(InputStream in) throws IOException;
+
+  abstract OutputStream compress(OutputStream out) throws IOException;
+
+  /**
+   * Writes out the end of what a stream from {@link #compress} holds,
+   * without closing the stream underneath.
+   */
+  abstract void finish(OutputStream out) throws IOException;
+
+  // Decompresses on a thread of the stream's own
+  private InputStream decompressAhead(final InputStream in)
+  throws IOException {
+    final InputStream decompressed = decompress(in);
+    final ExecutorService executor =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().
+                setNameFormat("uniquer-decompress-%d").
+                setDaemon(true).
+                build());
+
+    return new PrefetchingInputStream(
+        decompressed, executor, RunReadAhead.DEFAULT_BUFFER_SIZE) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          executor.shutdownNow();
+        }
+      }
+    };
+  }
+
+  /**
+   * @return The extension of files in this compression, e.g. ".gz".
+   */
+  public String getExtension() {
+    return extension;
+  }
+
+  public String getName() {
+    return name().toLowerCase();
+  }
+}
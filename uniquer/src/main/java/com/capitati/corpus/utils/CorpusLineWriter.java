@@ -0,0 +1,354 @@
+package com.capitati.corpus.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+
+/**
+ * Writes lines held as UTF-8 bytes to a corpus file or stream.
+ * <p>
+ * Lines are gathered into large batches that a writer thread of the file's
+ * own writes out, so the caller only waits when every batch is still
+ * queued for the disk. When the file's character set is not UTF-8 the
+ * writer thread re-encodes each batch too, and compresses it when asked
+ * to. A few batches are recycled between the two threads.
+ * <p>
+ * A stream is flushed when the writer is closed but left open, as it
+ * belongs to the caller.
+ */
+public class CorpusLineWriter implements Closeable {
+  private static final byte[] NEW_LINE =
+      System.getProperty("line.separator").getBytes(Charsets.UTF_8);
+  private static final byte TAB = '\t';
+  private static final int BATCH_SIZE = 1024 * 1024;
+  private static final int NO_BATCHES = 3;
+  // Tells the writer thread there are no more batches
+  private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+  private final String name;
+  // The file written to, or null when writing to a stream
+  private final FileChannel fileChannel;
+  // The caller's stream, which is flushed but never closed
+  private final OutputStream stream;
+  private final CorpusCompression compression;
+  // Compresses into the file or stream, or null
+  private final OutputStream compressor;
+  private final WritableByteChannel channel;
+  // Re-encodes every batch, keeping any state such as whether a byte order
+  // mark was written, or null for UTF-8; only the writer thread uses it
+  private final CharsetEncoder encoder;
+  private final ByteBuffer encoded;
+  private final boolean sync;
+  private final BlockingQueue<ByteBuffer> fullBatches =
+      new LinkedBlockingQueue<ByteBuffer>();
+  private final BlockingQueue<ByteBuffer> freeBatches =
+      new LinkedBlockingQueue<ByteBuffer>();
+  private final Thread writerThread;
+  // Whatever ended the writes, thrown again to the caller
+  private volatile Throwable failure = null;
+  private ByteBuffer batch;
+  private boolean closed = false;
+
+  public CorpusLineWriter(final File theFile, final Charset theCharSet)
+  throws IOException {
+    this(theFile, theCharSet, false);
+  }
+
+  public CorpusLineWriter(
+      final File theFile,
+      final Charset theCharSet,
+      final boolean theSync) throws IOException {
+    this(theFile, theCharSet, CorpusCompression.NONE, theSync);
+  }
+
+  /**
+   * @param theCompression The file's compression; its extension is not
+   * added to the file's name.
+   * @param theSync Whether closing the writer forces the file's contents
+   * to the disk.
+   */
+  public CorpusLineWriter(
+      final File theFile,
+      final Charset theCharSet,
+      final CorpusCompression theCompression,
+      final boolean theSync) throws IOException {
+    this(theFile, theCharSet, theCompression, theSync, false);
+  }
+
+  /**
+   * @param theAppend Whether lines are added to the end of the file rather
+   * than replacing it. A compressed file gains another member.
+   */
+  public CorpusLineWriter(
+      final File theFile,
+      final Charset theCharSet,
+      final CorpusCompression theCompression,
+      final boolean theSync,
+      final boolean theAppend) throws IOException {
+    this(
+        theFile.getPath(),
+        new FileOutputStream(theFile, theAppend).getChannel(),
+        null,
+        theCharSet,
+        theCompression,
+        theSync);
+  }
+
+  public CorpusLineWriter(
+      final OutputStream theStream,
+      final String theName,
+      final Charset theCharSet) throws IOException {
+    this(theStream, theName, theCharSet, CorpusCompression.NONE);
+  }
+
+  /**
+   * @param theName The name the writer thread and any errors are given.
+   */
+  public CorpusLineWriter(
+      final OutputStream theStream,
+      final String theName,
+      final Charset theCharSet,
+      final CorpusCompression theCompression) throws IOException {
+    this(theName, null, theStream, theCharSet, theCompression, false);
+  }
+
+  private CorpusLineWriter(
+      final String theName,
+      final FileChannel theFileChannel,
+      final OutputStream theStream,
+      final Charset theCharSet,
+      final CorpusCompression theCompression,
+      final boolean theSync) throws IOException {
+    name = theName;
+    fileChannel = theFileChannel;
+    stream = theStream;
+    compression = theCompression;
+    if(theCompression != CorpusCompression.NONE) {
+      try {
+        // Compressing is left to the writer thread, which does the writes
+        compressor = theCompression.compress(
+            (theStream != null) ?
+                theStream : Channels.newOutputStream(theFileChannel));
+      } catch(final IOException ex) {
+        if(theFileChannel != null) {
+          theFileChannel.close();
+        }
+        throw ex;
+      }
+      channel = Channels.newChannel(compressor);
+    } else {
+      compressor = null;
+      channel = (theStream != null) ?
+          Channels.newChannel(theStream) : theFileChannel;
+    }
+    if(Charsets.UTF_8.equals(theCharSet) == true) {
+      encoder = null;
+      encoded = null;
+    } else {
+      encoder = theCharSet.newEncoder().
+          onMalformedInput(CodingErrorAction.REPLACE).
+          onUnmappableCharacter(CodingErrorAction.REPLACE);
+      encoded = ByteBuffer.allocateDirect(BATCH_SIZE);
+    }
+    sync = theSync;
+
+    batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+    for(int i = 1; i < NO_BATCHES; i++) {
+      freeBatches.add(ByteBuffer.allocateDirect(BATCH_SIZE));
+    }
+
+    writerThread = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            writeBatches();
+          }
+        },
+        "uniquer-writer-" + new File(theName).getName());
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  private void writeBatches() {
+    try {
+      while(true) {
+        final ByteBuffer fullBatch = fullBatches.take();
+        if(fullBatch == END) {
+          if(failure == null && encoder != null) {
+            try {
+              encode(CharBuffer.allocate(0), true);
+            } catch(final Throwable ex) {
+              failure = ex;
+            }
+          }
+          return;
+        }
+
+        // After a failure keep taking batches so the caller never blocks
+        if(failure == null) {
+          try {
+            if(encoder == null) {
+              write(fullBatch);
+            } else {
+              // Batches hold whole lines, so hold whole characters too
+              encode(Charsets.UTF_8.decode(fullBatch), false);
+            }
+          } catch(final Throwable ex) {
+            failure = ex;
+          }
+        }
+
+        // Lines larger than a batch had a batch of their own
+        if(fullBatch.capacity() == BATCH_SIZE) {
+          fullBatch.clear();
+          freeBatches.put(fullBatch);
+        }
+      }
+    } catch(final InterruptedException ex) {
+      failure =
+          new InterruptedIOException("Interrupted whilst writing " + name);
+      // Wakes a caller waiting for a free batch to see the failure
+      freeBatches.add(ByteBuffer.allocate(0));
+    }
+  }
+
+  private void write(final ByteBuffer bytes) throws IOException {
+    while(bytes.hasRemaining() == true) {
+      channel.write(bytes);
+    }
+  }
+
+  // Encodes characters through the file's encoder, flushing it at the end
+  // of the input
+  private void encode(final CharBuffer chars, final boolean endOfInput)
+  throws IOException {
+    CoderResult result;
+    do {
+      result = encoder.encode(chars, encoded, endOfInput);
+      drainEncoded(result);
+    } while(result.isOverflow() == true);
+
+    if(endOfInput == true) {
+      do {
+        result = encoder.flush(encoded);
+        drainEncoded(result);
+      } while(result.isOverflow() == true);
+    }
+  }
+
+  private void drainEncoded(final CoderResult result) throws IOException {
+    if(result.isError() == true) {
+      result.throwException();
+    }
+    encoded.flip();
+    write(encoded);
+    encoded.clear();
+  }
+
+  private void checkFailure() throws IOException {
+    if(failure != null) {
+      Throwables.propagateIfInstanceOf(failure, IOException.class);
+      throw Throwables.propagate(failure);
+    }
+  }
+
+  private void handOver(final int sizeNeeded) throws IOException {
+    checkFailure();
+    try {
+      batch.flip();
+      fullBatches.put(batch);
+      batch = freeBatches.take();
+      if(batch.capacity() < sizeNeeded) {
+        freeBatches.put(batch);
+        batch = ByteBuffer.allocateDirect(sizeNeeded);
+      }
+    } catch(final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst writing " + name);
+    }
+  }
+
+  public void writeLine(final byte[] line) throws IOException {
+    final int size = line.length + NEW_LINE.length;
+    if(batch.remaining() < size) {
+      handOver(size);
+    }
+
+    batch.put(line);
+    batch.put(NEW_LINE);
+  }
+
+  /**
+   * Writes a source and a target as one line, separated by a tab.
+   */
+  public void writeLine(final byte[] source, final byte[] target)
+  throws IOException {
+    final int size = source.length + 1 + target.length + NEW_LINE.length;
+    if(batch.remaining() < size) {
+      handOver(size);
+    }
+
+    batch.put(source);
+    batch.put(TAB);
+    batch.put(target);
+    batch.put(NEW_LINE);
+  }
+
+  /**
+   * Writes out the lines still held, waits for the writer thread and, when
+   * asked to, forces the file to the disk. A stream is only flushed.
+   */
+  @Override
+  public void close() throws IOException {
+    if(closed == true) {
+      return;
+    }
+    closed = true;
+
+    try {
+      batch.flip();
+      if(batch.hasRemaining() == true) {
+        fullBatches.put(batch);
+      }
+      fullBatches.put(END);
+      writerThread.join();
+
+      checkFailure();
+      if(compressor != null) {
+        compression.finish(compressor);
+        compressor.flush();
+      }
+      if(stream != null) {
+        stream.flush();
+      } else if(sync == true) {
+        fileChannel.force(true);
+      }
+    } catch(final InterruptedException ex) {
+      writerThread.interrupt();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst closing " + name);
+    } finally {
+      // Closes the compressor and the file underneath too
+      if(stream == null) {
+        channel.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Reads aligned lines from a source and a target file, either of which may
+ * be compressed, as stripped sentence pairs. Reading stops when either
+ * file ends; if the other file has lines left the mismatch is either
+ * thrown or recorded, see {@link #getMismatch()}.
+ */
+public class CorpusPairReader implements IPairReader {
+  private final BufferedReader sourceReader;
+  private final BufferedReader targetReader;
+  private final CountingInputStream sourceStream;
+  private final CountingInputStream targetStream;
+  private final File sourceFile;
+  private final File targetFile;
+  private final boolean failOnMismatch;
+  private long lineNumber = 0;
+  private LineCountMismatchException mismatch = null;
+
+  public CorpusPairReader(
+      final File theSourceFile,
+      final File theTargetFile,
+      final Charset theCharSet) throws IOException {
+    this(theSourceFile, theTargetFile, theCharSet, false);
+  }
+
+  /**
+   * @param theFailOnMismatch Whether {@link #readPair()} throws a
+   * {@link LineCountMismatchException} when the files have a different
+   * number of lines.
+   */
+  public CorpusPairReader(
+      final File theSourceFile,
+      final File theTargetFile,
+      final Charset theCharSet,
+      final boolean theFailOnMismatch) throws IOException {
+    sourceFile = theSourceFile;
+    targetFile = theTargetFile;
+    failOnMismatch = theFailOnMismatch;
+
+    // Source file...
+    sourceStream =
+        new CountingInputStream(CorpusCompression.open(theSourceFile));
+    sourceReader =
+        new BufferedReader(new InputStreamReader(sourceStream, theCharSet));
+
+    try {
+      // Target file...
+      targetStream =
+          new CountingInputStream(CorpusCompression.open(theTargetFile));
+      targetReader =
+          new BufferedReader(new InputStreamReader(targetStream, theCharSet));
+    } catch(final IOException ex) {
+      sourceReader.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Reads the next pair.
+   *
+   * @return The stripped source and target lines, or null once either file
+   * is exhausted.
+   * @throws LineCountMismatchException If failing on mismatches and only
+   * one file is exhausted.
+   */
+  @Override
+  public ImmutablePair<String, String> readPair() throws IOException {
+    // Get next line from source
+    final String sourceLine = StringUtils.strip(sourceReader.readLine());
+    if(sourceLine == null) {
+      if(mismatch == null && targetReader.readLine() != null) {
+        mismatched(sourceFile, targetFile);
+      }
+      return null;
+    }
+
+    // Read the target line...
+    final String targetLine = StringUtils.strip(targetReader.readLine());
+    if(targetLine == null) {
+      mismatched(targetFile, sourceFile);
+      return null;
+    }
+
+    lineNumber++;
+    return new ImmutablePair<String, String>(sourceLine, targetLine);
+  }
+
+  @Override
+  public long skipPairs(final long noPairs) throws IOException {
+    long noSkipped = 0;
+    while(noSkipped < noPairs && readPair() != null) {
+      noSkipped++;
+    }
+    return noSkipped;
+  }
+
+  private void mismatched(final File shorterFile, final File longerFile)
+  throws LineCountMismatchException {
+    if(mismatch == null) {
+      mismatch =
+          new LineCountMismatchException(shorterFile, longerFile, lineNumber);
+    }
+    if(failOnMismatch == true) {
+      throw mismatch;
+    }
+  }
+
+  /**
+   * @return The line count mismatch found so far, or null if the files
+   * have been aligned.
+   */
+  @Override
+  public LineCountMismatchException getMismatch() {
+    return mismatch;
+  }
+
+  /**
+   * @return The number of pairs read so far, which is also the one based
+   * line number of the last pair read.
+   */
+  @Override
+  public long getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * @return The bytes of both files read so far, which runs ahead of the
+   * pairs returned by what the readers buffer.
+   */
+  @Override
+  public long getBytesRead() {
+    return sourceStream.getCount() + targetStream.getCount();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      targetReader.close();
+    } finally {
+      sourceReader.close();
+    }
+  }
+}
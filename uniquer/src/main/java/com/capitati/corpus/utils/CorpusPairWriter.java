@@ -0,0 +1,119 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes pairs to aligned source and target files, either replacing them or
+ * appending to them.
+ */
+public class CorpusPairWriter implements IPairWriter {
+  private final File sourceFile;
+  private final File targetFile;
+  // The lengths the files had before appending, or -1 when replacing them
+  private final long sourceLength;
+  private final long targetLength;
+  private final CorpusLineWriter sourceWriter;
+  private final CorpusLineWriter targetWriter;
+
+  /**
+   * Truncates a file to a length, if it is longer.
+   */
+  static void truncate(final File file, final long length)
+  throws IOException {
+    final FileChannel channel =
+        FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+    try {
+      channel.truncate(length);
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  public CorpusPairWriter(
+      final File theSourceFile,
+      final File theTargetFile,
+      final Charset theCharSet,
+      final CorpusCompression theCompression,
+      final boolean theSync) throws IOException {
+    this(
+        theSourceFile,
+        theTargetFile,
+        theCharSet,
+        theCompression,
+        theSync,
+        false);
+  }
+
+  /**
+   * @param theAppend Whether the pairs are added to the end of the files.
+   */
+  public CorpusPairWriter(
+      final File theSourceFile,
+      final File theTargetFile,
+      final Charset theCharSet,
+      final CorpusCompression theCompression,
+      final boolean theSync,
+      final boolean theAppend) throws IOException {
+    sourceFile = theSourceFile;
+    targetFile = theTargetFile;
+    sourceLength = (theAppend == true) ? theSourceFile.length() : -1;
+    targetLength = (theAppend == true) ? theTargetFile.length() : -1;
+    sourceWriter = new CorpusLineWriter(
+        theSourceFile, theCharSet, theCompression, theSync, theAppend);
+    try {
+      targetWriter = new CorpusLineWriter(
+          theTargetFile, theCharSet, theCompression, theSync, theAppend);
+    } catch(final IOException ex) {
+      sourceWriter.close();
+      discard(theSourceFile, sourceLength);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void writePair(final byte[] source, final byte[] target)
+  throws IOException {
+    sourceWriter.writeLine(source);
+    targetWriter.writeLine(target);
+  }
+
+  /**
+   * Deletes the files, or when appending cuts them back to their lengths
+   * before.
+   */
+  @Override
+  public void discard() throws IOException {
+    try {
+      close();
+    } finally {
+      try {
+        discard(targetFile, targetLength);
+      } finally {
+        discard(sourceFile, sourceLength);
+      }
+    }
+  }
+
+  private static void discard(final File file, final long length)
+  throws IOException {
+    if(length < 0) {
+      file.delete();
+    } else {
+      truncate(file, length);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      targetWriter.close();
+    } finally {
+      sourceWriter.close();
+    }
+  }
+}
@@ -1,366 +1,518 @@
 package com.capitati.corpus.utils;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.log4j.Logger;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class CorpusUniquer implements ICorpusUniquer {
-  // we divide the file into small blocks. If the blocks
-  // are too small, we shall create too many temporary files.
-  // If they are too big, we shall be using too much memory.
-  private long estimateBestSizeOfBlocks() {
-    final long filesSize =
-        ((sourceFile.length() * 2) + (targetFile.length() * 2)) / 2;       
-
-    /**
-     * We multiply by two because later on someone insisted on counting the
-     * memory usage as 2 bytes per character. By this model, loading a file with
-     * 1 character will use 2 bytes.
-     */
-    // we don't want to open up much more than maxtmpfiles temporary files,
-    // better run
-    // out of memory first.
-    final long blocksize = filesSize / maxNoTempFiles
-        + (filesSize % maxNoTempFiles == 0 ? 0 : 1);
-
-    // on the other hand, we don't want to create many temporary files
-    // for naught. If blocksize is smaller than half the free memory, grow it.
-    final long freemem = Runtime.getRuntime().freeMemory();
- 
-    return (blocksize < (freemem / 2)) ? (freemem / 2) : blocksize;
-  }
-
-  private List<ImmutablePair<File, File>> sortInBatch(
-      final Comparator<String> comparator,
-      final Function<ImmutablePair<String, String>, Boolean> filter)
+  // Target keys kept per source group to confirm fingerprint matches
+  private static final int MAX_TARGET_BYTES_PER_GROUP = 16 * 1024 * 1024;
+  // Targets remembered per source group
+  private static final int MAX_TARGETS_PER_GROUP = 256 * 1024;
+
+  // Records read between checks of the heap for pressure
+  private static final int PRESSURE_CHECK_INTERVAL = 1024;
+  // The target key of records whose key alone tells them apart
+  private static final byte[] NO_TARGET_KEY = new byte[0];
+
+  private List<File> sortInBatch(
+      final PairFilterChain filter,
+      final boolean failOnMismatch)
   throws IOException {
-    final List<ImmutablePair<File, File>> files =
-        new ArrayList<ImmutablePair<File, File>>();
-    final long blockSize = estimateBestSizeOfBlocks();
+    final List<File> files = new ArrayList<File>();
+    if(jobManifest != null) {
+      files.addAll(jobManifest.getRuns());
+      if(jobManifest.isSorted() == true) {
+        logger.info(
+            "Resuming with the " + files.size() + " sorted temporary " +
+            "files of the job manifest");
+        return files;
+      }
+    }
 
-    // Source file...
-    final BufferedReader sourceReader =
-        new BufferedReader(
-            new InputStreamReader(
-                new FileInputStream(sourceFile), inputCharSet));
+    final IPairReader reader =
+        corpus.openReader(inputCharSet, failOnMismatch);
+    boolean sorted = false;
 
     try {
-      // Target file...
-      final BufferedReader targetReader =
-          new BufferedReader(
-              new InputStreamReader(
-                  new FileInputStream(targetFile), inputCharSet));
+      final long resumeLine =
+          (jobManifest != null) ? jobManifest.getResumeLine() : 0;
+      if(resumeLine > 0) {
+        logger.info(
+            "Resuming after line " + resumeLine + " with the " +
+            files.size() + " temporary files of the job manifest");
+        if(reader.skipPairs(resumeLine) < resumeLine) {
+          throw new IOException(
+              "The input ends before line " + resumeLine +
+              " where the job is resumed");
+        }
+      }
 
-      try {
-        // List of source file lines and target file positions
-        final List<ImmutablePair<String, String>> lines =
-            new ArrayList<ImmutablePair<String, String>>();
+      if(noSortThreads > 1) {
+        sortInParallel(reader, filter, files);
+      } else {
+        // List of source and target lines with their sort keys
+        final List<SortRecord> lines = new ArrayList<SortRecord>();
+        boolean moreLines = true;
+
+        while(moreLines == true) {
+          final long startLine = reader.getLineNumber();
+          moreLines = readBlock(reader, filter, 1, lines);
+
+          final File runFile =
+              saveBlock(lines, startLine, reader.getLineNumber());
+          if(runFile != null) {
+            files.add(runFile);
+            warnOfManyRuns(files.size());
+          }
+          lines.clear();
+        }
+      }
+
+      if(reader.getMismatch() != null) {
+        logger.warn(reader.getMismatch().getMessage());
+      }
+      if(jobManifest != null) {
+        jobManifest.setSorted();
+      }
+      sorted = true;
+    } finally {
+      reader.close();
+      // A job manifest keeps the runs for the job to be resumed
+      if(sorted == false && jobManifest == null) {
+        deleteFiles(files);
+      }
+    }
 
-        String sourceLine = "";
-        String targetLine = "";
-        ImmutablePair<String, String> sourceTarget = null;
+    return files;
+  }
 
-        try {
-          while(sourceLine != null) {
-            long currentblocksize = 0;// in bytes
-
-            while(currentblocksize < blockSize) {
-              // Get next line from source 
-              sourceLine = StringUtils.strip(sourceReader.readLine());
-              if(sourceLine == null) {
-                break;
-              }
-              
-              // Read the target line...
-              targetLine = StringUtils.strip(targetReader.readLine());
-              if(targetLine == null) {
-                break;
-              }
-
-              // Filter
-              sourceTarget = new ImmutablePair<String, String>(
-                  sourceLine, targetLine);
-              if(filter.apply(sourceTarget) == false) {
-                logger.info(
-                    "Dropping source sentence [" + sourceLine + "]" +
-                    " with target sentence [" + targetLine + "]");
-                continue;
-              }
-
-              // Add current source line
-              lines.add(
-                  new ImmutablePair<String, String>(sourceLine, targetLine));
-
-              // ram usage estimation, not very accurate, still more realistic
-              // that the simple 2 * String.length
-              currentblocksize +=
-                  StringSizeEstimator.estimatedSizeOf(sourceLine);
-            }
+  private void sortInParallel(
+      final IPairReader reader,
+      final PairFilterChain filter,
+      final List<File> files)
+  throws IOException {
+    final Semaphore blocksInFlight = new Semaphore(noSortThreads);
+    final ExecutorService sorters = Executors.newFixedThreadPool(
+        noSortThreads,
+        new ThreadFactoryBuilder().
+            setNameFormat("uniquer-sort-%d").
+            setDaemon(true).
+            build());
+    final List<Future<File>> results = new ArrayList<Future<File>>();
 
-            final ImmutablePair<File, File> tempFiles =
-                sortAndSave(lines, comparator);
-            try {
-              if(tempFiles != null) {
-                files.add(tempFiles);
-              }
-            } catch(final NullPointerException ex) {
-              // Ignore...
-            }
-            lines.clear();
+    try {
+      boolean moreLines = true;
+
+      while(moreLines == true) {
+        final List<SortRecord> lines = new ArrayList<SortRecord>();
+        final long startLine = reader.getLineNumber();
+        // The reader fills one block while at most noSortThreads blocks are
+        // being sorted and spilled, so share the budget between all of them.
+        moreLines = readBlock(reader, filter, noSortThreads + 1, lines);
+        final long endLine = reader.getLineNumber();
+        if(lines.size() < 1) {
+          if(jobManifest != null) {
+            jobManifest.addRun(startLine, endLine, null);
           }
-        } catch(EOFException oef) {
-          if(lines.size() > 0) {
-            final ImmutablePair<File, File> tempFiles =
-                sortAndSave(lines, comparator);
-            try {
-              files.add(tempFiles);
-            } catch(final NullPointerException ex) {
-              // Ignore...
+          continue;
+        }
+
+        blocksInFlight.acquire();
+        try {
+          results.add(sorters.submit(
+              new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                  final long startCpuTime = UniquerMetrics.getThreadCpuTime();
+                  try {
+                    return saveBlock(lines, startLine, endLine);
+                  } finally {
+                    metrics.addWorkerCpuTime(
+                        UniquerMetrics.getThreadCpuTime() - startCpuTime);
+                    blocksInFlight.release();
+                  }
+                }
+              }));
+        } catch(final RejectedExecutionException ex) {
+          blocksInFlight.release();
+          throw ex;
+        }
+      }
+
+      for(final Future<File> result : results) {
+        final File runFile = result.get();
+        if(runFile != null) {
+          files.add(runFile);
+          warnOfManyRuns(files.size());
+        }
+      }
+      results.clear();
+    } catch(final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst sorting blocks");
+    } catch(final ExecutionException ex) {
+      Throwables.propagateIfInstanceOf(ex.getCause(), IOException.class);
+      throw Throwables.propagate(ex.getCause());
+    } finally {
+      // Let the blocks being spilled finish rather than interrupt them, so
+      // that no run is written or recorded in the job manifest once the
+      // sort has given up
+      sorters.shutdown();
+      awaitTermination(sorters);
+      // On failure, remove the runs the workers did manage to write unless
+      // a job manifest keeps them
+      if(jobManifest == null) {
+        for(final Future<File> result : results) {
+          try {
+            if(result.isDone() == true && result.get() != null) {
+              result.get().delete();
             }
-            lines.clear();
+          } catch(final Exception ex) {
+            // Ignore...
           }
         }
-      } finally {
-        targetReader.close();
       }
-    } finally {
-      sourceReader.close();
     }
+  }
 
-    return files;
+  private static void awaitTermination(final ExecutorService executor) {
+    boolean interrupted = false;
+    while(true) {
+      try {
+        if(executor.awaitTermination(1, TimeUnit.SECONDS) == true) {
+          break;
+        }
+      } catch(final InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if(interrupted == true) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void deleteFiles(final List<File> files) {
+    for(final File file : files) {
+      file.delete();
+    }
+  }
+
+  private void warnOfManyRuns(final int noRuns) {
+    if(noRuns == maxNoTempFiles + 1) {
+      logger.warn(
+          "More than " + maxNoTempFiles + " temporary files are needed " +
+          "within a heap budget of " + memoryBudget.getBudget() + " bytes");
+    }
+  }
+
+  /**
+   * Reads records until the block uses its share of the memory budget, or
+   * the heap comes under pressure.
+   *
+   * @param noBlocks The number of blocks sharing the budget.
+   * @return False at the end of the input.
+   */
+  private boolean readBlock(
+      final IPairReader reader,
+      final PairFilterChain filter,
+      final int noBlocks,
+      final List<SortRecord> lines)
+  throws IOException {
+    final long blockSize = memoryBudget.getBlockSize(noBlocks);
+    long currentblocksize = 0;// in bytes
+
+    while(currentblocksize < blockSize) {
+      // Get next source and target lines
+      final ImmutablePair<String, String> sourceTarget = reader.readPair();
+      if(sourceTarget == null) {
+        metrics.read(reader.getLineNumber(), reader.getBytesRead());
+        return false;
+      }
+      if(reader.getLineNumber() % UniquerMetrics.PUBLISH_INTERVAL == 0) {
+        metrics.read(reader.getLineNumber(), reader.getBytesRead());
+      }
+      final String sourceLine = sourceTarget.getLeft();
+      final String targetLine = sourceTarget.getRight();
+
+      // Filter
+      if(accept(filter, reader.getLineNumber(), sourceLine, targetLine) ==
+          false) {
+        continue;
+      }
+
+      // Add current source line
+      final SortRecord record = (keyColumns == null) ?
+          new SortRecord(sourceLine, targetLine, reader.getLineNumber()) :
+          new SortRecord(
+              sourceLine, targetLine, keyColumns, reader.getLineNumber());
+      lines.add(record);
+      currentblocksize += MemoryBudget.sizeOf(record);
+
+      if(lines.size() % PRESSURE_CHECK_INTERVAL == 0 &&
+          memoryBudget.isUnderPressure() == true) {
+        logger.warn(
+            "Heap under pressure, spilling a block of " + lines.size() +
+            " sentence pairs early");
+        break;
+      }
+    }
+
+    metrics.read(reader.getLineNumber(), reader.getBytesRead());
+    return true;
+  }
+
+  // Passes the target through the filters with the source, or each of the
+  // columns a ColumnCorpus joins into it
+  private boolean accept(
+      final PairFilterChain filter,
+      final long lineNumber,
+      final String sourceLine,
+      final String targetLine)
+  throws IOException {
+    int start = 0;
+    while(true) {
+      final int end = targetLine.indexOf(ColumnCorpus.SEPARATOR, start);
+      final String target = (start == 0 && end < 0) ?
+          targetLine :
+          targetLine.substring(start, (end < 0) ? targetLine.length() : end);
+      if(filter.accept(sourceLine, target) == false) {
+        metrics.dropped(filter.getDroppedBy());
+        auditSink.dropped(
+            filter.getDroppedBy(), lineNumber, sourceLine, target);
+        return false;
+      }
+      if(end < 0) {
+        return true;
+      }
+      start = end + 1;
+    }
+  }
+
+  // Spills a block read from a range of input lines and records it in the
+  // job manifest, if there is one
+  private File saveBlock(
+      final List<SortRecord> lines, final long startLine, final long endLine)
+  throws IOException {
+    final File runFile = sortAndSave(lines);
+    if(jobManifest != null) {
+      jobManifest.addRun(startLine, endLine, runFile);
+    }
+    return runFile;
   }
 
-  private ImmutablePair<File, File> sortAndSave(
-      final List<ImmutablePair<String, String>> lines,
-      final Comparator<String> stringComparator) throws IOException {
+  @VisibleForTesting
+  File sortAndSave(final List<SortRecord> lines) throws IOException {
     if(lines.size() < 1) {
       return null;
     }
 
-    final Comparator<ImmutablePair<String, String>> comparator =
-        new Comparator<ImmutablePair<String, String>>() {
-          @Override
-          public int compare(
-              final ImmutablePair<String, String> p1,
-              final ImmutablePair<String, String> p2) {
-            return stringComparator.compare(p1.getLeft(), p2.getLeft());
-          }
-        };
-    Collections.sort(lines, comparator);
-    
-    final File sourceTmpFile =
-        File.createTempFile("sort", "src-working", tempDirectory);
-    sourceTmpFile.deleteOnExit();
-    
-    final File targetTmpFile =
-        File.createTempFile("sort", "trg-working", tempDirectory);
-    targetTmpFile.deleteOnExit();
-
-    final BufferedWriter sourceWriter =
-        new BufferedWriter(
-            new OutputStreamWriter(
-                new FileOutputStream(sourceTmpFile), outputCharSet));
-    try {
-      final BufferedWriter targetWriter =
-          new BufferedWriter(
-              new OutputStreamWriter(
-                  new FileOutputStream(targetTmpFile), outputCharSet));
+    Collections.sort(lines, SortRecord.KEY_COMPARATOR);
 
-      try {
-        for(ImmutablePair<String, String> pair : lines) {
-          sourceWriter.write(pair.getLeft());
-          sourceWriter.newLine();
-          targetWriter.write(pair.getRight());
-          targetWriter.newLine();
-        }
-      } finally {
-        targetWriter.close();
+    final File runFile = File.createTempFile("sort", "run", tempDirectory);
+    if(jobManifest == null) {
+      runFile.deleteOnExit();
+    }
+
+    final Fingerprints fingerprints = new Fingerprints();
+    final RunWriter writer = new RunWriter(runFile, runCodec);
+    try {
+      for(final SortRecord record : lines) {
+        final byte[] targetKey = (record.distinctTargets == true) ?
+            SortKeys.encode(record.target) : NO_TARGET_KEY;
+        writer.write(
+            record.key,
+            fingerprints.fingerprint(targetKey),
+            record.lineNumber,
+            record.source.getBytes(Charsets.UTF_8),
+            record.target.getBytes(Charsets.UTF_8),
+            targetKey);
       }
     } finally {
-      sourceWriter.close();
+      writer.close();
     }
+    metrics.spilled(runFile.length());
 
-    return new ImmutablePair<File, File>(sourceTmpFile, targetTmpFile);
+    return runFile;
   }
 
-  private ImmutablePair<Long, Long> mergeSortedFiles(
+  @VisibleForTesting
+  ImmutablePair<Long, Long> mergeSortedFiles(
       final File outputSourceFile,
       final File outputTargetFile,
-      final List<ImmutablePair<File, File>> temporaryFiles,
-      final Comparator<String> cmp,
-      final Function<String, String> lineProcessor)
+      final List<File> temporaryFiles)
   throws IOException {
-    // Populate priority queue with temporary files
-    final PriorityQueue<ImmutablePair<BinaryFileBuffer, BinaryFileBuffer>> pq =
-        new PriorityQueue<ImmutablePair<BinaryFileBuffer, BinaryFileBuffer>>(
-            11,
-            new Comparator<ImmutablePair<BinaryFileBuffer, BinaryFileBuffer>>() {
-              @Override
-              public int compare(
-                  final ImmutablePair<BinaryFileBuffer, BinaryFileBuffer> i,
-                  final ImmutablePair<BinaryFileBuffer, BinaryFileBuffer> j) {
-                final String str_one = i.getLeft().peek();
-                final String str_two = j.getLeft().peek();
-
-                return cmp.compare(str_one, str_two);
-              }
-            });
-    for(final ImmutablePair<File, File> files : temporaryFiles) {
-      final BinaryFileBuffer sourceFileBuffer =
-          new BinaryFileBuffer(files.getLeft(), outputCharSet);
-      final BinaryFileBuffer targetFileBuffer =
-          new BinaryFileBuffer(files.getRight(), outputCharSet);
-
-      pq.add(
-          new ImmutablePair<BinaryFileBuffer, BinaryFileBuffer>(
-              sourceFileBuffer, targetFileBuffer));
+    final IPairWriter writer = new CorpusPairWriter(
+        outputSourceFile,
+        outputTargetFile,
+        outputCharSet,
+        outputCompression,
+        syncOutput);
+    try {
+      return mergeSortedFiles(writer, temporaryFiles);
+    } finally {
+      writer.close();
     }
+  }
 
+  private ImmutablePair<Long, Long> mergeSortedFiles(
+      final IPairWriter writer,
+      final List<File> temporaryFiles)
+  throws IOException {
+    // Open the temporary files
+    final List<RunReader> runs = new ArrayList<RunReader>();
+    final RunReadAhead readAhead = new RunReadAhead(runCodec, readAheadSize);
+    metrics.setMergeFanIn(temporaryFiles.size());
     try {
-      // Source file writer...
-      final BufferedWriter sourceWriter =
-          new BufferedWriter(
-              new OutputStreamWriter(
-                  new FileOutputStream(outputSourceFile), outputCharSet));
-
-      try {
-        // Target file writer...
-        final BufferedWriter targetWriter =
-            new BufferedWriter(
-                new OutputStreamWriter(
-                    new FileOutputStream(outputTargetFile), outputCharSet));
-
-        try {
-          // Merge...
-          long lineCounter = 0;
-          long noDuplicates = 0;
-          String sourceLine = null;
-          String procSourceLine = null;
-          String lastProcSourceLine = "";
-          String targetLine = null;
-          String procTargetLine = null;
-          BinaryFileBuffer sourceBuffer = null;
-          ImmutablePair<BinaryFileBuffer, BinaryFileBuffer> bufferPair = null;
-          final Set<String> targetLines = new HashSet<String>();
-
-          while(pq.size() > 0) {
-            bufferPair = pq.poll();
-
-            // Get source line
-            sourceBuffer = bufferPair.getLeft();
-            sourceLine = sourceBuffer.pop();
-            // Process source line
-            procSourceLine = lineProcessor.apply(sourceLine);
-
-            // Lookup target line
-            targetLine = bufferPair.getRight().pop();
-
-            if(procSourceLine.compareTo(lastProcSourceLine) == 0) {
-              procTargetLine = lineProcessor.apply(targetLine);
-
-              if(targetLines.contains(procTargetLine) == false) {
-                targetLines.add(procTargetLine);
-
-                // Write source and target lines
-                lineCounter = writeSourceAndTargetLines(
-                    sourceWriter,
-                    sourceLine,
-                    targetWriter,
-                    targetLine,
-                    lineCounter);
-              } else {
-                // Update the duplicates
-                logger.info(
-                    "Duplicate sentence pair, source [" + sourceLine + "] with " +
-                    "target [" + targetLine + "]");
-                noDuplicates++;
-              }
-            } else {
-              // Make a new set
-              targetLines.clear();
-              targetLines.add(lineProcessor.apply(targetLine));
-
-              // Write source and target files
-              lineCounter = writeSourceAndTargetLines(
-                  sourceWriter,
-                  sourceLine,
-                  targetWriter,
-                  targetLine,
-                  lineCounter);
-            }
-
-            lastProcSourceLine = procSourceLine;
-
-            if(sourceBuffer.empty() == true) {
-              sourceBuffer.fbr.close();
-              sourceBuffer.originalfile.delete();// we don't need you anymore
-            } else {
-              pq.add(bufferPair); // add it back
-            }
+      for(final File file : temporaryFiles) {
+        runs.add(readAhead.open(file));
+      }
+      final IRunMerger<RunReader> merger =
+          mergeEngine.create(
+              runs,
+              new Comparator<RunReader>() {
+                @Override
+                public int compare(final RunReader i, final RunReader j) {
+                  return SortKeys.compare(i.peekKey(), j.peekKey());
+                }
+              },
+              new Predicate<RunReader>() {
+                @Override
+                public boolean apply(final RunReader i) {
+                  return i.empty();
+                }
+              });
+
+      // Merge...
+      long lineCounter = 0;
+      long noDuplicates = 0;
+      byte[] sourceLine = null;
+      byte[] sourceKey = null;
+      byte[] lastSourceKey = null;
+      byte[] targetLine = null;
+      byte[] targetKey = null;
+      long targetFingerprint = 0;
+      long lineNumber = 0;
+      RunReader run = null;
+      final TargetFingerprintSet targetLines =
+          new TargetFingerprintSet(
+              MAX_TARGET_BYTES_PER_GROUP, MAX_TARGETS_PER_GROUP);
+
+      while(merger.isEmpty() == false) {
+        run = merger.top();
+
+        // Get source and target lines
+        sourceKey = run.peekKey();
+        sourceLine = run.peekSource();
+        targetLine = run.peekTarget();
+        targetKey = run.peekTargetKey();
+        targetFingerprint = run.peekFingerprint();
+        lineNumber = run.peekLineNumber();
+        run.pop();
+
+        if(lastSourceKey != null &&
+           SortKeys.sameGroup(sourceKey, lastSourceKey) == true) {
+          if(targetLines.add(targetFingerprint, targetKey) == true) {
+            // Write source and target lines
+            lineCounter = writeSourceAndTargetLines(
+                writer, sourceLine, targetLine, lineCounter);
+          } else {
+            // Update the duplicates
+            auditSink.duplicate(lineNumber, sourceLine, targetLine);
+            noDuplicates++;
           }
+        } else {
+          // Make a new set
+          targetLines.clear();
+          targetLines.add(targetFingerprint, targetKey);
+
+          // Write source and target files
+          lineCounter = writeSourceAndTargetLines(
+              writer, sourceLine, targetLine, lineCounter);
+        }
+
+        lastSourceKey = sourceKey;
+        if((lineCounter + noDuplicates) %
+            UniquerMetrics.PUBLISH_INTERVAL == 0) {
+          metrics.merged(lineCounter, noDuplicates);
+        }
 
-          return new ImmutablePair<Long, Long>(noDuplicates, lineCounter);
-        } finally {
-          targetWriter.close();
+        // A job manifest deletes its runs once the job is done
+        if(run.empty() == true && jobManifest == null) {
+          run.close();
+          run.getFile().delete();// we don't need you anymore
         }
-      } finally {
-        sourceWriter.close();
+        merger.update();
       }
+      metrics.merged(lineCounter, noDuplicates);
+
+      return new ImmutablePair<Long, Long>(noDuplicates, lineCounter);
     } finally {
-      for(final ImmutablePair<BinaryFileBuffer, BinaryFileBuffer> buffers : pq) {
-        buffers.getLeft().close();
-        buffers.getRight().close();
+      for(final RunReader run : runs) {
+        run.close();
       }
+      readAhead.close();
     }
   }
 
   private static long writeSourceAndTargetLines(
-      final BufferedWriter sourceWriter,
-      final String sourceLine,
-      final BufferedWriter targetWriter,
-      final String targetLine,
+      final IPairWriter writer,
+      final byte[] sourceLine,
+      final byte[] targetLine,
       final long lineCounter) throws IOException {
-    // Write the source line
-    sourceWriter.write(sourceLine);
-    sourceWriter.newLine();
-
-    // Write the target line
-    targetWriter.write(targetLine);
-    targetWriter.newLine();
-      
+    // Write the source and target lines
+    writer.writePair(sourceLine, targetLine);
+
     return lineCounter + 1;
   }
-  
-  private final File sourceFile;
-  private final File targetFile;
+
+  private final ICorpus corpus;
   private final File tempDirectory;
   private final Charset inputCharSet;
   private final Charset outputCharSet;
   private final int maxNoTempFiles;
   private final Logger logger;
+  private int noSortThreads = 1;
+  private MergeEngine mergeEngine = MergeEngine.LOSER_TREE;
+  private IRunCodec runCodec = RunCodec.NONE;
+  private MemoryBudget memoryBudget;
+  private int maxFanIn = RunCascade.DEFAULT_MAX_FAN_IN;
+  private int readAheadSize = RunReadAhead.DEFAULT_BUFFER_SIZE;
+  private boolean syncOutput = false;
+  private CorpusCompression outputCompression = CorpusCompression.NONE;
+  private File jobManifestFile = null;
+  private JobManifest jobManifest = null;
+  private int[] keyColumns = null;
+  private final List<IPairFilter> filters = new ArrayList<IPairFilter>();
+  private PairFilterChain filterChain = null;
+  private IAuditSink auditSink;
+  private final UniquerMetrics metrics = new UniquerMetrics();
 
   public CorpusUniquer(
       final File theSourceFile,
@@ -370,25 +522,201 @@ public class CorpusUniquer implements ICorpusUniquer {
       final File theTempDirectory,
       final Charset theOutputCharSet,
       final Logger theLogger) {
-    sourceFile = theSourceFile;
-    targetFile = theTargetFile;
+    this(
+        new FileCorpus(theSourceFile, theTargetFile),
+        theInputCharSet,
+        theMaxNumOfTempFiles,
+        theTempDirectory,
+        theOutputCharSet,
+        theLogger);
+  }
+
+  /**
+   * Uniques a corpus read from and written to somewhere other than files
+   * named after each other, such as a {@link StreamCorpus}.
+   */
+  public CorpusUniquer(
+      final ICorpus theCorpus,
+      final Charset theInputCharSet,
+      final int theMaxNumOfTempFiles,
+      final File theTempDirectory,
+      final Charset theOutputCharSet,
+      final Logger theLogger) {
+    corpus = theCorpus;
     tempDirectory = theTempDirectory;
     inputCharSet = theInputCharSet;
     outputCharSet = theOutputCharSet;
     maxNoTempFiles = theMaxNumOfTempFiles;
     logger = theLogger;
+    memoryBudget = MemoryBudget.createDefault();
+    auditSink = new LoggerAuditSink(theLogger);
   }
   
+  /**
+   * Sets the number of worker threads that sort and spill blocks whilst the
+   * input is being read. One, the default, sorts on the reading thread.
+   */
+  public void setNoSortThreads(final int theNoSortThreads) {
+    if(theNoSortThreads < 1) {
+      throw new IllegalArgumentException(
+          "Number of sort threads must be positive: " + theNoSortThreads);
+    }
+    noSortThreads = theNoSortThreads;
+  }
+
+  /**
+   * Selects the k-way merge used to combine the sorted temporary files. The
+   * default is {@link MergeEngine#LOSER_TREE}.
+   */
+  public void setMergeEngine(final MergeEngine theMergeEngine) {
+    mergeEngine = theMergeEngine;
+  }
+
+  /**
+   * Sets the codec applied to the temporary files, e.g.
+   * {@link RunCodec#DEFLATE} to compress them. The default is
+   * {@link RunCodec#NONE}.
+   */
+  public void setRunCodec(final IRunCodec theRunCodec) {
+    runCodec = theRunCodec;
+  }
+
+  /**
+   * Sets the heap the blocks being sorted may use. The default is
+   * {@link MemoryBudget#createDefault()}, taken when the uniquer is created.
+   */
+  public void setMemoryBudget(final MemoryBudget theMemoryBudget) {
+    memoryBudget = theMemoryBudget;
+  }
+
+  /**
+   * Sets the most temporary files merged at once. When there are more, they
+   * are merged in several passes. The fan-in is lowered further if the open
+   * files' buffers would not fit in the memory budget.
+   */
+  public void setMaxFanIn(final int theMaxFanIn) {
+    maxFanIn = theMaxFanIn;
+  }
+
+  /**
+   * Sets the size of the two buffers each temporary file is read ahead into
+   * during the merge. Zero turns reading ahead off.
+   */
+  public void setReadAheadSize(final int theReadAheadSize) {
+    readAheadSize = theReadAheadSize;
+  }
+
+  /**
+   * Sets whether the output files are forced to the disk once they have
+   * been written.
+   */
+  public void setSyncOutput(final boolean theSyncOutput) {
+    syncOutput = theSyncOutput;
+  }
+
+  /**
+   * Sets the compression the output is written in. The default is
+   * {@link CorpusCompression#NONE}.
+   */
+  public void setOutputCompression(
+      final CorpusCompression theOutputCompression) {
+    outputCompression = theOutputCompression;
+  }
+
+  /**
+   * Records the temporary files of the sort in a job manifest, so that a
+   * job that fails can be run again with the same manifest and carry on
+   * where it stopped. Pairs dropped before then are not audited or counted
+   * again. Null, the default, keeps no manifest.
+   *
+   * @see JobManifest
+   */
+  public void setJobManifest(final File theJobManifestFile) {
+    if(theJobManifestFile != null &&
+        corpus.getSize() == ICorpus.UNKNOWN_SIZE) {
+      throw new IllegalArgumentException(
+          "A job reading a stream cannot be resumed");
+    }
+    jobManifestFile = theJobManifestFile;
+  }
+
+  /**
+   * Keys the rows of a {@link ColumnCorpus} on some of their columns, as
+   * zero based indexes, alone; rows sharing them are duplicates whatever
+   * their other columns. Null, the default, keys pairs on their source and
+   * keeps each distinct target.
+   */
+  void setKeyColumns(final int... theKeyColumns) {
+    keyColumns = (theKeyColumns != null) ? theKeyColumns.clone() : null;
+  }
+
+  /**
+   * @return The files the kept pairs are written to, none for a stream.
+   */
+  public List<File> getOutputFiles(final String suffix) {
+    return corpus.getOutputFiles(suffix, outputCompression);
+  }
+
+  /**
+   * @return The live metrics of this uniquer's jobs, which can be
+   * registered as an MBean or written out by a {@link PrometheusTextFile}.
+   */
+  public UniquerMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public void setAuditSink(final IAuditSink theAuditSink) {
+    auditSink = theAuditSink;
+  }
+
+  @Override
+  public void addFilter(final IPairFilter filter) {
+    filters.add(filter);
+  }
+
+  @Override
+  public List<PairFilterStatistics> getFilterStatistics() {
+    return (filterChain != null) ?
+        filterChain.getStatistics() :
+        Collections.<PairFilterStatistics>emptyList();
+  }
+
   public ImmutablePair<Long, Long> unique(
       final String suffix, final int maxNoTokens)
   throws Exception {
-    final List<File> missingFiles = new ArrayList<File>() {
-      private static final long serialVersionUID = 2350695434693544950L;
-      {
-        if(sourceFile.exists() == false) add(sourceFile);
-        if(targetFile.exists() == false) add(targetFile);
-        if(tempDirectory.exists() == false) add(tempDirectory);
-      }};
+    return unique(suffix, maxNoTokens, false);
+  }
+
+  /**
+   * Uniques the corpus, failing with a {@link LineCountMismatchException} as
+   * soon as the source and target files are found to have a different
+   * number of lines. The check is made whilst the files are read for
+   * sorting rather than with a separate count.
+   */
+  public ImmutablePair<Long, Long> uniqueWithLineCountCheck(
+      final String suffix, final int maxNoTokens)
+  throws Exception {
+    return unique(suffix, maxNoTokens, true);
+  }
+
+  private ImmutablePair<Long, Long> unique(
+      final String suffix, final int maxNoTokens, final boolean checkLineCounts)
+  throws Exception {
+    try {
+      return measuredUnique(suffix, maxNoTokens, checkLineCounts);
+    } catch(final Exception ex) {
+      metrics.enterPhase(UniquerMetrics.Phase.FAILED);
+      throw ex;
+    }
+  }
+
+  private ImmutablePair<Long, Long> measuredUnique(
+      final String suffix, final int maxNoTokens, final boolean checkLineCounts)
+  throws Exception {
+    final List<File> missingFiles = new ArrayList<File>(
+        corpus.getMissingFiles());
+    if(tempDirectory.exists() == false) missingFiles.add(tempDirectory);
     if(missingFiles.size() > 0) {
       throw new FileNotFoundException(
           String.format(
@@ -396,141 +724,68 @@ public class CorpusUniquer implements ICorpusUniquer {
               StringUtils.join(missingFiles, ", ")));
     }
 
-    final Comparator<String> comparator = new Comparator<String>() {
-      @Override
-      public int compare(String r1, String r2) {
-        return r1.toLowerCase().compareTo(r2.toLowerCase());
+    final PairFilterChain filter = PairFilters.create(maxNoTokens, filters);
+    filterChain = filter;
+
+    jobManifest = null;
+    if(jobManifestFile != null) {
+      // Anything that changes what the runs hold makes another job
+      final StringBuilder jobKey = new StringBuilder();
+      jobKey.append(corpus).append(' ').append(corpus.getSize());
+      jobKey.append(' ').append(runCodec.getName());
+      jobKey.append(' ').append(inputCharSet.name());
+      jobKey.append(' ').append(maxNoTokens);
+      if(keyColumns != null) {
+        jobKey.append(' ').append(Arrays.toString(keyColumns));
       }
-    };
-
-    final Function<String, Boolean> noTokensFilter =
-        (maxNoTokens <= ICorpusUniquer.UNLIMITED_TOKENS) ?
-            new Function<String, Boolean>() {
-              public Boolean apply(final String line) {
-                return true;
-              }
-            } :
-            new Function<String, Boolean>() {
-              public Boolean apply(final String line) {
-                final String[] split = line.split("[ ]+");
-                return split.length <= maxNoTokens;
-              }
-            };
-    final Function<ImmutablePair<String, String>, Boolean> filter =
-        new Function<ImmutablePair<String, String>, Boolean>() {
-          public Boolean apply(final ImmutablePair<String, String> srcTrg) {
-            final String source = srcTrg.getLeft();
-            final String target = srcTrg.getRight();
-            
-            if(source.length() < 1 || target.length() < 1) {
-              return false;
-            }
-
-            if(noTokensFilter.apply(source) == false ||
-               noTokensFilter.apply(target) == false) {
-              return false;
-            }
-            
-            return true;
-          }
-        };
+      for(final IPairFilter added : filters) {
+        jobKey.append(' ').append(added.describe());
+      }
+      jobManifest = new JobManifest(jobManifestFile, jobKey.toString());
+      jobManifest.load(logger);
+    }
 
     logger.info(
-        "Starting uniquing with [" + sourceFile.getCanonicalPath() +
-        "] and [" + targetFile.getCanonicalPath() + "] filtering on " +
+        "Starting uniquing with " + corpus + " filtering on " +
         ((maxNoTokens == ICorpusUniquer.UNLIMITED_TOKENS) ?
             "infinite number of" :
             maxNoTokens) +
         " tokens using suffix [" + suffix + "]...");
     
     // Sort...
-    final List<ImmutablePair<File, File>> tempFiles =
-        sortInBatch(comparator, filter);
+    metrics.setHeapBudget(memoryBudget.getBudget());
+    metrics.enterPhase(UniquerMetrics.Phase.SORT);
+    final List<File> sortedFiles = sortInBatch(filter, checkLineCounts);
+    metrics.enterPhase(UniquerMetrics.Phase.MERGE);
+    final RunCascade cascade = new RunCascade(
+        tempDirectory, runCodec, readAheadSize, mergeEngine, logger);
+    cascade.setJobManifest(jobManifest);
+    final List<File> tempFiles =
+        cascade.reduce(
+            sortedFiles,
+            RunCascade.getFanIn(
+                memoryBudget.getBudget(), maxFanIn, readAheadSize));
     // ...and merge
-    final File outputSourceFile = new File(
-        sourceFile.getAbsolutePath() + "." + suffix);
-    final File outputTargetFile = new File(
-        targetFile.getAbsolutePath() + "." + suffix);
-    final Function<String, String> lineProcessor =
-        new Function<String, String>() {
-          public String apply(final String line) {
-            return line.toLowerCase().replaceAll("[ ]+", "_");
-          }
-        };
-    final ImmutablePair<Long, Long> result =
-        mergeSortedFiles(
-            outputSourceFile,
-            outputTargetFile,
-            tempFiles,
-            comparator,
-            lineProcessor);
-    
-    logger.info("Finished uniquing");
-    
-    return result;
-  }
-  
-  public ImmutablePair<Long, Long> uniqueWithLineCountCheck(
-      final String suffix, final int maxNoTokens)
-  throws Exception {
-    final FileLineCounter counter =
-        new FileLineCounter(inputCharSet, sourceFile, targetFile);
-    final Map<File, Long> lineNos = counter.countLines();
-    final long sourceLineNos = lineNos.get(sourceFile);
-    final long targetLineNos = lineNos.get(targetFile);
-    if(sourceLineNos != targetLineNos) {
-      throw new Exception("Source and target files have line count mismatch");
-    }
-
-    return unique(suffix, maxNoTokens);
-  }
-}
-
-class BinaryFileBuffer {
-  public BufferedReader fbr;
-  public File originalfile;
-  private String cache;
-  private boolean empty;
-
-  public BinaryFileBuffer(File f, Charset cs)
-      throws IOException {
-    originalfile = f;
-    InputStream in = new FileInputStream(f);
-    fbr = new BufferedReader(new InputStreamReader(in, cs));
-    reload();
-  }
-
-  public boolean empty() {
-    return this.empty;
-  }
-
-  private void reload() throws IOException {
+    final IPairWriter writer =
+        corpus.openWriter(
+            suffix, outputCharSet, outputCompression, syncOutput, false);
+    ImmutablePair<Long, Long> result = null;
     try {
-      if((this.cache = this.fbr.readLine()) == null) {
-        this.empty = true;
-        this.cache = null;
-      } else {
-        this.empty = false;
-      }
-    } catch(EOFException oef) {
-      this.empty = true;
-      this.cache = null;
+      result = mergeSortedFiles(writer, tempFiles);
+    } finally {
+      writer.close();
+    }
+    if(jobManifest != null) {
+      jobManifest.delete();
     }
-  }
 
-  public void close() throws IOException {
-    this.fbr.close();
-  }
+    metrics.enterPhase(UniquerMetrics.Phase.DONE);
 
-  public String peek() {
-    if(empty())
-      return null;
-    return this.cache.toString();
-  }
-
-  public String pop() throws IOException {
-    String answer = peek();
-    reload();
-    return answer;
+    for(final PairFilterStatistics statistics : filter.getStatistics()) {
+      logger.info(statistics);
+    }
+    logger.info("Finished uniquing");
+    
+    return result;
   }
 }
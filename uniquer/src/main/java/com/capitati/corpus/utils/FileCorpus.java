@@ -0,0 +1,78 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A corpus of aligned source and target files, written to files named
+ * after them with the suffix and any compression's extension appended.
+ * Compressed files are read as they are, see {@link CorpusCompression}.
+ */
+public class FileCorpus implements ICorpus {
+  private final File sourceFile;
+  private final File targetFile;
+
+  public FileCorpus(final File theSourceFile, final File theTargetFile) {
+    sourceFile = theSourceFile;
+    targetFile = theTargetFile;
+  }
+
+  @Override
+  public IPairReader openReader(
+      final Charset charSet, final boolean failOnMismatch) throws IOException {
+    return new CorpusPairReader(
+        sourceFile, targetFile, charSet, failOnMismatch);
+  }
+
+  @Override
+  public IPairWriter openWriter(
+      final String suffix,
+      final Charset charSet,
+      final CorpusCompression compression,
+      final boolean sync,
+      final boolean append) throws IOException {
+    final List<File> outputFiles = getOutputFiles(suffix, compression);
+    return new CorpusPairWriter(
+        outputFiles.get(0),
+        outputFiles.get(1),
+        charSet,
+        compression,
+        sync,
+        append);
+  }
+
+  @Override
+  public List<File> getOutputFiles(
+      final String suffix, final CorpusCompression compression) {
+    final String extension = "." + suffix + compression.getExtension();
+    return Arrays.asList(
+        new File(sourceFile.getAbsolutePath() + extension),
+        new File(targetFile.getAbsolutePath() + extension));
+  }
+
+  @Override
+  public List<File> getMissingFiles() {
+    final List<File> missingFiles = new ArrayList<File>();
+    if(sourceFile.exists() == false) missingFiles.add(sourceFile);
+    if(targetFile.exists() == false) missingFiles.add(targetFile);
+    return missingFiles;
+  }
+
+  /**
+   * @return The size of both files, which for named pipes is zero.
+   */
+  @Override
+  public long getSize() {
+    return sourceFile.length() + targetFile.length();
+  }
+
+  @Override
+  public String toString() {
+    return "[" + sourceFile.getAbsolutePath() + "] and [" +
+        targetFile.getAbsolutePath() + "]";
+  }
+}
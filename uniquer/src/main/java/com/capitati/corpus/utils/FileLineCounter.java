@@ -1,6 +1,14 @@
 package com.capitati.corpus.utils;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -13,56 +21,196 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
-
+/**
+ * Counts the lines of files in parallel.
+ * <p>
+ * For character sets where a new line is the single byte '\n' and that
+ * byte never occurs inside another character (UTF-8, ISO-8859-*, ASCII...)
+ * each file is memory mapped in segments that are scanned for '\n' in
+ * parallel, without decoding. A final line with no terminator is counted
+ * too. Compressed files are decompressed and scanned as a stream, see
+ * {@link CorpusCompression}. Other character sets, such as UTF-16, are
+ * decoded with a {@link Scanner}.
+ */
 public class FileLineCounter implements ILineCounter<File> {
+  private static final ForkJoinPool SHARED_POOL = new ForkJoinPool();
+  private static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+  private static final byte NEW_LINE = '\n';
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
   final Collection<File> files = new ArrayList<File>();
   final Charset charSet;
+  final ForkJoinPool pool;
 
   public FileLineCounter(final Charset theCharSet, final File ... theFiles) {
+    this(SHARED_POOL, theCharSet, theFiles);
+  }
+
+  public FileLineCounter(
+      final ForkJoinPool thePool,
+      final Charset theCharSet,
+      final File ... theFiles) {
     for(final File aFile : theFiles) {
       files.add(aFile);
     }
     charSet = theCharSet;
+    pool = thePool;
+  }
+
+  /**
+   * Tests whether lines in a character set can be counted on the raw bytes.
+   */
+  static boolean isAsciiCompatible(final Charset charSet) {
+    if(charSet.canEncode() == false) {
+      return false;
+    }
+
+    try {
+      final ByteBuffer newLine =
+          charSet.newEncoder().encode(CharBuffer.wrap("\n"));
+      final ByteBuffer letter =
+          charSet.newEncoder().encode(CharBuffer.wrap("A"));
+      return newLine.remaining() == 1 && newLine.get(0) == NEW_LINE &&
+          letter.remaining() == 1 && letter.get(0) == 'A';
+    } catch(final CharacterCodingException ex) {
+      return false;
+    }
   }
 
   @Override
   public Map<File, Long> countLines()
-  throws InterruptedException, ExecutionException {
-    final ForkJoinPool pool = new ForkJoinPool();
-    final List<ForkJoinTask<ImmutablePair<File, Long>>> tasks =
-        new ArrayList<ForkJoinTask<ImmutablePair<File, Long>>>();
+  throws IOException, InterruptedException, ExecutionException {
+    final boolean mapped = isAsciiCompatible(charSet);
+    final Map<File, List<ForkJoinTask<Long>>> tasks =
+        new HashMap<File, List<ForkJoinTask<Long>>>();
 
     for(final File file : files) {
-      final Callable<ImmutablePair<File, Long>> task =
-          new Callable<ImmutablePair<File, Long>>() {
-            @Override
-            public ImmutablePair<File, Long> call() throws Exception {
-              final Scanner scanner = new Scanner(file, charSet.name());
-              
-              try {
-                long lineCnt = 0;
-                while(scanner.hasNextLine() == true) {
-                  lineCnt++;
-                  scanner.nextLine();
-                }
-                
-                return new ImmutablePair<File, Long>(file, lineCnt);
-              } finally {
-                scanner.close();
-              }
-            }
-          };
-      tasks.add(pool.submit(task));
+      final List<ForkJoinTask<Long>> fileTasks =
+          new ArrayList<ForkJoinTask<Long>>();
+
+      final boolean compressed =
+          CorpusCompression.detect(file) != CorpusCompression.NONE;
+      if(mapped == true && compressed == true) {
+        fileTasks.add(pool.submit(createStreamTask(file)));
+      } else if(mapped == true) {
+        final long length = file.length();
+        for(long position = 0; position < length; position += SEGMENT_SIZE) {
+          fileTasks.add(
+              pool.submit(
+                  createSegmentTask(
+                      file,
+                      position,
+                      Math.min(SEGMENT_SIZE, length - position),
+                      position + SEGMENT_SIZE >= length)));
+        }
+      } else {
+        fileTasks.add(pool.submit(createScannerTask(file)));
+      }
+      tasks.put(file, fileTasks);
     }
 
     final Map<File, Long> lineNos = new HashMap<File, Long>();
-    for(final ForkJoinTask<ImmutablePair<File, Long>> task : tasks) {
-      final ImmutablePair<File, Long> result = task.get();
+    for(final File file : files) {
+      long lineCnt = 0;
+      for(final ForkJoinTask<Long> task : tasks.get(file)) {
+        lineCnt += task.get();
+      }
 
-      lineNos.put(result.getLeft(), result.getRight());
+      lineNos.put(file, lineCnt);
     }
-    
+
     return lineNos;
   }
+
+  private static Callable<Long> createSegmentTask(
+      final File file,
+      final long position,
+      final long size,
+      final boolean last) {
+    return new Callable<Long>() {
+      @Override
+      public Long call() throws IOException {
+        final FileInputStream stream = new FileInputStream(file);
+
+        try {
+          final MappedByteBuffer buffer = stream.getChannel().map(
+              FileChannel.MapMode.READ_ONLY, position, size);
+          final int limit = buffer.limit();
+
+          long lineCnt = 0;
+          for(int i = 0; i < limit; i++) {
+            if(buffer.get(i) == NEW_LINE) {
+              lineCnt++;
+            }
+          }
+
+          // An unterminated last line
+          if(last == true && limit > 0 && buffer.get(limit - 1) != NEW_LINE) {
+            lineCnt++;
+          }
+
+          return lineCnt;
+        } finally {
+          stream.close();
+        }
+      }
+    };
+  }
+
+  private static Callable<Long> createStreamTask(final File file) {
+    return new Callable<Long>() {
+      @Override
+      public Long call() throws IOException {
+        final InputStream stream = CorpusCompression.open(file);
+
+        try {
+          final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+          long lineCnt = 0;
+          byte last = NEW_LINE;
+          int noBytes = 0;
+          while((noBytes = stream.read(buffer)) >= 0) {
+            for(int i = 0; i < noBytes; i++) {
+              if(buffer[i] == NEW_LINE) {
+                lineCnt++;
+              }
+            }
+            if(noBytes > 0) {
+              last = buffer[noBytes - 1];
+            }
+          }
+
+          // An unterminated last line
+          if(last != NEW_LINE) {
+            lineCnt++;
+          }
+
+          return lineCnt;
+        } finally {
+          stream.close();
+        }
+      }
+    };
+  }
+
+  private Callable<Long> createScannerTask(final File file) {
+    return new Callable<Long>() {
+      @Override
+      public Long call() throws Exception {
+        final Scanner scanner =
+            new Scanner(CorpusCompression.open(file), charSet.name());
+
+        try {
+          long lineCnt = 0;
+          while(scanner.hasNextLine() == true) {
+            lineCnt++;
+            scanner.nextLine();
+          }
+
+          return lineCnt;
+        } finally {
+          scanner.close();
+        }
+      }
+    };
+  }
 }
@@ -0,0 +1,441 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * The fingerprints of the pairs earlier runs wrote, kept on the disk so
+ * that new input can be uniqued against them and appended to the output,
+ * at a cost that grows with the new input rather than the whole corpus.
+ * <p>
+ * The fingerprints are held in an open addressing table in a memory mapped
+ * file, laid out as {@link FingerprintSet} lays out its array. A run adds
+ * the fingerprints of the pairs it writes to a journal. Committing forces
+ * the journal to the disk and records it in the index file, together with
+ * the lengths of the output files, by writing the index file whole to a
+ * temporary file and renaming it over the last one; only then is the
+ * journal applied to the table. A run that fails before committing leaves
+ * the table as it was and its output is cut back to the lengths recorded
+ * when the index is next opened; a journal committed but not applied is
+ * applied again, which adding fingerprints already in the table does not
+ * change.
+ * <p>
+ * A table that passes its load limit is rehashed into a new file of twice
+ * the capacity, so the occasional run pays for copying the whole index.
+ */
+public class FingerprintIndex implements Closeable {
+  private static final String TABLE = "table";
+  private static final String JOURNAL = "journal";
+  private static final String OUTPUT = "output";
+  private static final int SLOT_SIZE = 16;
+  private static final long INITIAL_CAPACITY = 1 << 16;
+  // Slots per mapped segment, for tables too large for a single mapping
+  private static final int SEGMENT_BITS = 26;
+  private static final double MAX_LOAD = 0.75;
+
+  private final File file;
+  private File tableFile = null;
+  private long capacity = 0;
+  private long size = 0;
+  private RandomAccessFile table = null;
+  private MappedByteBuffer[] segments = null;
+  private final Map<String, Long> outputLengths =
+      new LinkedHashMap<String, Long>();
+  private List<File> outputFiles = null;
+  private File journalFile = null;
+  private FileOutputStream journalStream = null;
+  private DataOutputStream journal = null;
+
+  public FingerprintIndex(final File theFile) {
+    file = theFile;
+  }
+
+  /**
+   * Opens the index, creating it if it does not exist, and finishes or
+   * undoes whatever a run that failed left behind.
+   *
+   * @param theOutputFiles The files the new pairs are appended to. Any
+   * pairs appended to them since the last commit are cut off.
+   * @throws IOException If an output file is shorter than was recorded, or
+   * was not written with this index.
+   */
+  public void open(final List<File> theOutputFiles, final Logger logger)
+  throws IOException {
+    outputFiles = theOutputFiles;
+    String journalName = null;
+    if(file.exists() == true) {
+      journalName = load();
+    } else {
+      tableFile = createTableFile(INITIAL_CAPACITY);
+      capacity = INITIAL_CAPACITY;
+      size = 0;
+    }
+    map();
+
+    if(journalName != null) {
+      logger.warn(
+          "Applying the journal the last run committed to the index [" +
+          file + "]");
+      // The journal may have been partly applied already
+      size = countOccupied();
+      apply(sibling(journalName));
+    }
+    deleteLeftovers();
+
+    for(final File outputFile : outputFiles) {
+      final Long length = outputLengths.get(outputFile.getAbsolutePath());
+      if(length == null) {
+        if(outputFile.length() > 0) {
+          throw new IOException(
+              "The output [" + outputFile + "] was not written with the " +
+              "index [" + file + "]");
+        }
+        outputLengths.put(outputFile.getAbsolutePath(), 0L);
+      } else if(outputFile.length() < length) {
+        throw new IOException(
+            "The output [" + outputFile + "] is shorter than the index [" +
+            file + "] records; delete the index to start again");
+      } else if(outputFile.length() > length) {
+        logger.warn(
+            "Cutting off the pairs a failed run appended to [" +
+            outputFile + "]");
+        CorpusPairWriter.truncate(outputFile, length);
+      }
+    }
+    save(null);
+
+    journalFile = new File(file.getPath() + "." + JOURNAL);
+    journalStream = new FileOutputStream(journalFile);
+    journal =
+        new DataOutputStream(
+            new BufferedOutputStream(journalStream, RunWriter.BUFFER_SIZE));
+  }
+
+  /**
+   * @return Whether an earlier run wrote a pair with the fingerprint.
+   */
+  public boolean contains(final long high, final long low) {
+    final long lo = low | 1L;
+
+    long slot = index(high);
+    long slotLow = 0;
+    while((slotLow = getLow(slot)) != 0) {
+      if(slotLow == lo && getHigh(slot) == high) {
+        return true;
+      }
+      slot = (slot + 1) & (capacity - 1);
+    }
+
+    return false;
+  }
+
+  /**
+   * Adds the fingerprint of a pair written by this run, once it commits.
+   */
+  public void add(final long high, final long low) throws IOException {
+    journal.writeLong(high);
+    journal.writeLong(low);
+  }
+
+  /**
+   * Makes the fingerprints added part of the index, along with the
+   * lengths the output files now have, which must be on the disk.
+   */
+  public void commit() throws IOException {
+    journal.flush();
+    journalStream.getChannel().force(true);
+    journal.close();
+    journal = null;
+
+    for(final File outputFile : outputFiles) {
+      outputLengths.put(outputFile.getAbsolutePath(), outputFile.length());
+    }
+    save(journalFile.getName());
+    apply(journalFile);
+  }
+
+  /**
+   * @return The number of fingerprints in the index.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Closes the index, dropping any fingerprints added but not committed.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if(journal != null) {
+        journal.close();
+        journal = null;
+        journalFile.delete();
+      }
+    } finally {
+      unmap();
+    }
+  }
+
+  private void apply(final File theJournalFile) throws IOException {
+    final long noFingerprints = theJournalFile.length() / SLOT_SIZE;
+    if(size + noFingerprints > capacity * MAX_LOAD) {
+      long newCapacity = capacity;
+      while(size + noFingerprints > newCapacity * MAX_LOAD) {
+        newCapacity *= 2;
+      }
+      rehash(newCapacity, theJournalFile.getName());
+    }
+
+    final DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(
+                new FileInputStream(theJournalFile), RunWriter.BUFFER_SIZE));
+    try {
+      while(true) {
+        final long high;
+        try {
+          high = in.readLong();
+        } catch(final EOFException ex) {
+          break;
+        }
+        insert(high, in.readLong());
+      }
+    } finally {
+      in.close();
+    }
+
+    force();
+    save(null);
+    theJournalFile.delete();
+  }
+
+  private void insert(final long high, final long low) {
+    final long lo = low | 1L;
+
+    long slot = index(high);
+    long slotLow = 0;
+    while((slotLow = getLow(slot)) != 0) {
+      if(slotLow == lo && getHigh(slot) == high) {
+        return;
+      }
+      slot = (slot + 1) & (capacity - 1);
+    }
+
+    putSlot(slot, high, lo);
+    size++;
+  }
+
+  private void rehash(final long newCapacity, final String journalName)
+  throws IOException {
+    final MappedByteBuffer[] oldSegments = segments;
+    final long oldCapacity = capacity;
+    final RandomAccessFile oldTable = table;
+    final File oldTableFile = tableFile;
+
+    tableFile = createTableFile(newCapacity);
+    capacity = newCapacity;
+    size = 0;
+    map();
+    for(long slot = 0; slot < oldCapacity; slot++) {
+      final MappedByteBuffer segment =
+          oldSegments[(int )(slot >>> SEGMENT_BITS)];
+      final int offset = segmentOffset(slot);
+      final long low = segment.getLong(offset + 8);
+      if(low != 0) {
+        insert(segment.getLong(offset), low);
+      }
+    }
+    force();
+    // The old table is deleted once the index no longer names it, and the
+    // journal is still to be applied
+    save(journalName);
+    oldTable.close();
+    oldTableFile.delete();
+  }
+
+  // A file next to the index, which names it relative to itself
+  private File sibling(final String name) {
+    return new File(file.getAbsoluteFile().getParentFile(), name);
+  }
+
+  private File createTableFile(final long theCapacity) throws IOException {
+    final File newFile =
+        new File(file.getPath() + "." + theCapacity + "." + TABLE);
+    final RandomAccessFile newTable = new RandomAccessFile(newFile, "rw");
+    try {
+      // A sparse file of empty slots
+      newTable.setLength(0);
+      newTable.setLength(theCapacity * SLOT_SIZE);
+    } finally {
+      newTable.close();
+    }
+    return newFile;
+  }
+
+  private void map() throws IOException {
+    table = new RandomAccessFile(tableFile, "rw");
+    final long segmentSlots = Math.min(capacity, 1L << SEGMENT_BITS);
+    segments = new MappedByteBuffer[(int )(capacity / segmentSlots)];
+    for(int i = 0; i < segments.length; i++) {
+      segments[i] = table.getChannel().map(
+          FileChannel.MapMode.READ_WRITE,
+          i * segmentSlots * SLOT_SIZE,
+          segmentSlots * SLOT_SIZE);
+    }
+  }
+
+  private void unmap() throws IOException {
+    segments = null;
+    if(table != null) {
+      table.close();
+      table = null;
+    }
+  }
+
+  private void force() {
+    for(final MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+  }
+
+  private long countOccupied() {
+    long occupied = 0;
+    for(long slot = 0; slot < capacity; slot++) {
+      if(getLow(slot) != 0) {
+        occupied++;
+      }
+    }
+    return occupied;
+  }
+
+  private long index(final long high) {
+    return (high ^ (high >>> 32)) & (capacity - 1);
+  }
+
+  private static int segmentOffset(final long slot) {
+    return (int )(slot & ((1L << SEGMENT_BITS) - 1)) * SLOT_SIZE;
+  }
+
+  private long getHigh(final long slot) {
+    return segments[(int )(slot >>> SEGMENT_BITS)].getLong(
+        segmentOffset(slot));
+  }
+
+  private long getLow(final long slot) {
+    return segments[(int )(slot >>> SEGMENT_BITS)].getLong(
+        segmentOffset(slot) + 8);
+  }
+
+  private void putSlot(final long slot, final long high, final long low) {
+    final MappedByteBuffer segment = segments[(int )(slot >>> SEGMENT_BITS)];
+    final int offset = segmentOffset(slot);
+    segment.putLong(offset, high);
+    segment.putLong(offset + 8, low);
+  }
+
+  // Reads the index file, returning the journal committed but maybe not
+  // applied, if any
+  private String load() throws IOException {
+    String journalName = null;
+    outputLengths.clear();
+    final BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+    try {
+      String line = null;
+      while((line = reader.readLine()) != null) {
+        final String[] fields = line.split("\t", 4);
+        if(fields[0].equals(TABLE) == true) {
+          tableFile = sibling(fields[1]);
+          capacity = Long.parseLong(fields[2]);
+          size = Long.parseLong(fields[3]);
+        } else if(fields[0].equals(JOURNAL) == true) {
+          journalName = fields[1];
+        } else if(fields[0].equals(OUTPUT) == true) {
+          outputLengths.put(fields[2], Long.parseLong(fields[1]));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    if(tableFile == null || tableFile.exists() == false) {
+      throw new IOException(
+          "The index [" + file + "] has lost its table [" + tableFile + "]");
+    }
+    return journalName;
+  }
+
+  private void save(final String journalName) throws IOException {
+    final File newFile = new File(file.getPath() + ".new");
+    final FileOutputStream stream = new FileOutputStream(newFile);
+    try {
+      final Writer writer = new OutputStreamWriter(stream, Charsets.UTF_8);
+      writer.write(
+          TABLE + "\t" + tableFile.getName() + "\t" + capacity + "\t" +
+          size + "\n");
+      if(journalName != null) {
+        writer.write(JOURNAL + "\t" + journalName + "\n");
+      }
+      for(final Map.Entry<String, Long> output : outputLengths.entrySet()) {
+        writer.write(
+            OUTPUT + "\t" + output.getValue() + "\t" + output.getKey() + "\n");
+      }
+      writer.flush();
+      stream.getChannel().force(true);
+    } finally {
+      stream.close();
+    }
+
+    Files.move(
+        newFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Deletes the tables a failed rehash or the index before it left, and
+  // the journal of a run that failed before committing
+  private void deleteLeftovers() {
+    final File directory = file.getAbsoluteFile().getParentFile();
+    final File[] files = directory.listFiles();
+    if(files == null) {
+      return;
+    }
+    final String prefix = file.getName() + ".";
+    for(final File other : files) {
+      final String name = other.getName();
+      if(name.startsWith(prefix) == true &&
+         (name.endsWith("." + TABLE) == true ||
+          name.equals(prefix + JOURNAL) == true) &&
+         other.getName().equals(tableFile.getName()) == false) {
+        other.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The hash partitions a uniquer spills to once its {@link FingerprintSet}
+ * is full: the fingerprints seen so far, and the records of the rest of
+ * the input, each in the partition of its fingerprint. Each partition is
+ * then deduplicated on its own, in input order, against the fingerprints
+ * seen before the spill.
+ * <p>
+ * Partitions are picked on a mix of both halves of a fingerprint, so that
+ * the bits the set indexes slots on stay spread within each partition. The
+ * low bit is left out, as the set keeps it set.
+ */
+final class FingerprintPartitions {
+  private static final int MIN_NO_PARTITIONS = 2;
+  private static final int MAX_NO_PARTITIONS = 256;
+
+  /**
+   * Estimates how many partitions the rest of the input needs.
+   *
+   * @param inputSize The size of the input, smaller than bytesRead when
+   * not known.
+   * @param bytesRead The bytes read when the set became full.
+   */
+  static int estimateNoPartitions(final long inputSize, final long bytesRead) {
+    // Streams, pipes and files that have grown are of unknown size, so
+    // take the most partitions in case much more is to come
+    if(inputSize < bytesRead) {
+      return MAX_NO_PARTITIONS;
+    }
+    // Leave room for twice as many fingerprints per partition as are in
+    // the full in-memory set
+    final long noPartitions =
+        2 * ((inputSize + bytesRead - 1) / Math.max(1, bytesRead));
+
+    return (int )Math.max(
+        MIN_NO_PARTITIONS, Math.min(MAX_NO_PARTITIONS, noPartitions));
+  }
+
+  static int partitionOf(
+      final long high, final long low, final int noPartitions) {
+    return (int )((Fingerprints.mix(high ^ (low >>> 1)) >>> 1) % noPartitions);
+  }
+
+  static void putLong(final byte[] bytes, final int offset, final long value) {
+    for(int i = 0; i < 8; i++) {
+      bytes[offset + i] = (byte )(value >>> (56 - 8 * i));
+    }
+  }
+
+  static long getLong(final byte[] bytes, final int offset) {
+    long value = 0;
+    for(int i = 0; i < 8; i++) {
+      value = (value << 8) | (bytes[offset + i] & 0xff);
+    }
+    return value;
+  }
+
+  private final String prefix;
+  private final File tempDirectory;
+  private final IRunCodec runCodec;
+  private final long maxMemory;
+  private final List<File> seenFiles = new ArrayList<File>();
+  private final List<File> pendingFiles = new ArrayList<File>();
+  private final List<RunWriter> partitions = new ArrayList<RunWriter>();
+
+  /**
+   * @param thePrefix Starts the names of the temporary files.
+   * @param theMaxMemory The memory budget of each partition's set.
+   */
+  FingerprintPartitions(
+      final String thePrefix,
+      final File theTempDirectory,
+      final IRunCodec theRunCodec,
+      final long theMaxMemory) {
+    prefix = thePrefix;
+    tempDirectory = theTempDirectory;
+    runCodec = theRunCodec;
+    maxMemory = theMaxMemory;
+  }
+
+  File createTempFile(final String suffix) throws IOException {
+    final File file = File.createTempFile(prefix, suffix, tempDirectory);
+    file.deleteOnExit();
+    return file;
+  }
+
+  /**
+   * Writes the fingerprints in a set to their partitions and opens the
+   * partitions for the rest of the input.
+   */
+  void spill(final FingerprintSet set, final int noPartitions)
+  throws IOException {
+    final List<DataOutputStream> outs = new ArrayList<DataOutputStream>();
+
+    try {
+      for(int i = 0; i < noPartitions; i++) {
+        final File file = createTempFile("seen");
+        seenFiles.add(file);
+        outs.add(
+            new DataOutputStream(
+                new BufferedOutputStream(
+                    runCodec.encode(new FileOutputStream(file)),
+                    RunWriter.BUFFER_SIZE)));
+      }
+
+      for(int slot = 0; slot < set.capacity(); slot++) {
+        if(set.isOccupied(slot) == true) {
+          final DataOutputStream out = outs.get(
+              partitionOf(set.high(slot), set.low(slot), noPartitions));
+          out.writeLong(set.high(slot));
+          out.writeLong(set.low(slot));
+        }
+      }
+    } finally {
+      for(final DataOutputStream out : outs) {
+        out.close();
+      }
+    }
+
+    for(int i = 0; i < noPartitions; i++) {
+      final File file = createTempFile("pending");
+      pendingFiles.add(file);
+      partitions.add(new RunWriter(file, runCodec));
+    }
+  }
+
+  boolean isSpilled() {
+    return seenFiles.isEmpty() == false;
+  }
+
+  int getNoPartitions() {
+    return seenFiles.size();
+  }
+
+  /**
+   * Writes a record of the input read after the spill to its partition.
+   */
+  void add(
+      final long high,
+      final long low,
+      final long lineNumber,
+      final byte[] source,
+      final byte[] target) throws IOException {
+    final byte[] key = new byte[8];
+    putLong(key, 0, high);
+    partitions.get(partitionOf(high, low, partitions.size())).write(
+        key, low, lineNumber, source, target);
+  }
+
+  /**
+   * Closes the partitions once the input has been read.
+   */
+  void close() throws IOException {
+    for(final RunWriter partition : partitions) {
+      partition.close();
+    }
+  }
+
+  private FingerprintSet load(final File file) throws IOException {
+    final FingerprintSet set = new FingerprintSet(maxMemory);
+    final DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(
+                runCodec.decode(new FileInputStream(file)),
+                RunWriter.BUFFER_SIZE));
+
+    try {
+      while(true) {
+        final long high;
+        try {
+          high = in.readLong();
+        } catch(final EOFException ex) {
+          break;
+        }
+        set.add(high, in.readLong());
+      }
+    } finally {
+      in.close();
+    }
+
+    return set;
+  }
+
+  /**
+   * Adds the fingerprints of a partition's records, in input order, to
+   * those it held when spilled, and deletes the partition.
+   */
+  void dedup(final int partition, final IFingerprintVisitor visitor)
+  throws IOException {
+    final FingerprintSet set = load(seenFiles.get(partition));
+    final RunReader pending =
+        new RunReader(pendingFiles.get(partition), runCodec);
+
+    try {
+      while(pending.empty() == false) {
+        final long high = getLong(pending.peekKey(), 0);
+        visitor.visit(
+            high, pending, set.add(high, pending.peekFingerprint()));
+        pending.pop();
+      }
+    } finally {
+      pending.close();
+    }
+
+    seenFiles.get(partition).delete();
+    pendingFiles.get(partition).delete();
+  }
+}
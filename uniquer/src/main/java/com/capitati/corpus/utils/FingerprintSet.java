@@ -0,0 +1,133 @@
+package com.capitati.corpus.utils;
+
+/**
+ * An open addressing set of 128 bit fingerprints held in a single primitive
+ * array, two longs per slot. The table doubles while it stays within a
+ * memory budget; beyond that it reports itself full, but still accepts
+ * fingerprints, growing past the budget only to keep probing short.
+ */
+public class FingerprintSet {
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final double MAX_LOAD = 0.75;
+  private static final double HARD_MAX_LOAD = 0.9;
+
+  private final long maxBytes;
+  private long[] slots;
+  private int mask;
+  private int size;
+
+  public FingerprintSet(final long theMaxBytes) {
+    maxBytes = theMaxBytes;
+    allocate(INITIAL_CAPACITY);
+  }
+
+  private void allocate(final int capacity) {
+    slots = new long[capacity * 2];
+    mask = capacity - 1;
+    size = 0;
+  }
+
+  /**
+   * Adds a fingerprint.
+   *
+   * @return True if the fingerprint was not already in the set.
+   */
+  public boolean add(final long high, final long low) {
+    // An all zero slot is empty, so the low bit is always set
+    final long lo = low | 1L;
+
+    int slot = index(high);
+    while(slots[2 * slot + 1] != 0) {
+      if(slots[2 * slot] == high && slots[2 * slot + 1] == lo) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    slots[2 * slot] = high;
+    slots[2 * slot + 1] = lo;
+    size++;
+
+    final int capacity = mask + 1;
+    if(size > capacity * HARD_MAX_LOAD ||
+       (size > capacity * MAX_LOAD && canGrow() == true)) {
+      rehash(capacity * 2);
+    }
+
+    return true;
+  }
+
+  public boolean contains(final long high, final long low) {
+    final long lo = low | 1L;
+
+    int slot = index(high);
+    while(slots[2 * slot + 1] != 0) {
+      if(slots[2 * slot] == high && slots[2 * slot + 1] == lo) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    return false;
+  }
+
+  /**
+   * @return True once the set is at its load limit and doubling it would
+   * exceed the memory budget.
+   */
+  public boolean isFull() {
+    return size >= (mask + 1) * MAX_LOAD && canGrow() == false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * @return The number of slots, for iterating with {@link #isOccupied(int)}.
+   */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  public boolean isOccupied(final int slot) {
+    return slots[2 * slot + 1] != 0;
+  }
+
+  public long high(final int slot) {
+    return slots[2 * slot];
+  }
+
+  public long low(final int slot) {
+    return slots[2 * slot + 1];
+  }
+
+  private boolean canGrow() {
+    return (long )(mask + 1) * 2 * 16 <= maxBytes;
+  }
+
+  private int index(final long high) {
+    return (int )(high ^ (high >>> 32)) & mask;
+  }
+
+  private void rehash(final int capacity) {
+    final long[] old = slots;
+
+    allocate(capacity);
+    for(int i = 0; i < old.length; i += 2) {
+      if(old[i + 1] != 0) {
+        int slot = index(old[i]);
+        while(slots[2 * slot + 1] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[2 * slot] = old[i];
+        slots[2 * slot + 1] = old[i + 1];
+        size++;
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package com.capitati.corpus.utils;
+
+/**
+ * 128 bit fingerprints of normalised sentence pairs, and 64 bit ones of
+ * single sentences.
+ * <p>
+ * A pair is normalised as the merge of {@link CorpusUniquer} sees it: case
+ * folded with runs of spaces replaced by an underscore. The normalised
+ * source and target are hashed together with MurmurHash3 (x64, 128 bit).
+ * Instances reuse a scratch buffer and are not thread safe.
+ */
+public final class Fingerprints {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+  private static final byte SPACE = ' ';
+  private static final byte UNDERSCORE = '_';
+
+  private byte[] buffer = new byte[256];
+  private final long[] hash = new long[2];
+
+  /**
+   * Fingerprints a single sentence given its {@link SortKeys} key.
+   *
+   * @return The 64 bit fingerprint of the normalised sentence.
+   */
+  public long fingerprint(final byte[] key) {
+    if(buffer.length < key.length) {
+      buffer = new byte[Math.max(key.length, buffer.length * 2)];
+    }
+
+    murmur3(buffer, normalise(key, buffer, 0), 0, hash);
+    return hash[0];
+  }
+
+  /**
+   * Fingerprints a pair given the {@link SortKeys} of its sentences.
+   *
+   * @param sourceKey The source sentence key.
+   * @param targetKey The target sentence key.
+   * @param fingerprint Receives the high and low 64 bits of the fingerprint.
+   */
+  public void fingerprint(
+      final byte[] sourceKey, final byte[] targetKey, final long[] fingerprint) {
+    final int capacity = sourceKey.length + targetKey.length + 4;
+    if(buffer.length < capacity) {
+      buffer = new byte[Math.max(capacity, buffer.length * 2)];
+    }
+
+    // The normalised source is length prefixed so that the boundary between
+    // source and target is unambiguous
+    final int sourceLength = normalise(sourceKey, buffer, 4);
+    buffer[0] = (byte )(sourceLength >>> 24);
+    buffer[1] = (byte )(sourceLength >>> 16);
+    buffer[2] = (byte )(sourceLength >>> 8);
+    buffer[3] = (byte )sourceLength;
+    final int length =
+        4 + sourceLength + normalise(targetKey, buffer, 4 + sourceLength);
+
+    murmur3(buffer, length, 0, fingerprint);
+  }
+
+  /**
+   * Copies a key replacing runs of spaces by an underscore.
+   *
+   * @return The number of bytes written.
+   */
+  static int normalise(final byte[] key, final byte[] dest, final int offset) {
+    int pos = offset;
+
+    for(int i = 0; i < key.length; i++) {
+      if(key[i] == SPACE) {
+        dest[pos++] = UNDERSCORE;
+        while(i + 1 < key.length && key[i + 1] == SPACE) {
+          i++;
+        }
+      } else {
+        dest[pos++] = key[i];
+      }
+    }
+
+    return pos - offset;
+  }
+
+  /**
+   * MurmurHash3 x64 128 of the first length bytes of data.
+   */
+  static void murmur3(
+      final byte[] data, final int length, final long seed, final long[] out) {
+    long h1 = seed;
+    long h2 = seed;
+    final int noBlocks = length / 16;
+
+    for(int i = 0; i < noBlocks; i++) {
+      long k1 = getLong(data, i * 16);
+      long k2 = getLong(data, i * 16 + 8);
+
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= C2;
+      h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= C1;
+      h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    final int tail = noBlocks * 16;
+    final int remaining = length & 15;
+    long k1 = 0;
+    long k2 = 0;
+    for(int i = remaining - 1; i >= 8; i--) {
+      k2 ^= ((long )data[tail + i] & 0xff) << ((i - 8) * 8);
+    }
+    for(int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+      k1 ^= ((long )data[tail + i] & 0xff) << (i * 8);
+    }
+    if(remaining > 8) {
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= C1;
+      h2 ^= k2;
+    }
+    if(remaining > 0) {
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= C2;
+      h1 ^= k1;
+    }
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = mix(h1);
+    h2 = mix(h2);
+    h1 += h2;
+    h2 += h1;
+
+    out[0] = h1;
+    out[1] = h2;
+  }
+
+  private static long getLong(final byte[] data, final int offset) {
+    return ((long )data[offset] & 0xff) |
+        (((long )data[offset + 1] & 0xff) << 8) |
+        (((long )data[offset + 2] & 0xff) << 16) |
+        (((long )data[offset + 3] & 0xff) << 24) |
+        (((long )data[offset + 4] & 0xff) << 32) |
+        (((long )data[offset + 5] & 0xff) << 40) |
+        (((long )data[offset + 6] & 0xff) << 48) |
+        (((long )data[offset + 7] & 0xff) << 56);
+  }
+
+  /**
+   * The MurmurHash3 finaliser, which spreads every bit of k over the
+   * result.
+   */
+  static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
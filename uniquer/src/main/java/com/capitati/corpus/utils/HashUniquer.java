@@ -0,0 +1,474 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+
+/**
+ * Removes duplicate sentence pairs in a single streaming pass, keeping the
+ * first occurrence of each pair in input order. Pairs are recognised by a
+ * 128 bit fingerprint of their normalised source and target, see
+ * {@link Fingerprints}, so the output is not sorted.
+ * <p>
+ * Fingerprints are kept in memory until the set reaches the memory budget.
+ * From then on the fingerprints seen so far and the remaining pairs are
+ * spilled to hash partitions, each partition is deduplicated on its own and
+ * the survivors are merged back into input order.
+ * <p>
+ * With a {@link FingerprintIndex} the pairs earlier runs wrote count as
+ * duplicates too, and the pairs kept are appended to the output, so a
+ * corpus can grow a crawl at a time without uniquing it all again.
+ */
+public class HashUniquer implements ICorpusUniquer {
+  // Survivors are keyed by line number then the high half of their
+  // fingerprint; the low half is the run record's fingerprint
+  private static final int PARTITION_KEY_LENGTH = 16;
+
+  private static byte[] partitionKey(final long lineNumber, final long high) {
+    final byte[] key = new byte[PARTITION_KEY_LENGTH];
+    FingerprintPartitions.putLong(key, 0, lineNumber);
+    FingerprintPartitions.putLong(key, 8, high);
+    return key;
+  }
+
+  // Deduplicates one partition's pairs, in input order, against the
+  // fingerprints already emitted for that partition.
+  private File dedupPartition(
+      final FingerprintPartitions partitions,
+      final int partition,
+      final long[] noDuplicates) throws IOException {
+    final File survivorFile = partitions.createTempFile("survivors");
+    final RunWriter survivors = new RunWriter(survivorFile, runCodec);
+
+    try {
+      partitions.dedup(
+          partition,
+          new IFingerprintVisitor() {
+            @Override
+            public void visit(
+                final long high, final RunReader record, final boolean added)
+            throws IOException {
+              if(added == true) {
+                survivors.write(
+                    partitionKey(record.peekLineNumber(), high),
+                    record.peekFingerprint(),
+                    record.peekLineNumber(),
+                    record.peekSource(),
+                    record.peekTarget());
+              } else {
+                auditSink.duplicate(
+                    record.peekLineNumber(),
+                    record.peekSource(),
+                    record.peekTarget());
+                noDuplicates[0]++;
+              }
+            }
+          });
+    } finally {
+      survivors.close();
+    }
+
+    return survivorFile;
+  }
+
+  private long mergeSurvivors(
+      final List<File> survivorFiles,
+      final IPairWriter writer) throws IOException {
+    final List<RunReader> runs = new ArrayList<RunReader>();
+    final RunReadAhead readAhead = new RunReadAhead(runCodec, readAheadSize);
+
+    try {
+      for(final File file : survivorFiles) {
+        runs.add(readAhead.open(file));
+      }
+      final IRunMerger<RunReader> merger =
+          mergeEngine.create(
+              runs,
+              new Comparator<RunReader>() {
+                @Override
+                public int compare(final RunReader i, final RunReader j) {
+                  return SortKeys.compare(i.peekKey(), j.peekKey());
+                }
+              },
+              new Predicate<RunReader>() {
+                @Override
+                public boolean apply(final RunReader i) {
+                  return i.empty();
+                }
+              });
+
+      long lineCounter = 0;
+      while(merger.isEmpty() == false) {
+        final RunReader run = merger.top();
+
+        writer.writePair(run.peekSource(), run.peekTarget());
+        if(fingerprintIndex != null) {
+          fingerprintIndex.add(
+              FingerprintPartitions.getLong(run.peekKey(), 8),
+              run.peekFingerprint());
+        }
+        lineCounter++;
+
+        run.pop();
+        merger.update();
+      }
+
+      return lineCounter;
+    } finally {
+      for(final RunReader run : runs) {
+        run.close();
+        run.getFile().delete();
+      }
+      readAhead.close();
+    }
+  }
+
+  private final ICorpus corpus;
+  private final File tempDirectory;
+  private final Charset inputCharSet;
+  private final Charset outputCharSet;
+  private final Logger logger;
+  private long maxMemory = Runtime.getRuntime().maxMemory() / 4;
+  private MergeEngine mergeEngine = MergeEngine.LOSER_TREE;
+  private IRunCodec runCodec = RunCodec.NONE;
+  private int maxFanIn = RunCascade.DEFAULT_MAX_FAN_IN;
+  private int readAheadSize = RunReadAhead.DEFAULT_BUFFER_SIZE;
+  private boolean syncOutput = false;
+  private CorpusCompression outputCompression = CorpusCompression.NONE;
+  private final List<IPairFilter> filters = new ArrayList<IPairFilter>();
+  private PairFilterChain filterChain = null;
+  private IAuditSink auditSink;
+  private FingerprintIndex fingerprintIndex = null;
+
+  public HashUniquer(
+      final File theSourceFile,
+      final File theTargetFile,
+      final Charset theInputCharSet,
+      final File theTempDirectory,
+      final Charset theOutputCharSet,
+      final Logger theLogger) {
+    this(
+        new FileCorpus(theSourceFile, theTargetFile),
+        theInputCharSet,
+        theTempDirectory,
+        theOutputCharSet,
+        theLogger);
+  }
+
+  /**
+   * Uniques a corpus read from and written to somewhere other than files
+   * named after each other, such as a {@link StreamCorpus}.
+   */
+  public HashUniquer(
+      final ICorpus theCorpus,
+      final Charset theInputCharSet,
+      final File theTempDirectory,
+      final Charset theOutputCharSet,
+      final Logger theLogger) {
+    corpus = theCorpus;
+    tempDirectory = theTempDirectory;
+    inputCharSet = theInputCharSet;
+    outputCharSet = theOutputCharSet;
+    logger = theLogger;
+    auditSink = new LoggerAuditSink(theLogger);
+  }
+
+  /**
+   * Sets the memory the fingerprint set may use before spilling to
+   * partitions. The default is a quarter of the maximum heap.
+   */
+  public void setMaxMemory(final long theMaxMemory) {
+    maxMemory = theMaxMemory;
+  }
+
+  /**
+   * Selects the merge used to restore input order after spilling.
+   */
+  public void setMergeEngine(final MergeEngine theMergeEngine) {
+    mergeEngine = theMergeEngine;
+  }
+
+  /**
+   * Sets the codec applied to the partition files.
+   */
+  public void setRunCodec(final IRunCodec theRunCodec) {
+    runCodec = theRunCodec;
+  }
+
+  /**
+   * Sets the most partition survivor files merged at once.
+   */
+  public void setMaxFanIn(final int theMaxFanIn) {
+    maxFanIn = theMaxFanIn;
+  }
+
+  /**
+   * Sets the size of the two buffers each survivor file is read ahead into
+   * during the merge. Zero turns reading ahead off.
+   */
+  public void setReadAheadSize(final int theReadAheadSize) {
+    readAheadSize = theReadAheadSize;
+  }
+
+  /**
+   * Sets whether the output files are forced to the disk once they have
+   * been written.
+   */
+  public void setSyncOutput(final boolean theSyncOutput) {
+    syncOutput = theSyncOutput;
+  }
+
+  /**
+   * Sets the compression the output is written in. The default is
+   * {@link CorpusCompression#NONE}.
+   */
+  public void setOutputCompression(
+      final CorpusCompression theOutputCompression) {
+    outputCompression = theOutputCompression;
+  }
+
+  /**
+   * Keeps the fingerprints of the pairs written in an index on the disk,
+   * against which later runs unique their input before appending to the
+   * output. The output is forced to the disk before the index is updated.
+   */
+  public void setFingerprintIndex(final File indexFile) {
+    fingerprintIndex = new FingerprintIndex(indexFile);
+  }
+
+  @Override
+  public void setAuditSink(final IAuditSink theAuditSink) {
+    auditSink = theAuditSink;
+  }
+
+  @Override
+  public void addFilter(final IPairFilter filter) {
+    filters.add(filter);
+  }
+
+  @Override
+  public List<PairFilterStatistics> getFilterStatistics() {
+    return (filterChain != null) ?
+        filterChain.getStatistics() :
+        Collections.<PairFilterStatistics>emptyList();
+  }
+
+  @Override
+  public ImmutablePair<Long, Long> unique(
+      final String suffix, final int maxNoTokens)
+  throws Exception {
+    return unique(suffix, maxNoTokens, false);
+  }
+
+  /**
+   * Uniques the corpus, failing with a {@link LineCountMismatchException} as
+   * soon as the source and target files are found to have a different
+   * number of lines.
+   */
+  @Override
+  public ImmutablePair<Long, Long> uniqueWithLineCountCheck(
+      final String suffix, final int maxNoTokens)
+  throws Exception {
+    return unique(suffix, maxNoTokens, true);
+  }
+
+  private ImmutablePair<Long, Long> unique(
+      final String suffix, final int maxNoTokens, final boolean checkLineCounts)
+  throws Exception {
+    final List<File> missingFiles = new ArrayList<File>(
+        corpus.getMissingFiles());
+    if(tempDirectory.exists() == false) missingFiles.add(tempDirectory);
+    if(missingFiles.size() > 0) {
+      throw new FileNotFoundException(
+          String.format(
+              "Missing files or directories: %s",
+              StringUtils.join(missingFiles, ", ")));
+    }
+
+    final PairFilterChain filter = PairFilters.create(maxNoTokens, filters);
+    filterChain = filter;
+
+    logger.info(
+        "Starting hash uniquing with " + corpus + " filtering on " +
+        ((maxNoTokens == ICorpusUniquer.UNLIMITED_TOKENS) ?
+            "infinite number of" :
+            maxNoTokens) +
+        " tokens using suffix [" + suffix + "]...");
+
+    if(fingerprintIndex == null) {
+      return unique(filter, checkLineCounts, suffix);
+    }
+    try {
+      fingerprintIndex.open(
+          corpus.getOutputFiles(suffix, outputCompression), logger);
+      return unique(filter, checkLineCounts, suffix);
+    } finally {
+      fingerprintIndex.close();
+    }
+  }
+
+  private ImmutablePair<Long, Long> unique(
+      final PairFilterChain filter,
+      final boolean checkLineCounts,
+      final String suffix) throws IOException {
+    final boolean appending = fingerprintIndex != null;
+    final IPairWriter writer =
+        corpus.openWriter(
+            suffix,
+            outputCharSet,
+            outputCompression,
+            syncOutput == true || appending == true,
+            appending);
+    boolean deduped = false;
+
+    try {
+      final ImmutablePair<Long, Long> result =
+          dedup(filter, checkLineCounts, writer);
+      deduped = true;
+
+      for(final PairFilterStatistics statistics : filter.getStatistics()) {
+        logger.info(statistics);
+      }
+      logger.info("Finished hash uniquing");
+
+      return result;
+    } finally {
+      // Don't leave partial output behind
+      if(deduped == true) {
+        writer.close();
+        if(appending == true) {
+          fingerprintIndex.commit();
+          logger.info(
+              "The index holds " + fingerprintIndex.size() + " fingerprints");
+        }
+      } else {
+        writer.discard();
+      }
+    }
+  }
+
+  private ImmutablePair<Long, Long> dedup(
+      final PairFilterChain filter,
+      final boolean failOnMismatch,
+      final IPairWriter writer) throws IOException {
+    final IPairReader reader =
+        corpus.openReader(inputCharSet, failOnMismatch);
+    final Fingerprints fingerprints = new Fingerprints();
+    final long[] fingerprint = new long[2];
+    final long[] noDuplicates = {0};
+    long lineCounter = 0;
+    long bytesRead = 0;
+    FingerprintSet set = new FingerprintSet(maxMemory);
+    final FingerprintPartitions partitions =
+        new FingerprintPartitions("hash", tempDirectory, runCodec, maxMemory);
+
+    try {
+      ImmutablePair<String, String> pair = null;
+
+      while((pair = reader.readPair()) != null) {
+        final String sourceLine = pair.getLeft();
+        final String targetLine = pair.getRight();
+
+        // Filter
+        if(filter.apply(pair) == false) {
+          auditSink.dropped(
+              filter.getDroppedBy(),
+              reader.getLineNumber(),
+              sourceLine,
+              targetLine);
+          continue;
+        }
+
+        final byte[] sourceKey = SortKeys.encode(sourceLine);
+        final byte[] targetKey = SortKeys.encode(targetLine);
+        fingerprints.fingerprint(sourceKey, targetKey, fingerprint);
+        bytesRead += sourceKey.length + targetKey.length + 2;
+
+        if(fingerprintIndex != null &&
+           fingerprintIndex.contains(fingerprint[0], fingerprint[1]) == true) {
+          auditSink.duplicate(
+              reader.getLineNumber(),
+              sourceLine.getBytes(Charsets.UTF_8),
+              targetLine.getBytes(Charsets.UTF_8));
+          noDuplicates[0]++;
+        } else if(set != null) {
+          if(set.add(fingerprint[0], fingerprint[1]) == true) {
+            writer.writePair(
+                sourceLine.getBytes(Charsets.UTF_8),
+                targetLine.getBytes(Charsets.UTF_8));
+            if(fingerprintIndex != null) {
+              fingerprintIndex.add(fingerprint[0], fingerprint[1]);
+            }
+            lineCounter++;
+          } else {
+            auditSink.duplicate(
+                reader.getLineNumber(),
+                sourceLine.getBytes(Charsets.UTF_8),
+                targetLine.getBytes(Charsets.UTF_8));
+            noDuplicates[0]++;
+          }
+
+          if(set.isFull() == true) {
+            // Spill what has been seen and partition the rest of the input
+            final int noPartitions =
+                FingerprintPartitions.estimateNoPartitions(
+                    corpus.getSize(), bytesRead);
+            logger.info(
+                "Fingerprint set is full after " + reader.getLineNumber() +
+                " lines, spilling to " + noPartitions + " partitions");
+
+            partitions.spill(set, noPartitions);
+            set = null;
+          }
+        } else {
+          partitions.add(
+              fingerprint[0],
+              fingerprint[1],
+              reader.getLineNumber(),
+              sourceLine.getBytes(Charsets.UTF_8),
+              targetLine.getBytes(Charsets.UTF_8));
+        }
+      }
+
+      if(reader.getMismatch() != null) {
+        logger.warn(reader.getMismatch().getMessage());
+      }
+    } finally {
+      try {
+        partitions.close();
+      } finally {
+        reader.close();
+      }
+    }
+
+    if(partitions.isSpilled() == true) {
+      final List<File> survivorFiles = new ArrayList<File>();
+      for(int i = 0; i < partitions.getNoPartitions(); i++) {
+        survivorFiles.add(dedupPartition(partitions, i, noDuplicates));
+      }
+
+      final RunCascade cascade = new RunCascade(
+          tempDirectory, runCodec, readAheadSize, mergeEngine, logger);
+      lineCounter += mergeSurvivors(
+          cascade.reduce(
+              survivorFiles,
+              RunCascade.getFanIn(maxMemory, maxFanIn, readAheadSize)),
+          writer);
+    }
+
+    return new ImmutablePair<Long, Long>(noDuplicates[0], lineCounter);
+  }
+}
@@ -0,0 +1,22 @@
+package com.capitati.corpus.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the sentence pairs a uniquer drops, with the input line each one
+ * came from.
+ */
+public interface IAuditSink extends Closeable {
+  /**
+   * A pair dropped by a filter.
+   */
+  void dropped(String filter, long lineNumber, String source, String target)
+  throws IOException;
+
+  /**
+   * A pair dropped as a duplicate, with its sentences as UTF-8.
+   */
+  void duplicate(long lineNumber, byte[] source, byte[] target)
+  throws IOException;
+}
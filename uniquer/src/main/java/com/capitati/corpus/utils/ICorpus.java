@@ -0,0 +1,50 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Where a uniquer reads its sentence pairs from and writes the ones it keeps
+ * to.
+ */
+public interface ICorpus {
+  long UNKNOWN_SIZE = -1;
+
+  /**
+   * @param failOnMismatch Whether the reader throws a
+   * {@link LineCountMismatchException} when the source and target have a
+   * different number of lines.
+   */
+  IPairReader openReader(Charset charSet, boolean failOnMismatch)
+  throws IOException;
+
+  /**
+   * @param suffix Appended to the names of any output files, before the
+   * compression's extension.
+   * @param sync Whether closing the writer forces output files to the disk.
+   * @param append Whether pairs are added to the end of any output files.
+   */
+  IPairWriter openWriter(
+      String suffix,
+      Charset charSet,
+      CorpusCompression compression,
+      boolean sync,
+      boolean append) throws IOException;
+
+  /**
+   * @return The files {@link #openWriter} writes to, none for a stream.
+   */
+  List<File> getOutputFiles(String suffix, CorpusCompression compression);
+
+  /**
+   * @return The input files that do not exist.
+   */
+  List<File> getMissingFiles();
+
+  /**
+   * @return The number of bytes of input, or {@link #UNKNOWN_SIZE}.
+   */
+  long getSize();
+}
@@ -1,5 +1,7 @@
 package com.capitati.corpus.utils;
 
+import java.util.List;
+
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
 public interface ICorpusUniquer {
@@ -7,4 +9,26 @@ public interface ICorpusUniquer {
 
   ImmutablePair<Long, Long> unique(String suffix, int maxNoTokens)
   throws Exception;
+
+  ImmutablePair<Long, Long> uniqueWithLineCountCheck(
+      String suffix, int maxNoTokens)
+  throws Exception;
+
+  /**
+   * Adds a filter that pairs must pass, after the empty side and token
+   * filter.
+   */
+  void addFilter(IPairFilter filter);
+
+  /**
+   * @return The statistics of each filter in the latest uniquing, empty
+   * before the first.
+   */
+  List<PairFilterStatistics> getFilterStatistics();
+
+  /**
+   * Sets where dropped pairs are reported. The default logs them at the info
+   * level. The sink is not closed by the uniquer.
+   */
+  void setAuditSink(IAuditSink auditSink);
 }
@@ -0,0 +1,16 @@
+package com.capitati.corpus.utils;
+
+import java.io.IOException;
+
+/**
+ * Told of each record of a {@link FingerprintPartitions} partition, in
+ * input order, as its fingerprint is added to the partition's set.
+ */
+interface IFingerprintVisitor {
+  /**
+   * @param high The high half of the record's fingerprint; the low half
+   * is the record's fingerprint.
+   * @param added False if the fingerprint was seen before.
+   */
+  void visit(long high, RunReader record, boolean added) throws IOException;
+}
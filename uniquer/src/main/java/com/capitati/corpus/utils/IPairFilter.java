@@ -0,0 +1,22 @@
+package com.capitati.corpus.utils;
+
+/**
+ * A test a sentence pair must pass to be kept.
+ */
+public interface IPairFilter {
+  /**
+   * @return A short name for the filter in statistics and logs.
+   */
+  String getName();
+
+  /**
+   * @return The name with every setting that changes which pairs are
+   * dropped, to tell a job resumed with other settings apart.
+   */
+  String describe();
+
+  /**
+   * @return False if the pair is to be dropped.
+   */
+  boolean accept(String source, String target);
+}
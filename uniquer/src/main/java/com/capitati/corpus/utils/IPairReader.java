@@ -0,0 +1,40 @@
+package com.capitati.corpus.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+/**
+ * Reads the stripped sentence pairs of a corpus in input order.
+ */
+public interface IPairReader extends Closeable {
+  /**
+   * @return The next source and target, or null at the end of the input.
+   */
+  ImmutablePair<String, String> readPair() throws IOException;
+
+  /**
+   * Reads past pairs without returning them.
+   *
+   * @return The number of pairs skipped, less than asked for only at the
+   * end of the input.
+   */
+  long skipPairs(long noPairs) throws IOException;
+
+  /**
+   * @return The one based line number of the last pair read.
+   */
+  long getLineNumber();
+
+  /**
+   * @return The number of bytes of text read from the input so far, after
+   * any decompression.
+   */
+  long getBytesRead();
+
+  /**
+   * @return The line count mismatch found so far, or null.
+   */
+  LineCountMismatchException getMismatch();
+}
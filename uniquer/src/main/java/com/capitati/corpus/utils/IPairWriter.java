@@ -0,0 +1,19 @@
+package com.capitati.corpus.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes the sentence pairs a uniquer keeps.
+ */
+public interface IPairWriter extends Closeable {
+  /**
+   * Writes a pair, with its sentences as UTF-8.
+   */
+  void writePair(byte[] source, byte[] target) throws IOException;
+
+  /**
+   * Closes the writer and removes what it wrote, where that is possible.
+   */
+  void discard() throws IOException;
+}
@@ -0,0 +1,17 @@
+package com.capitati.corpus.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes the bytes of the temporary run files, e.g. to compress them.
+ * Closing a stream returned by a codec must close the wrapped stream.
+ */
+public interface IRunCodec {
+  String getName();
+
+  OutputStream encode(OutputStream out) throws IOException;
+
+  InputStream decode(InputStream in) throws IOException;
+}
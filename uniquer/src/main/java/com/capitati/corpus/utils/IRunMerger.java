@@ -0,0 +1,17 @@
+package com.capitati.corpus.utils;
+
+import java.io.IOException;
+
+/**
+ * Selects, from a set of sorted runs, the run holding the smallest head
+ * record. The caller consumes the head of the run returned by
+ * {@link #top()} and then calls {@link #update()} so that the merger can
+ * reposition, or retire, that run.
+ */
+public interface IRunMerger<T> {
+  boolean isEmpty();
+
+  T top();
+
+  void update() throws IOException;
+}
@@ -0,0 +1,67 @@
+package com.capitati.corpus.utils;
+
+import java.util.Map;
+
+import javax.management.MXBean;
+
+/**
+ * The live progress of a uniquing job, as seen over JMX. Times are in
+ * nanoseconds and include the phase under way.
+ */
+@MXBean
+public interface IUniquerMetrics {
+  /**
+   * @return The phase under way: idle, sort, merge, done or failed.
+   */
+  String getPhase();
+
+  /**
+   * @return When a pair was last read, spilled or merged, in milliseconds
+   * since the epoch, which stops moving when a job stalls.
+   */
+  long getLastProgressTime();
+
+  long getPairsRead();
+
+  long getBytesRead();
+
+  /**
+   * @return The pairs read per second of the sort phase so far.
+   */
+  double getPairsReadPerSecond();
+
+  /**
+   * @return The pairs dropped by each filter.
+   */
+  Map<String, Long> getPairsDropped();
+
+  long getRunsSpilled();
+
+  long getRunBytes();
+
+  long getLargestRunBytes();
+
+  /**
+   * @return The number of runs the final merge reads at once.
+   */
+  int getMergeFanIn();
+
+  long getPairsWritten();
+
+  long getDuplicates();
+
+  long getHeapUsed();
+
+  long getHeapBudget();
+
+  long getSortWallTime();
+
+  /**
+   * @return The CPU time of the reading thread and of any sort threads.
+   */
+  long getSortCpuTime();
+
+  long getMergeWallTime();
+
+  long getMergeCpuTime();
+}
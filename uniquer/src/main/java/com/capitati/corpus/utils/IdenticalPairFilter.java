@@ -0,0 +1,23 @@
+package com.capitati.corpus.utils;
+
+/**
+ * Drops pairs whose source and target are the same sentence, ignoring case,
+ * such as untranslated segments.
+ */
+public class IdenticalPairFilter implements IPairFilter {
+  @Override
+  public String getName() {
+    return "identical";
+  }
+
+  @Override
+  public String describe() {
+    return getName();
+  }
+
+  @Override
+  public boolean accept(final String source, final String target) {
+    return source.length() != target.length() ||
+        source.equalsIgnoreCase(target) == false;
+  }
+}
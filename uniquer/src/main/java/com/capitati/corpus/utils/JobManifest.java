@@ -0,0 +1,287 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Records the sorted runs of a job on the disk, so that a job that fails
+ * can be run again and carry on from the last block it spilled.
+ * <p>
+ * Each run is recorded with the range of input lines it was read from,
+ * once the run itself has been forced to the disk. The manifest is written
+ * whole to a temporary file that is forced to the disk and renamed over the
+ * last one, so it is never seen half written. A resumed job carries on from
+ * the end of the unbroken sequence of ranges from the start of the input;
+ * runs after a gap, which sorting in parallel can leave, are deleted. Once
+ * the input is sorted, runs merged into one are replaced by it.
+ * <p>
+ * A manifest only applies to the job it was written by, as identified by
+ * its key; a manifest with another key is discarded along with its runs.
+ */
+public class JobManifest {
+  private static final String KEY = "key";
+  private static final String RUN = "run";
+  private static final String SORTED = "sorted";
+
+  private static class Run {
+    final long startLine;
+    final long endLine;
+    // Null for a range with no pairs left after filtering
+    final File file;
+
+    Run(final long theStartLine, final long theEndLine, final File theFile) {
+      startLine = theStartLine;
+      endLine = theEndLine;
+      file = theFile;
+    }
+  }
+
+  private static final Comparator<Run> START_COMPARATOR =
+      new Comparator<Run>() {
+        @Override
+        public int compare(final Run i, final Run j) {
+          return Long.compare(i.startLine, j.startLine);
+        }
+      };
+
+  private final File file;
+  private final String key;
+  private final List<Run> runs = new ArrayList<Run>();
+  private boolean sorted = false;
+
+  /**
+   * @param theKey Identifies the job: its input and whatever else shapes
+   * its runs. Must be a single line.
+   */
+  public JobManifest(final File theFile, final String theKey) {
+    file = theFile;
+    key = theKey;
+  }
+
+  /**
+   * Reads what an earlier attempt at the job recorded, if anything.
+   *
+   * @return Whether there is anything to resume from.
+   */
+  public synchronized boolean load(final Logger logger) throws IOException {
+    runs.clear();
+    sorted = false;
+    if(file.exists() == false) {
+      return false;
+    }
+
+    String foundKey = null;
+    final List<Run> found = new ArrayList<Run>();
+    boolean foundSorted = false;
+    final BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+    try {
+      String line = null;
+      while((line = reader.readLine()) != null) {
+        final String[] fields = line.split("\t", 4);
+        if(fields[0].equals(KEY) == true) {
+          foundKey = line.substring(KEY.length() + 1);
+        } else if(fields[0].equals(RUN) == true) {
+          found.add(
+              new Run(
+                  Long.parseLong(fields[1]),
+                  Long.parseLong(fields[2]),
+                  (fields[3].length() > 0) ? new File(fields[3]) : null));
+        } else if(fields[0].equals(SORTED) == true) {
+          foundSorted = true;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    if(key.equals(foundKey) == false) {
+      logger.warn(
+          "Discarding the job manifest [" + file + "] of another job");
+      discard(found);
+      return false;
+    }
+    for(final Run run : found) {
+      if(run.file != null && run.file.exists() == false) {
+        logger.warn(
+            "Discarding the job manifest [" + file + "] as the temporary " +
+            "file [" + run.file + "] is missing");
+        discard(found);
+        return false;
+      }
+    }
+
+    // Keep the unbroken sequence of ranges from the start of the input
+    Collections.sort(found, START_COMPARATOR);
+    long endLine = 0;
+    for(final Run run : found) {
+      if(foundSorted == true || run.startLine <= endLine) {
+        runs.add(run);
+        endLine = Math.max(endLine, run.endLine);
+      } else if(run.file != null) {
+        run.file.delete();
+      }
+    }
+    sorted = foundSorted;
+    save();
+
+    return runs.isEmpty() == false;
+  }
+
+  private void discard(final List<Run> found) {
+    for(final Run run : found) {
+      if(run.file != null) {
+        run.file.delete();
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * @return The runs recorded, in input order.
+   */
+  public synchronized List<File> getRuns() {
+    final List<File> files = new ArrayList<File>();
+    for(final Run run : runs) {
+      if(run.file != null) {
+        files.add(run.file);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * @return The number of input lines the runs recorded were read from.
+   */
+  public synchronized long getResumeLine() {
+    long endLine = 0;
+    for(final Run run : runs) {
+      endLine = Math.max(endLine, run.endLine);
+    }
+    return endLine;
+  }
+
+  /**
+   * @return Whether the whole input was sorted into the runs recorded.
+   */
+  public synchronized boolean isSorted() {
+    return sorted;
+  }
+
+  /**
+   * Records a run once it is on the disk.
+   *
+   * @param runFile The run, or null when no pairs of the range were kept.
+   */
+  public synchronized void addRun(
+      final long startLine, final long endLine, final File runFile)
+  throws IOException {
+    if(runFile != null) {
+      force(runFile);
+    }
+    runs.add(new Run(startLine, endLine, runFile));
+    Collections.sort(runs, START_COMPARATOR);
+    save();
+  }
+
+  /**
+   * Records that the whole input has been sorted.
+   */
+  public synchronized void setSorted() throws IOException {
+    sorted = true;
+    save();
+  }
+
+  /**
+   * Records a run merged from neighbouring runs in their place, before they
+   * are deleted.
+   */
+  public synchronized void replaceRuns(
+      final List<File> group, final File merged) throws IOException {
+    force(merged);
+    long startLine = Long.MAX_VALUE;
+    long endLine = 0;
+    int index = -1;
+    for(int i = runs.size() - 1; i >= 0; i--) {
+      final Run run = runs.get(i);
+      if(run.file != null && group.contains(run.file) == true) {
+        startLine = Math.min(startLine, run.startLine);
+        endLine = Math.max(endLine, run.endLine);
+        runs.remove(i);
+        index = i;
+      }
+    }
+    if(index < 0) {
+      throw new IllegalArgumentException(
+          "None of the runs merged into [" + merged + "] are recorded");
+    }
+
+    runs.add(index, new Run(startLine, endLine, merged));
+    save();
+  }
+
+  /**
+   * Deletes the manifest and the runs it still records, once the job is
+   * done.
+   */
+  public synchronized void delete() {
+    discard(runs);
+    runs.clear();
+  }
+
+  private void save() throws IOException {
+    final File newFile = new File(file.getPath() + ".new");
+    final FileOutputStream stream = new FileOutputStream(newFile);
+    try {
+      final Writer writer = new OutputStreamWriter(stream, Charsets.UTF_8);
+      writer.write(KEY + "\t" + key + "\n");
+      for(final Run run : runs) {
+        writer.write(
+            RUN + "\t" + run.startLine + "\t" + run.endLine + "\t" +
+            ((run.file != null) ? run.file.getAbsolutePath() : "") + "\n");
+      }
+      if(sorted == true) {
+        writer.write(SORTED + "\n");
+      }
+      writer.flush();
+      stream.getChannel().force(true);
+    } finally {
+      stream.close();
+    }
+
+    Files.move(
+        newFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void force(final File runFile) throws IOException {
+    final FileChannel channel =
+        FileChannel.open(runFile.toPath(), StandardOpenOption.WRITE);
+    try {
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+}
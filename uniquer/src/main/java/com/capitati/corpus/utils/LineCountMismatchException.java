@@ -0,0 +1,43 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Thrown when one of a pair of aligned files ends before the other.
+ */
+public class LineCountMismatchException extends IOException {
+  private static final long serialVersionUID = -3817345045419224870L;
+
+  private final File shorterFile;
+  private final File longerFile;
+  private final long lineNumber;
+
+  public LineCountMismatchException(
+      final File theShorterFile,
+      final File theLongerFile,
+      final long theLineNumber) {
+    super(
+        "Source and target files have line count mismatch: [" +
+        theShorterFile + "] ends after line " + theLineNumber + " but [" +
+        theLongerFile + "] continues");
+    shorterFile = theShorterFile;
+    longerFile = theLongerFile;
+    lineNumber = theLineNumber;
+  }
+
+  public File getShorterFile() {
+    return shorterFile;
+  }
+
+  public File getLongerFile() {
+    return longerFile;
+  }
+
+  /**
+   * @return The number of lines in the shorter file.
+   */
+  public long getLineNumber() {
+    return lineNumber;
+  }
+}
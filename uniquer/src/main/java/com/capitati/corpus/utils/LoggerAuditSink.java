@@ -0,0 +1,46 @@
+package com.capitati.corpus.utils;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Logs dropped pairs at the info level, as the uniquers always have. No
+ * message is built when the level is disabled.
+ */
+public class LoggerAuditSink implements IAuditSink {
+  private final Logger logger;
+
+  public LoggerAuditSink(final Logger theLogger) {
+    logger = theLogger;
+  }
+
+  @Override
+  public void dropped(
+      final String filter,
+      final long lineNumber,
+      final String source,
+      final String target) {
+    if(logger.isInfoEnabled() == true) {
+      logger.info(
+          "Dropping source sentence [" + source + "]" +
+          " with target sentence [" + target + "]");
+    }
+  }
+
+  @Override
+  public void duplicate(
+      final long lineNumber, final byte[] source, final byte[] target) {
+    if(logger.isInfoEnabled() == true) {
+      logger.info(
+          "Duplicate sentence pair, source [" +
+          new String(source, Charsets.UTF_8) + "] with " +
+          "target [" + new String(target, Charsets.UTF_8) + "]");
+    }
+  }
+
+  @Override
+  public void close() {
+    // Nothing to close
+  }
+}
@@ -0,0 +1,90 @@
+package com.capitati.corpus.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A tournament (loser) tree over k runs. Each internal node holds the loser
+ * of the match played there and the overall winner is kept at the root, so
+ * replacing the winner's head replays a single leaf-to-root path: log k
+ * comparisons and no re-insertion.
+ */
+public class LoserTreeMerger<T> implements IRunMerger<T> {
+  private final List<T> runs;
+  private final Comparator<? super T> comparator;
+  private final Predicate<? super T> exhausted;
+  private final int[] tree;
+
+  public LoserTreeMerger(
+      final Collection<? extends T> theRuns,
+      final Comparator<? super T> theComparator,
+      final Predicate<? super T> theExhaustedPredicate) {
+    runs = new ArrayList<T>(theRuns);
+    comparator = theComparator;
+    exhausted = theExhaustedPredicate;
+    tree = new int[Math.max(1, runs.size())];
+    if(runs.size() > 0) {
+      tree[0] = build(1);
+    }
+  }
+
+  // Plays the matches below node and returns the winning run index. Nodes
+  // 1..k-1 are internal and leaf i sits at node k + i.
+  private int build(final int node) {
+    if(node >= runs.size()) {
+      return node - runs.size();
+    }
+
+    final int left = build(2 * node);
+    final int right = build(2 * node + 1);
+    if(beats(left, right) == true) {
+      tree[node] = right;
+      return left;
+    }
+    tree[node] = left;
+    return right;
+  }
+
+  // Exhausted runs lose every match; ties go to the lower run index.
+  private boolean beats(final int i, final int j) {
+    final T runI = runs.get(i);
+    final T runJ = runs.get(j);
+    if(exhausted.apply(runI) == true) {
+      return false;
+    }
+    if(exhausted.apply(runJ) == true) {
+      return true;
+    }
+
+    final int cmp = comparator.compare(runI, runJ);
+    return cmp < 0 || (cmp == 0 && i < j);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return runs.size() < 1 || exhausted.apply(runs.get(tree[0])) == true;
+  }
+
+  @Override
+  public T top() {
+    return runs.get(tree[0]);
+  }
+
+  @Override
+  public void update() {
+    int winner = tree[0];
+
+    for(int node = (winner + runs.size()) / 2; node > 0; node /= 2) {
+      if(beats(tree[node], winner) == true) {
+        final int loser = winner;
+        winner = tree[node];
+        tree[node] = loser;
+      }
+    }
+    tree[0] = winner;
+  }
+}
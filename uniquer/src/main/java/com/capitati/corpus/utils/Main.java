@@ -1,12 +1,16 @@
 package com.capitati.corpus.utils;
 
 import java.io.File;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli2.CommandLine;
 import org.apache.commons.cli2.DisplaySetting;
@@ -24,13 +28,37 @@ import org.apache.commons.cli2.validation.InvalidArgumentException;
 import org.apache.commons.cli2.validation.Validator;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.EnhancedPatternLayout;
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
 import org.apache.log4j.spi.NOPLogger;
 import org.apache.log4j.spi.NOPLoggerRepository;
 
+import com.google.common.base.Function;
+
 public class Main {
+  // Names the standard input as the source
+  private static final String STANDARD_INPUT = "-";
+
+  private static Validator createNameValidator(
+      final String description, final Function<String, Object> lookup) {
+    return new Validator() {
+      @Override
+      public void validate(@SuppressWarnings("rawtypes") final List args)
+      throws InvalidArgumentException {
+        final String name = (String )args.get(0);
+        try {
+          lookup.apply(name);
+        } catch(final IllegalArgumentException ex) {
+          throw new InvalidArgumentException(
+              "Unknown " + description + ": [" + name + "]");
+        }
+      }
+    };
+  }
+
   @SuppressWarnings({"unchecked"})
   private static Map<String, Object> parseCommandLineOptions(
       final String[] args) {
@@ -49,6 +77,26 @@ public class Main {
               "File [" + filename + "] does not exist");
       }
     };
+    final Validator sourceValidator = new Validator() {
+      @Override
+      public void validate(@SuppressWarnings("rawtypes") final List args)
+      throws InvalidArgumentException {
+        if(STANDARD_INPUT.equals(args.get(0)) == false) {
+          fileValidator.validate(args);
+        }
+      }
+    };
+    final Validator columnsValidator = new Validator() {
+      @Override
+      public void validate(@SuppressWarnings("rawtypes") final List args)
+      throws InvalidArgumentException {
+        for(final Object filename : args) {
+          if(new File((String )filename).exists() == false)
+            throw new InvalidArgumentException(
+                "File [" + filename + "] does not exist");
+        }
+      }
+    };
     final Validator directoryValidator = new Validator() {
       @Override
       public void validate(@SuppressWarnings("rawtypes") final List args)
@@ -76,6 +124,103 @@ public class Main {
         }
       }
     };
+    final Validator mergeEngineValidator = createNameValidator(
+        "merge engine",
+        new Function<String, Object>() {
+          @Override
+          public Object apply(final String name) {
+            return MergeEngine.forName(name);
+          }
+        });
+    final Validator runCodecValidator = createNameValidator(
+        "temporary file codec",
+        new Function<String, Object>() {
+          @Override
+          public Object apply(final String name) {
+            return RunCodec.forName(name);
+          }
+        });
+    final Validator compressionValidator = createNameValidator(
+        "compression",
+        new Function<String, Object>() {
+          @Override
+          public Object apply(final String name) {
+            return CorpusCompression.forName(name);
+          }
+        });
+    final Validator modeValidator = createNameValidator(
+        "uniquing mode",
+        new Function<String, Object>() {
+          @Override
+          public Object apply(final String name) {
+            return UniquingMode.forName(name);
+          }
+        });
+    final Validator scriptsValidator = createNameValidator(
+        "script specification",
+        new Function<String, Object>() {
+          @Override
+          public Object apply(final String specification) {
+            return ScriptRatioFilter.forSpecification(specification);
+          }
+        });
+    final Validator signatureValidator = createNameValidator(
+        "signature specification",
+        new Function<String, Object>() {
+          @Override
+          public Object apply(final String specification) {
+            return MinHashSignatures.forSpecification(specification);
+          }
+        });
+    final Validator keyValidator = createNameValidator(
+        "key columns",
+        new Function<String, Object>() {
+          @Override
+          public Object apply(final String specification) {
+            return ColumnUniquer.parseKeyColumns(specification);
+          }
+        });
+    final Validator ratioValidator = new Validator() {
+      @Override
+      public void validate(@SuppressWarnings("rawtypes") final List args)
+      throws InvalidArgumentException {
+        final String ratio = (String )args.get(0);
+        try {
+          if(Double.parseDouble(ratio) < 1) {
+            throw new InvalidArgumentException(
+                "Ratio must be at least 1: [" + ratio + "]");
+          }
+        } catch(final NumberFormatException ex) {
+          throw new InvalidArgumentException(
+              "Illegal ratio: [" + ratio + "]");
+        }
+      }
+    };
+    final Validator sizeValidator = new Validator() {
+      @Override
+      public void validate(@SuppressWarnings("rawtypes") final List args)
+      throws InvalidArgumentException {
+        final String size = (String )args.get(0);
+        try {
+          MemoryBudget.parseSize(size);
+        } catch(final IllegalArgumentException ex) {
+          throw new InvalidArgumentException(
+              "Illegal size: [" + size + "]");
+        }
+      }
+    };
+    final Validator bufferSizeValidator = new Validator() {
+      @Override
+      public void validate(@SuppressWarnings("rawtypes") final List args)
+      throws InvalidArgumentException {
+        sizeValidator.validate(args);
+        final String size = (String )args.get(0);
+        if(MemoryBudget.parseSize(size) > Integer.MAX_VALUE) {
+          throw new InvalidArgumentException(
+              "Buffer size must be less than 2g: [" + size + "]");
+        }
+      }
+    };
     final Option help = oBuilder.
         withLongName("help").
         withShortName("h").
@@ -85,20 +230,22 @@ public class Main {
     final Option source = oBuilder.
         withLongName("source").
         withShortName("s").
-        withDescription("Source filename").
+        withDescription(
+            "Source filename, or - to read tab-separated source and target " +
+            "lines from the standard input and write to the standard output").
         withArgument(
             aBuilder.
             withName("FILE").
             withMinimum(1).
             withMaximum(1).
-            withValidator(fileValidator).
+            withValidator(sourceValidator).
             create()).
-        withRequired(true).
+        withRequired(false).
         create();
     final Option target = oBuilder.
         withLongName("target").
         withShortName("t").
-        withDescription("Target filename").
+        withDescription("Target filename, unless the source is -").
         withArgument(
             aBuilder.
             withName("FILE").
@@ -106,7 +253,43 @@ public class Main {
             withMaximum(1).
             withValidator(fileValidator).
             create()).
-        withRequired(true).
+        withRequired(false).
+        create();
+    final Option columns = oBuilder.
+        withLongName("columns").
+        withDescription(
+            "Aligned filenames of a multi-parallel corpus, instead of a " +
+            "source and a target, uniqued together in the sort mode; the " +
+            "first is paired with each of the others for the filters").
+        withArgument(
+            aBuilder.
+            withName("FILE").
+            withMinimum(2).
+            withMaximum(Integer.MAX_VALUE).
+            withValidator(columnsValidator).
+            create()).
+        withRequired(false).
+        create();
+    final Option key = oBuilder.
+        withLongName("key").
+        withDescription(
+            "The columns, numbered from one, that rows must share to be " +
+            "duplicates, e.g. 1,3 (Default: all of them)").
+        withArgument(
+            aBuilder.
+            withName("COLUMNS").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(keyValidator).
+            create()).
+        withRequired(false).
+        create();
+    final Option stdout = oBuilder.
+        withLongName("stdout").
+        withDescription(
+            "Write the pairs kept to the standard output as tab-separated " +
+            "lines instead of to files").
+        withRequired(false).
         create();
     final Option inputCharSet = oBuilder.
         withLongName("inputcharset").
@@ -177,6 +360,208 @@ public class Main {
             create()).
         withRequired(false).
         create();
+    final Option heapBudget = oBuilder.
+        withLongName("heapbudget").
+        withShortName("b").
+        withDescription(
+            "The heap used for sorting, fingerprints or band keys, e.g. " +
+            "512m or 2g (Default: half the free heap when sorting, a " +
+            "quarter of the maximum heap otherwise)").
+        withArgument(
+            aBuilder.
+            withName("SIZE").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(sizeValidator).
+            create()).
+        withRequired(false).
+        create();
+    final Option maxFanIn = oBuilder.
+        withLongName("maxfanin").
+        withShortName("f").
+        withDescription(
+            "The most temporary files merged at once; more are merged in " +
+            "several passes").
+        withArgument(
+            aBuilder.
+            withName("NUMBER").
+            withMinimum(1).
+            withMaximum(1).
+            withDefault(Integer.toString(RunCascade.DEFAULT_MAX_FAN_IN)).
+            create()).
+        withRequired(false).
+        create();
+    final Option readAhead = oBuilder.
+        withLongName("readahead").
+        withShortName("r").
+        withDescription(
+            "The size of the two buffers each temporary file is read ahead " +
+            "into whilst merging, e.g. 4m; 0 reads directly").
+        withArgument(
+            aBuilder.
+            withName("SIZE").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(bufferSizeValidator).
+            withDefault(
+                Integer.toString(RunReadAhead.DEFAULT_BUFFER_SIZE)).
+            create()).
+        withRequired(false).
+        create();
+    final Option mode = oBuilder.
+        withLongName("mode").
+        withShortName("u").
+        withDescription(
+            "How duplicates are found: sort, which also sorts the output, " +
+            "hash, which keeps the input order, or near, which keeps the " +
+            "input order and also drops pairs much like an earlier one").
+        withArgument(
+            aBuilder.
+            withName("MODE").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(modeValidator).
+            withDefault(UniquingMode.SORT.getName()).
+            create()).
+        withRequired(false).
+        create();
+    final Option sortThreads = oBuilder.
+        withLongName("sortthreads").
+        withShortName("p").
+        withDescription(
+            "The number of threads sorting and writing temporary files, " +
+            "or computing signatures in the near mode").
+        withArgument(
+            aBuilder.
+            withName("NUMBER").
+            withMinimum(1).
+            withMaximum(1).
+            withDefault("1").
+            create()).
+        withRequired(false).
+        create();
+    final Option mergeEngine = oBuilder.
+        withLongName("mergeengine").
+        withShortName("e").
+        withDescription(
+            "The merge of temporary files: loser-tree or priority-queue").
+        withArgument(
+            aBuilder.
+            withName("ENGINE").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(mergeEngineValidator).
+            withDefault(MergeEngine.LOSER_TREE.getName()).
+            create()).
+        withRequired(false).
+        create();
+    final Option signature = oBuilder.
+        withLongName("lsh").
+        withDescription(
+            "The MinHash bands and rows, and the tokens per shingle, of " +
+            "the near mode; more rows or fewer bands only drop pairs more " +
+            "alike").
+        withArgument(
+            aBuilder.
+            withName("BANDS:ROWS[:SHINGLE]").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(signatureValidator).
+            withDefault(
+                NearDuplicateUniquer.DEFAULT_NO_BANDS + ":" +
+                NearDuplicateUniquer.DEFAULT_NO_ROWS + ":" +
+                NearDuplicateUniquer.DEFAULT_SHINGLE_SIZE).
+            create()).
+        withRequired(false).
+        create();
+    final Option runCodec = oBuilder.
+        withLongName("tempcodec").
+        withShortName("z").
+        withDescription(
+            "Encoding of the temporary files: none or deflate").
+        withArgument(
+            aBuilder.
+            withName("CODEC").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(runCodecValidator).
+            withDefault(RunCodec.NONE.getName()).
+            create()).
+        withRequired(false).
+        create();
+    final Option compress = oBuilder.
+        withLongName("compress").
+        withDescription(
+            "Compression of the output: none, gzip or bzip2. Compressed " +
+            "input is recognised by itself").
+        withArgument(
+            aBuilder.
+            withName("COMPRESSION").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(compressionValidator).
+            withDefault(CorpusCompression.NONE.getName()).
+            create()).
+        withRequired(false).
+        create();
+    final Option manifest = oBuilder.
+        withLongName("manifest").
+        withDescription(
+            "Record the temporary files of the sort in a job manifest, so " +
+            "that a job that fails carries on where it stopped when it is " +
+            "run again with the same manifest, in the sort mode only").
+        withArgument(
+            aBuilder.
+            withName("FILE").
+            withMinimum(1).
+            withMaximum(1).
+            create()).
+        withRequired(false).
+        create();
+    final Option index = oBuilder.
+        withLongName("index").
+        withDescription(
+            "Keep the fingerprints of the pairs written in an index, " +
+            "unique against it and append to the output, so that new " +
+            "input can be added without uniquing the whole corpus again, " +
+            "in the hash mode only").
+        withArgument(
+            aBuilder.
+            withName("FILE").
+            withMinimum(1).
+            withMaximum(1).
+            create()).
+        withRequired(false).
+        create();
+    final Option shards = oBuilder.
+        withLongName("shards").
+        withDescription(
+            "Partition the pairs into this many shards, each uniqued by a " +
+            "worker process of its own, and put their outputs together").
+        withArgument(
+            aBuilder.
+            withName("NUMBER").
+            withMinimum(1).
+            withMaximum(1).
+            withDefault("1").
+            create()).
+        withRequired(false).
+        create();
+    final Option metrics = oBuilder.
+        withLongName("metrics").
+        withDescription(
+            "Rewrite a file with the job's metrics in the Prometheus text " +
+            "format every " + PrometheusTextFile.DEFAULT_INTERVAL +
+            " seconds, for a node exporter's textfile collector, in the " +
+            "sort mode only").
+        withArgument(
+            aBuilder.
+            withName("FILE").
+            withMinimum(1).
+            withMaximum(1).
+            create()).
+        withRequired(false).
+        create();
     final Option logFile = oBuilder.
           withLongName("logfile").
           withShortName("l").
@@ -189,6 +574,41 @@ public class Main {
               create()).
           withRequired(false).
           create();
+    final Option audit = oBuilder.
+        withLongName("audit").
+        withShortName("j").
+        withDescription(
+            "Write the dropped pairs, with why and their line numbers, to a " +
+            "tab separated file").
+        withArgument(
+            aBuilder.
+            withName("FILE").
+            withMinimum(1).
+            withMaximum(1).
+            create()).
+        withRequired(false).
+        create();
+    final Option auditSample = oBuilder.
+        withLongName("auditsample").
+        withShortName("q").
+        withDescription(
+            "Only audit one in this many dropped pairs of each reason").
+        withArgument(
+            aBuilder.
+            withName("NUMBER").
+            withMinimum(1).
+            withMaximum(1).
+            withDefault("1").
+            create()).
+        withRequired(false).
+        create();
+    final Option auditCounters = oBuilder.
+        withLongName("auditcounters").
+        withDescription(
+            "Only count the dropped pairs of each reason, writing no audit " +
+            "file").
+        withRequired(false).
+        create();
     final Option maxNoTokens = oBuilder.
           withLongName("maxnotokens").
           withShortName("m").
@@ -204,6 +624,73 @@ public class Main {
               create()).
           withRequired(false).
           create();
+    final Option maxRatio = oBuilder.
+        withLongName("maxratio").
+        withShortName("a").
+        withDescription(
+            "Drop pairs where one side has more than this many times the " +
+            "tokens of the other").
+        withArgument(
+            aBuilder.
+            withName("RATIO").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(ratioValidator).
+            create()).
+        withRequired(false).
+        create();
+    final Option dropIdentical = oBuilder.
+        withLongName("dropidentical").
+        withShortName("d").
+        withDescription(
+            "Drop pairs whose source and target are the same, ignoring case").
+        withRequired(false).
+        create();
+    final Option blacklist = oBuilder.
+        withLongName("blacklist").
+        withShortName("k").
+        withDescription(
+            "Drop pairs matching any of the regular expressions in a file, " +
+            "one per line").
+        withArgument(
+            aBuilder.
+            withName("FILE").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(fileValidator).
+            create()).
+        withRequired(false).
+        create();
+    final Option scripts = oBuilder.
+        withLongName("scripts").
+        withShortName("g").
+        withDescription(
+            "Drop pairs where too few letters are in the expected scripts, " +
+            "e.g. latin:cyrillic or latin:han,hiragana,katakana:0.8").
+        withArgument(
+            aBuilder.
+            withName("SOURCE:TARGET[:RATIO]").
+            withMinimum(1).
+            withMaximum(1).
+            withValidator(scriptsValidator).
+            create()).
+        withRequired(false).
+        create();
+    final Option checkLineCounts = oBuilder.
+        withLongName("checklinecounts").
+        withShortName("c").
+        withDescription(
+            "Fail if the source and target files have a different number " +
+            "of lines").
+        withRequired(false).
+        create();
+    final Option fsync = oBuilder.
+        withLongName("fsync").
+        withShortName("y").
+        withDescription(
+            "Force the output files to the disk once they are written").
+        withRequired(false).
+        create();
     final Switch verbose = sBuilder.
         withName("v").
         withDescription("Verbose output").
@@ -213,13 +700,38 @@ public class Main {
         withName("uniquing options").
         withOption(source).
         withOption(target).
+        withOption(columns).
+        withOption(key).
+        withOption(stdout).
         withOption(inputCharSet).
         withOption(outputCharSet).
         withOption(suffix).
         withOption(workingDir).
         withOption(noFiles).
+        withOption(heapBudget).
+        withOption(maxFanIn).
+        withOption(readAhead).
+        withOption(mode).
+        withOption(sortThreads).
+        withOption(mergeEngine).
+        withOption(signature).
+        withOption(runCodec).
+        withOption(compress).
+        withOption(manifest).
+        withOption(index).
+        withOption(shards).
+        withOption(metrics).
         withOption(logFile).
+        withOption(audit).
+        withOption(auditSample).
+        withOption(auditCounters).
         withOption(maxNoTokens).
+        withOption(maxRatio).
+        withOption(dropIdentical).
+        withOption(blacklist).
+        withOption(scripts).
+        withOption(checkLineCounts).
+        withOption(fsync).
         withOption(verbose).
         create();
     final Group helpGroup = gBuilder.
@@ -261,20 +773,119 @@ public class Main {
     if(cl == null) {
       System.exit(6);
     }
+    if(cl.hasOption(columns) == true) {
+      if(cl.hasOption(source) == true ||
+         cl.hasOption(target) == true ||
+         cl.hasOption(stdout) == true ||
+         cl.hasOption(index) == true ||
+         cl.hasOption(shards) == true ||
+         UniquingMode.forName((String )cl.getValue(mode)) !=
+             UniquingMode.SORT) {
+        System.err.println(
+            "Columns are only uniqued from files, in the sort mode, " +
+            "without an index or shards");
+        System.exit(6);
+      }
+      if(cl.hasOption(key) == true) {
+        for(final int column :
+            ColumnUniquer.parseKeyColumns((String )cl.getValue(key))) {
+          if(column >= cl.getValues(columns).size()) {
+            System.err.println("No key column " + (column + 1));
+            System.exit(6);
+          }
+        }
+      }
+    } else if(cl.hasOption(key) == true) {
+      System.err.println("Key columns need --columns");
+      System.exit(6);
+    } else if(cl.hasOption(source) == false) {
+      System.err.println("Missing option --source");
+      System.exit(6);
+    } else if(
+        STANDARD_INPUT.equals(cl.getValue(source)) == cl.hasOption(target)) {
+      System.err.println(
+          (cl.hasOption(target) == true) ?
+              "No target file can be read with the standard input" :
+              "Missing option --target");
+      System.exit(6);
+    }
+    if(cl.hasOption(manifest) == true && cl.hasOption(shards) == true) {
+      System.err.println("No job manifest can be kept for shards");
+      System.exit(6);
+    }
+    if(cl.hasOption(manifest) == true &&
+       UniquingMode.forName((String )cl.getValue(mode)) !=
+           UniquingMode.SORT) {
+      System.err.println("The job manifest needs --mode sort");
+      System.exit(6);
+    }
+    if(cl.hasOption(shards) == true &&
+       UniquingMode.forName((String )cl.getValue(mode)) ==
+           UniquingMode.NEAR) {
+      System.err.println("Near duplicates cannot be found across shards");
+      System.exit(6);
+    }
+    if(cl.hasOption(index) == true &&
+       (cl.hasOption(shards) == true ||
+        UniquingMode.forName((String )cl.getValue(mode)) !=
+            UniquingMode.HASH)) {
+      System.err.println("The fingerprint index needs --mode hash");
+      System.exit(6);
+    }
+
+    if(cl.hasOption(metrics) == true &&
+       (cl.hasOption(shards) == true ||
+        UniquingMode.forName((String )cl.getValue(mode)) !=
+            UniquingMode.SORT)) {
+      System.err.println("Metrics are only kept in the sort mode");
+      System.exit(6);
+    }
 
     final CommandLine mcl = cl;
     final Map<String, Object> values = new HashMap<String, Object>() {
       private static final long serialVersionUID = 1L;
       {
-        put("source", mcl.getValue(source));
-        put("target", mcl.getValue(target));
+        put("source", mcl.getValue(source, null));
+        put("columns",
+            (mcl.hasOption(columns) == true) ? mcl.getValues(columns) : null);
+        put("key", mcl.getValue(key, null));
+        put("target", mcl.getValue(target, null));
+        put("stdout", Boolean.valueOf(mcl.hasOption(stdout)));
         put("inputcharset", mcl.getValue(inputCharSet));
         put("outputcharset", mcl.getValue(outputCharSet));
         put("suffix", mcl.getValue(suffix));
         put("workingdir", mcl.getValue(workingDir));
         put("logfile", mcl.getValue(logFile, null));
+        put("manifest", mcl.getValue(manifest, null));
+        put("index", mcl.getValue(index, null));
+        put("shards", Integer.parseInt((String )mcl.getValue(shards)));
+        put("metrics", mcl.getValue(metrics, null));
+        put("audit", mcl.getValue(audit, null));
+        put("auditsample",
+            Integer.parseInt((String )mcl.getValue(auditSample)));
+        put("auditcounters", Boolean.valueOf(mcl.hasOption(auditCounters)));
         put("nofiles", Integer.parseInt((String )mcl.getValue(noFiles)));
+        put("heapbudget", mcl.getValue(heapBudget, null));
+        put("maxfanin", Integer.parseInt((String )mcl.getValue(maxFanIn)));
+        put("readahead",
+            (int )MemoryBudget.parseSize((String )mcl.getValue(readAhead)));
+        put("mode", UniquingMode.forName((String )mcl.getValue(mode)));
+        put("sortthreads", Integer.parseInt((String )mcl.getValue(sortThreads)));
+        put("mergeengine",
+            MergeEngine.forName((String )mcl.getValue(mergeEngine)));
+        put("lsh",
+            MinHashSignatures.forSpecification(
+                (String )mcl.getValue(signature)));
+        put("tempcodec", RunCodec.forName((String )mcl.getValue(runCodec)));
+        put("compress",
+            CorpusCompression.forName((String )mcl.getValue(compress)));
         put("maxnotokens", Integer.parseInt((String )mcl.getValue(maxNoTokens)));
+        put("maxratio", mcl.getValue(maxRatio, null));
+        put("dropidentical", Boolean.valueOf(mcl.hasOption(dropIdentical)));
+        put("blacklist", mcl.getValue(blacklist, null));
+        put("scripts", mcl.getValue(scripts, null));
+        put("checklinecounts", Boolean.valueOf(mcl.hasOption(checkLineCounts)));
+        put("fsync", Boolean.valueOf(mcl.hasOption(fsync)));
         put("verbose", new Boolean(mcl.getSwitch(verbose)));
       }};
       
@@ -284,6 +895,13 @@ public class Main {
   public static void main(String[] args) throws Exception {
     final Map<String, Object> values = parseCommandLineOptions(args);
     final String logFile = (String )values.get("logfile");
+    final String sourceName = (String )values.get("source");
+    final boolean fromStandardInput = STANDARD_INPUT.equals(sourceName);
+    final boolean toStandardOutput =
+        fromStandardInput == true || (Boolean )values.get("stdout") == true;
+    // Keep the standard output for the pairs when they are written there
+    final PrintStream console =
+        (toStandardOutput == true) ? System.err : System.out;
 
     Logger logger = null;
     if(logFile != null) {
@@ -293,33 +911,253 @@ public class Main {
                   "%d{dd MMM yyyy HH:mm:ss,SSS}: %-5p: %m%n"),
                   logFile));
       logger = Logger.getLogger("uniquer");
+    } else if(toStandardOutput == true) {
+      BasicConfigurator.configure(
+          new ConsoleAppender(
+              new PatternLayout(PatternLayout.TTCC_CONVERSION_PATTERN),
+              ConsoleAppender.SYSTEM_ERR));
+      logger = new NOPLogger(new NOPLoggerRepository(), "uniquer");
     } else {
       BasicConfigurator.configure();
       logger = new NOPLogger(new NOPLoggerRepository(), "uniquer");
     }
 
-    final CorpusUniquer sorter = new CorpusUniquer(
-        new File((String )values.get("source")),
-        new File((String )values.get("target")),
-        Charset.forName((String )values.get("inputcharset")),
-        (Integer )values.get("nofiles"),
-        new File((String )values.get("workingdir")),
-        Charset.forName((String )values.get("outputcharset")),
-        logger);
+    @SuppressWarnings("unchecked")
+    final List<String> columnNames = (List<String> )values.get("columns");
+    ICorpus corpus = null;
+    ColumnCorpus columnCorpus = null;
+    if(fromStandardInput == true) {
+      corpus = new StreamCorpus(System.in, System.out);
+    } else if(columnNames == null) {
+      final File sourceFile = new File(sourceName);
+      final File targetFile = new File((String )values.get("target"));
+      corpus = (toStandardOutput == true) ?
+          new StreamCorpus(sourceFile, targetFile, System.out) :
+          new FileCorpus(sourceFile, targetFile);
+    } else {
+      final List<File> columnFiles = new ArrayList<File>();
+      for(final String columnName : columnNames) {
+        columnFiles.add(new File(columnName));
+      }
+      columnCorpus = new ColumnCorpus(columnFiles);
+      corpus = columnCorpus;
+    }
+    final Charset inputCharSet =
+        Charset.forName((String )values.get("inputcharset"));
+    final File workingDir = new File((String )values.get("workingdir"));
+    final Charset outputCharSet =
+        Charset.forName((String )values.get("outputcharset"));
+    final MergeEngine mergeEngine = (MergeEngine )values.get("mergeengine");
+    final IRunCodec runCodec = (IRunCodec )values.get("tempcodec");
+    final String heapBudget = (String )values.get("heapbudget");
+    final int maxFanIn = (Integer )values.get("maxfanin");
+    final int readAheadSize = (Integer )values.get("readahead");
+    final boolean syncOutput = (Boolean )values.get("fsync");
+    final CorpusCompression outputCompression =
+        (CorpusCompression )values.get("compress");
+
+    final int noShards = (Integer )values.get("shards");
+
+    ICorpusUniquer uniquer = null;
+    CorpusUniquer sorter = null;
+    PrometheusTextFile metricsFile = null;
+    if(noShards > 1) {
+      final ShardedUniquer sharder = new ShardedUniquer(
+          corpus,
+          inputCharSet,
+          workingDir,
+          outputCharSet,
+          logger,
+          noShards);
+      final UniquingMode mode = (UniquingMode )values.get("mode");
+      sharder.setMode(mode);
+      sharder.setMergeEngine(mergeEngine);
+      sharder.setSyncOutput(syncOutput);
+      sharder.setOutputCompression(outputCompression);
+      // The workers sort or hash their shards as this process would
+      final List<String> workerArguments = new ArrayList<String>(
+          Arrays.asList(
+              "--mergeengine", mergeEngine.getName(),
+              "--tempcodec", runCodec.getName(),
+              "--maxfanin", Integer.toString(maxFanIn),
+              "--readahead", Integer.toString(readAheadSize)));
+      if(heapBudget != null) {
+        workerArguments.addAll(Arrays.asList("--heapbudget", heapBudget));
+      }
+      if(mode == UniquingMode.SORT) {
+        workerArguments.addAll(
+            Arrays.asList(
+                "--nofiles", values.get("nofiles").toString(),
+                "--sortthreads", values.get("sortthreads").toString()));
+      }
+      sharder.setWorkerArguments(workerArguments);
+      uniquer = sharder;
+    } else if(values.get("mode") == UniquingMode.NEAR) {
+      final NearDuplicateUniquer nearer = new NearDuplicateUniquer(
+          corpus,
+          inputCharSet,
+          workingDir,
+          outputCharSet,
+          logger);
+      final MinHashSignatures signatures =
+          (MinHashSignatures )values.get("lsh");
+      nearer.setSignature(
+          signatures.getNoBands(),
+          signatures.getNoRows(),
+          signatures.getShingleSize());
+      nearer.setNoThreads((Integer )values.get("sortthreads"));
+      nearer.setMergeEngine(mergeEngine);
+      nearer.setRunCodec(runCodec);
+      nearer.setMaxFanIn(maxFanIn);
+      nearer.setReadAheadSize(readAheadSize);
+      nearer.setSyncOutput(syncOutput);
+      nearer.setOutputCompression(outputCompression);
+      if(heapBudget != null) {
+        nearer.setMaxMemory(MemoryBudget.parseSize(heapBudget));
+      }
+      uniquer = nearer;
+    } else if(values.get("mode") == UniquingMode.HASH) {
+      final HashUniquer hasher = new HashUniquer(
+          corpus,
+          inputCharSet,
+          workingDir,
+          outputCharSet,
+          logger);
+      hasher.setMergeEngine(mergeEngine);
+      hasher.setRunCodec(runCodec);
+      hasher.setMaxFanIn(maxFanIn);
+      hasher.setReadAheadSize(readAheadSize);
+      hasher.setSyncOutput(syncOutput);
+      hasher.setOutputCompression(outputCompression);
+      final String indexFile = (String )values.get("index");
+      if(indexFile != null) {
+        hasher.setFingerprintIndex(new File(indexFile));
+      }
+      if(heapBudget != null) {
+        hasher.setMaxMemory(MemoryBudget.parseSize(heapBudget));
+      }
+      uniquer = hasher;
+    } else if(columnCorpus != null) {
+      final ColumnUniquer columnUniquer = new ColumnUniquer(
+          columnCorpus,
+          inputCharSet,
+          (Integer )values.get("nofiles"),
+          workingDir,
+          outputCharSet,
+          logger);
+      final String keyColumns = (String )values.get("key");
+      if(keyColumns != null) {
+        columnUniquer.setKeyColumns(
+            ColumnUniquer.parseKeyColumns(keyColumns));
+      }
+      sorter = columnUniquer;
+    } else {
+      sorter = new CorpusUniquer(
+          corpus,
+          inputCharSet,
+          (Integer )values.get("nofiles"),
+          workingDir,
+          outputCharSet,
+          logger);
+    }
+    if(sorter != null) {
+      sorter.setNoSortThreads((Integer )values.get("sortthreads"));
+      sorter.setMergeEngine(mergeEngine);
+      sorter.setRunCodec(runCodec);
+      sorter.setMaxFanIn(maxFanIn);
+      sorter.setReadAheadSize(readAheadSize);
+      sorter.setSyncOutput(syncOutput);
+      sorter.setOutputCompression(outputCompression);
+      final String manifestFile = (String )values.get("manifest");
+      if(manifestFile != null) {
+        sorter.setJobManifest(new File(manifestFile));
+      }
+      if(heapBudget != null) {
+        sorter.setMemoryBudget(
+            new MemoryBudget(MemoryBudget.parseSize(heapBudget)));
+      }
+      sorter.getMetrics().register(corpus.toString());
+      final String metricsName = (String )values.get("metrics");
+      if(metricsName != null) {
+        metricsFile = new PrometheusTextFile(
+            new File(metricsName),
+            sorter.getMetrics(),
+            corpus.toString(),
+            logger);
+        metricsFile.start(
+            PrometheusTextFile.DEFAULT_INTERVAL, TimeUnit.SECONDS);
+      }
+      uniquer = sorter;
+    }
+    final String maxRatio = (String )values.get("maxratio");
+    if(maxRatio != null) {
+      final ScanFilter ratioFilter = new ScanFilter();
+      ratioFilter.setMaxTokenRatio(Double.parseDouble(maxRatio));
+      uniquer.addFilter(ratioFilter);
+    }
+    if((Boolean )values.get("dropidentical") == true) {
+      uniquer.addFilter(new IdenticalPairFilter());
+    }
+    final String blacklistFile = (String )values.get("blacklist");
+    if(blacklistFile != null) {
+      uniquer.addFilter(
+          RegexBlacklistFilter.fromFile(new File(blacklistFile), inputCharSet));
+    }
+    final String scriptSpecification = (String )values.get("scripts");
+    if(scriptSpecification != null) {
+      uniquer.addFilter(
+          ScriptRatioFilter.forSpecification(scriptSpecification));
+    }
+    final String auditFile = (String )values.get("audit");
+    AuditLog auditLog = null;
+    if((Boolean )values.get("auditcounters") == true) {
+      auditLog = new AuditLog();
+    } else if(auditFile != null) {
+      auditLog = new AuditLog(
+          new File(auditFile), (Integer )values.get("auditsample"));
+    }
+    if(auditLog != null) {
+      uniquer.setAuditSink(auditLog);
+    }
     final String suffix = (String )values.get("suffix");
     final int maxNoTokens = (Integer )values.get("maxnotokens");
-    final ImmutablePair<Long, Long> result = sorter.unique(suffix, maxNoTokens);
+    ImmutablePair<Long, Long> result = null;
+    try {
+      result =
+          ((Boolean )values.get("checklinecounts") == true) ?
+              uniquer.uniqueWithLineCountCheck(suffix, maxNoTokens) :
+              uniquer.unique(suffix, maxNoTokens);
+    } finally {
+      if(metricsFile != null) {
+        metricsFile.close();
+      }
+    }
 
     logger.info(
         "Wrote " + result.getRight() + " sentence pairs and dropped " +
             result.getLeft() + " duplicates.");
+    if(auditLog != null) {
+      auditLog.close();
+      for(final Map.Entry<String, Long> count :
+          auditLog.getCounts().entrySet()) {
+        logger.info("Dropped " + count.getValue() + " as " + count.getKey());
+      }
+    }
 
     final boolean verbose = (Boolean )values.get("verbose");
     if(verbose) {
-      System.out.println(
+      console.println(
           String.format(
               "Wrote %d sentence pairs and dropped %d duplicates",
               result.getRight(), result.getLeft()));
+      if(auditLog != null) {
+        for(final Map.Entry<String, Long> count :
+            auditLog.getCounts().entrySet()) {
+          console.println(
+              String.format(
+                  "Dropped %d as %s", count.getValue(), count.getKey()));
+        }
+      }
     }
 
     System.exit(0);
@@ -0,0 +1,198 @@
+package com.capitati.corpus.utils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * The heap the sort phase may fill with blocks of records.
+ * <p>
+ * Each record is charged for everything it keeps alive until its block is
+ * spilled: the record, its sort key, the source and target strings with
+ * their character arrays, sized for compact strings where the JVM uses
+ * them, and its share of the block list and of the copy the sort makes.
+ * <p>
+ * The budget is only as good as the rest of the heap allows, so the
+ * collectors are watched too: when the heap is still nearly full after a
+ * collection, blocks are made smaller from then on.
+ */
+public class MemoryBudget {
+  // Share of a heap pool still in use after a collection that means pressure
+  private static final double PRESSURE_THRESHOLD = 0.85;
+  private static final long MIN_BLOCK_SIZE = 1024 * 1024;
+  private static final int MAX_SHRINK = 6;
+
+  private static final int OBJECT_HEADER;
+  private static final int ARRAY_HEADER;
+  private static final int REFERENCE;
+  private static final int LONG = 8;
+  private static final boolean COMPACT_STRINGS;
+
+  static {
+    final boolean is64Bit =
+        System.getProperty("sun.arch.data.model", "64").contains("64");
+    final boolean compressedOops =
+        is64Bit == false || "true".equals(getVMOption("UseCompressedOops"));
+    OBJECT_HEADER = (is64Bit == true && compressedOops == false) ? 16 : 12;
+    ARRAY_HEADER = (is64Bit == true && compressedOops == false) ? 24 : 16;
+    REFERENCE = (compressedOops == true) ? 4 : 8;
+    COMPACT_STRINGS = "true".equals(getVMOption("CompactStrings"));
+  }
+
+  private static String getVMOption(final String name) {
+    try {
+      return ManagementFactory.getPlatformMXBean(
+          HotSpotDiagnosticMXBean.class).getVMOption(name).getValue();
+    } catch(final Throwable ex) {
+      // Not a HotSpot JVM, or an option it does not have
+      return null;
+    }
+  }
+
+  private static long align(final long size) {
+    return (size + 7) & ~7L;
+  }
+
+  /**
+   * The heap a string occupies, including its character array.
+   */
+  static long sizeOf(final String s) {
+    int bytesPerChar = 2;
+    if(COMPACT_STRINGS == true) {
+      bytesPerChar = 1;
+      for(int i = 0; i < s.length(); i++) {
+        if(s.charAt(i) > 0xFF) {
+          bytesPerChar = 2;
+          break;
+        }
+      }
+    }
+
+    // Value reference, hash and, on newer JVMs, the coder
+    return align(OBJECT_HEADER + REFERENCE + 4 + 2) +
+        align(ARRAY_HEADER + (long )s.length() * bytesPerChar);
+  }
+
+  /**
+   * The heap a record keeps alive whilst its block is in memory.
+   */
+  static long sizeOf(final SortRecord record) {
+    // The block list slot, its growth slack and the sort's copy of it
+    return align(OBJECT_HEADER + 3 * REFERENCE + LONG + 1) +
+        align(ARRAY_HEADER + record.key.length) +
+        sizeOf(record.source) +
+        sizeOf(record.target) +
+        3 * REFERENCE;
+  }
+
+  /**
+   * Parses a size such as "512m", "2g" or "65536".
+   */
+  public static long parseSize(final String size) {
+    final String value = size.trim().toLowerCase();
+    long unit = 1;
+    int end = value.length();
+    if(value.endsWith("k") == true) {
+      unit = 1024L;
+      end--;
+    } else if(value.endsWith("m") == true) {
+      unit = 1024L * 1024;
+      end--;
+    } else if(value.endsWith("g") == true) {
+      unit = 1024L * 1024 * 1024;
+      end--;
+    }
+
+    final long number = Long.parseLong(value.substring(0, end));
+    if(number < 0) {
+      throw new IllegalArgumentException(
+          "Size must not be negative: " + size);
+    }
+    return number * unit;
+  }
+
+  /**
+   * A budget of half the heap not yet in use.
+   */
+  public static MemoryBudget createDefault() {
+    final Runtime runtime = Runtime.getRuntime();
+    final long used = runtime.totalMemory() - runtime.freeMemory();
+    return new MemoryBudget((runtime.maxMemory() - used) / 2);
+  }
+
+  private final long budget;
+  private final List<MemoryPoolMXBean> pools =
+      new ArrayList<MemoryPoolMXBean>();
+  private final List<GarbageCollectorMXBean> collectors =
+      ManagementFactory.getGarbageCollectorMXBeans();
+  private long lastCollectionCount = 0;
+  private int shrink = 0;
+
+  /**
+   * @param theBudget The bytes of heap all blocks in memory may use.
+   */
+  public MemoryBudget(final long theBudget) {
+    if(theBudget < 1) {
+      throw new IllegalArgumentException(
+          "Memory budget must be positive: " + theBudget);
+    }
+    budget = theBudget;
+
+    for(final MemoryPoolMXBean pool :
+        ManagementFactory.getMemoryPoolMXBeans()) {
+      if(pool.getType() == MemoryType.HEAP &&
+          pool.isCollectionUsageThresholdSupported() == true) {
+        pools.add(pool);
+      }
+    }
+  }
+
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * The size of each block when a number of blocks are in memory at once,
+   * shrunk for any heap pressure seen so far.
+   */
+  public synchronized long getBlockSize(final int noBlocks) {
+    return Math.max(MIN_BLOCK_SIZE, (budget / noBlocks) >> shrink);
+  }
+
+  /**
+   * Tests whether the heap was nearly full after a collection run since the
+   * last call, so each collection is reported at most once. Every time
+   * pressure is found later blocks are halved.
+   */
+  public synchronized boolean isUnderPressure() {
+    long collectionCount = 0;
+    for(final GarbageCollectorMXBean collector : collectors) {
+      collectionCount += Math.max(0, collector.getCollectionCount());
+    }
+    if(collectionCount == lastCollectionCount) {
+      return false;
+    }
+    lastCollectionCount = collectionCount;
+
+    boolean underPressure = false;
+    for(final MemoryPoolMXBean pool : pools) {
+      final MemoryUsage usage = pool.getCollectionUsage();
+      if(usage != null &&
+          usage.getMax() > 0 &&
+          usage.getUsed() > usage.getMax() * PRESSURE_THRESHOLD) {
+        underPressure = true;
+      }
+    }
+    if(underPressure == true && shrink < MAX_SHRINK) {
+      shrink++;
+    }
+
+    return underPressure;
+  }
+}
@@ -0,0 +1,46 @@
+package com.capitati.corpus.utils;
+
+import java.util.Collection;
+import java.util.Comparator;
+
+import com.google.common.base.Predicate;
+
+/**
+ * The k-way merge implementations available to {@link CorpusUniquer}.
+ */
+public enum MergeEngine {
+  LOSER_TREE {
+    @Override
+    public <T> IRunMerger<T> create(
+        final Collection<? extends T> runs,
+        final Comparator<? super T> comparator,
+        final Predicate<? super T> exhausted) {
+      return new LoserTreeMerger<T>(runs, comparator, exhausted);
+    }
+  },
+  PRIORITY_QUEUE {
+    @Override
+    public <T> IRunMerger<T> create(
+        final Collection<? extends T> runs,
+        final Comparator<? super T> comparator,
+        final Predicate<? super T> exhausted) {
+      return new PriorityQueueMerger<T>(runs, comparator, exhausted);
+    }
+  };
+
+  public abstract <T> IRunMerger<T> create(
+      Collection<? extends T> runs,
+      Comparator<? super T> comparator,
+      Predicate<? super T> exhausted);
+
+  /**
+   * Looks an engine up by its command line name, e.g. "loser-tree".
+   */
+  public static MergeEngine forName(final String name) {
+    return valueOf(name.trim().toUpperCase().replace('-', '_'));
+  }
+
+  public String getName() {
+    return name().toLowerCase().replace('_', '-');
+  }
+}
@@ -0,0 +1,208 @@
+package com.capitati.corpus.utils;
+
+import java.lang.Character.UnicodeScript;
+
+/**
+ * MinHash signatures of sentence pairs, cut into bands for locality
+ * sensitive hashing. Two pairs share the key of a band with a probability
+ * of about s^rows, where s is the Jaccard similarity of their shingles, so
+ * with several bands pairs alike beyond about (1 / bands)^(1 / rows) very
+ * likely share at least one.
+ * <p>
+ * Sentences are case folded and tokenised on anything other than letters
+ * and digits, with every run of digits counting as the same digit, so
+ * pairs differing only in punctuation or numbers have the same shingles.
+ * Han and kana characters are tokens of their own. The shingles are runs
+ * of consecutive tokens, of the source and the target apart. Nothing is
+ * allocated per pair; instances keep scratch space and are not thread
+ * safe.
+ */
+public final class MinHashSignatures {
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  // Tells the shingles of the target apart from those of the source
+  private static final long TARGET_SEED = 0x9e3779b97f4a7c15L;
+  private static final long BAND_SEED = 0xc2b2ae3d27d4eb4fL;
+
+  /**
+   * Creates signatures from a specification such as 10:5 or 10:5:2, for
+   * BANDS:ROWS[:SHINGLE SIZE].
+   */
+  public static MinHashSignatures forSpecification(
+      final String specification) {
+    final String[] parts = specification.split(":");
+    if(parts.length < 2 || parts.length > 3) {
+      throw new IllegalArgumentException(
+          "Expected BANDS:ROWS[:SHINGLE], got: " + specification);
+    }
+
+    return new MinHashSignatures(
+        Integer.parseInt(parts[0].trim()),
+        Integer.parseInt(parts[1].trim()),
+        (parts.length > 2) ?
+            Integer.parseInt(parts[2].trim()) :
+            NearDuplicateUniquer.DEFAULT_SHINGLE_SIZE);
+  }
+
+  private final int noBands;
+  private final int noRows;
+  private final int shingleSize;
+  private final long[] seeds;
+  private final long[] signature;
+  // The hashes of the latest tokens, a ring of the shingle size
+  private final long[] tokens;
+
+  /**
+   * @param theNoBands The number of band keys each pair gets.
+   * @param theNoRows The number of hashes in each band.
+   * @param theShingleSize The number of tokens in each shingle.
+   */
+  public MinHashSignatures(
+      final int theNoBands, final int theNoRows, final int theShingleSize) {
+    if(theNoBands < 1 || theNoRows < 1 || theShingleSize < 1) {
+      throw new IllegalArgumentException(
+          "Bands, rows and shingle size must be positive: " + theNoBands +
+          ", " + theNoRows + ", " + theShingleSize);
+    }
+    noBands = theNoBands;
+    noRows = theNoRows;
+    shingleSize = theShingleSize;
+    seeds = new long[theNoBands * theNoRows];
+    for(int i = 0; i < seeds.length; i++) {
+      seeds[i] = Fingerprints.mix(i + 1);
+    }
+    signature = new long[seeds.length];
+    tokens = new long[theShingleSize];
+  }
+
+  public int getNoBands() {
+    return noBands;
+  }
+
+  public int getNoRows() {
+    return noRows;
+  }
+
+  public int getShingleSize() {
+    return shingleSize;
+  }
+
+  /**
+   * Computes the band keys of a pair. The keys of different bands never
+   * stand for the same hashes, so all of them can share one set.
+   *
+   * @param keys Receives the pair's keys from offset on, one per band.
+   */
+  public void bandKeys(
+      final String source,
+      final String target,
+      final long[] keys,
+      final int offset) {
+    for(int i = 0; i < signature.length; i++) {
+      signature[i] = Long.MAX_VALUE;
+    }
+
+    final boolean shingled = shingle(source, 0) | shingle(target, TARGET_SEED);
+    if(shingled == false) {
+      // Without letters or digits only the same sentences are alike
+      add(Fingerprints.mix(source.hashCode() * 31L + target.hashCode()));
+    }
+
+    for(int band = 0; band < noBands; band++) {
+      long key = BAND_SEED ^ band;
+      for(int row = 0; row < noRows; row++) {
+        key = (key ^ signature[band * noRows + row]) * FNV_PRIME;
+      }
+      keys[offset + band] = Fingerprints.mix(key);
+    }
+  }
+
+  // Adds the shingles of a sentence to the signature, returning whether it
+  // had any
+  private boolean shingle(final String sentence, final long seed) {
+    final int length = sentence.length();
+    long noTokens = 0;
+    long hash = FNV_OFFSET;
+    boolean inToken = false;
+    boolean inDigits = false;
+
+    for(int i = 0; i <= length; i++) {
+      final char c =
+          (i < length) ? Character.toLowerCase(sentence.charAt(i)) : ' ';
+
+      if(Character.isDigit(c) == true) {
+        if(inDigits == false) {
+          hash = (hash ^ '0') * FNV_PRIME;
+        }
+        inToken = true;
+        inDigits = true;
+      } else if(Character.isLetter(c) == true) {
+        if(isCharacterToken(c) == true) {
+          if(inToken == true) {
+            noTokens = addToken(hash, noTokens, seed);
+          }
+          hash = (FNV_OFFSET ^ c) * FNV_PRIME;
+          noTokens = addToken(hash, noTokens, seed);
+          hash = FNV_OFFSET;
+          inToken = false;
+        } else {
+          hash = (hash ^ c) * FNV_PRIME;
+          inToken = true;
+        }
+        inDigits = false;
+      } else {
+        if(inToken == true) {
+          noTokens = addToken(hash, noTokens, seed);
+          hash = FNV_OFFSET;
+        }
+        inToken = false;
+        inDigits = false;
+      }
+    }
+
+    if(noTokens > 0 && noTokens < shingleSize) {
+      // A sentence shorter than a shingle is a shingle of its own
+      add(shingleHash((int )noTokens, noTokens, seed));
+    }
+
+    return noTokens > 0;
+  }
+
+  private static boolean isCharacterToken(final char c) {
+    if(c < 0x3000) {
+      return false;
+    }
+    final UnicodeScript script = UnicodeScript.of(c);
+    return script == UnicodeScript.HAN ||
+        script == UnicodeScript.HIRAGANA ||
+        script == UnicodeScript.KATAKANA;
+  }
+
+  private long addToken(
+      final long hash, final long noTokens, final long seed) {
+    tokens[(int )(noTokens % shingleSize)] = Fingerprints.mix(hash);
+    final long count = noTokens + 1;
+    if(count >= shingleSize) {
+      add(shingleHash(shingleSize, count, seed));
+    }
+    return count;
+  }
+
+  // Hashes the latest size tokens of count, in order
+  private long shingleHash(final int size, final long count, final long seed) {
+    long hash = seed;
+    for(long i = count - size; i < count; i++) {
+      hash = (hash ^ tokens[(int )(i % shingleSize)]) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  private void add(final long shingle) {
+    for(int i = 0; i < seeds.length; i++) {
+      final long value = Fingerprints.mix(shingle ^ seeds[i]);
+      if(value < signature[i]) {
+        signature[i] = value;
+      }
+    }
+  }
+}
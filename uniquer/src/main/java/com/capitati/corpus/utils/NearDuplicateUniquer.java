@@ -0,0 +1,582 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Removes sentence pairs that are near duplicates of an earlier pair,
+ * keeping the first of each in input order. Pairs are compared by the band
+ * keys of their MinHash signatures, see {@link MinHashSignatures}: a pair
+ * is dropped when it shares a band key with any earlier pair, kept or not.
+ * <p>
+ * Signatures are computed for batches of pairs by a pool of threads whilst
+ * the next batches are read. The band keys seen are kept in memory until
+ * the set reaches the memory budget. From then on, as in
+ * {@link HashUniquer}, the keys seen so far and those of the remaining
+ * pairs are spilled to hash partitions and the remaining pairs to a file
+ * of their own. Each partition yields the line numbers of the pairs that
+ * share a key with an earlier one; these are merged into line order and
+ * the pairs not among them are written out.
+ */
+public class NearDuplicateUniquer implements ICorpusUniquer {
+  public static final int DEFAULT_NO_BANDS = 10;
+  public static final int DEFAULT_NO_ROWS = 5;
+  public static final int DEFAULT_SHINGLE_SIZE = 2;
+  private static final int BATCH_SIZE = 4096;
+  // The band keys' low half in the set, which needs but one half
+  private static final long KEY_LOW = 1;
+  private static final byte[] EMPTY = new byte[0];
+
+  // Pairs read in a row, and their band keys once computed
+  private static class Batch {
+    final String[] sources = new String[BATCH_SIZE];
+    final String[] targets = new String[BATCH_SIZE];
+    final long[] lineNumbers = new long[BATCH_SIZE];
+    final long[] keys;
+    int size = 0;
+
+    Batch(final int noBands) {
+      keys = new long[BATCH_SIZE * noBands];
+    }
+  }
+
+  private static byte[] lineKey(final long lineNumber) {
+    final byte[] key = new byte[8];
+    FingerprintPartitions.putLong(key, 0, lineNumber);
+    return key;
+  }
+
+  // Finds the pairs of one partition sharing a key with an earlier pair,
+  // writing their line numbers in order
+  private File findDuplicates(
+      final FingerprintPartitions partitions, final int partition)
+  throws IOException {
+    final File duplicatesFile = partitions.createTempFile("duplicates");
+    final RunWriter duplicates = new RunWriter(duplicatesFile, runCodec);
+
+    try {
+      partitions.dedup(
+          partition,
+          new IFingerprintVisitor() {
+            private long lastLineNumber = -1;
+
+            @Override
+            public void visit(
+                final long high, final RunReader record, final boolean added)
+            throws IOException {
+              final long lineNumber = record.peekLineNumber();
+              if(added == false && lineNumber != lastLineNumber) {
+                duplicates.write(
+                    lineKey(lineNumber), 0, lineNumber, EMPTY, EMPTY);
+                lastLineNumber = lineNumber;
+              }
+            }
+          });
+    } finally {
+      duplicates.close();
+    }
+
+    return duplicatesFile;
+  }
+
+  // Writes the pending pairs whose line numbers are not among the
+  // duplicates
+  private long writeSurvivors(
+      final File pendingFile,
+      final List<File> duplicatesFiles,
+      final IPairWriter writer,
+      final long[] noDuplicates) throws IOException {
+    final List<RunReader> runs = new ArrayList<RunReader>();
+    final RunReadAhead readAhead = new RunReadAhead(runCodec, readAheadSize);
+    final RunReader pending = new RunReader(pendingFile, runCodec);
+
+    try {
+      for(final File file : duplicatesFiles) {
+        runs.add(readAhead.open(file));
+      }
+      final IRunMerger<RunReader> merger =
+          mergeEngine.create(
+              runs,
+              new Comparator<RunReader>() {
+                @Override
+                public int compare(final RunReader i, final RunReader j) {
+                  return SortKeys.compare(i.peekKey(), j.peekKey());
+                }
+              },
+              new Predicate<RunReader>() {
+                @Override
+                public boolean apply(final RunReader i) {
+                  return i.empty();
+                }
+              });
+
+      long lineCounter = 0;
+      while(pending.empty() == false) {
+        final long lineNumber = pending.peekLineNumber();
+
+        // Skip the duplicates before this pair, and this pair's own
+        // from other partitions
+        boolean duplicate = false;
+        while(merger.isEmpty() == false &&
+              merger.top().peekLineNumber() <= lineNumber) {
+          duplicate |= merger.top().peekLineNumber() == lineNumber;
+          merger.top().pop();
+          merger.update();
+        }
+
+        if(duplicate == true) {
+          auditSink.duplicate(
+              lineNumber, pending.peekSource(), pending.peekTarget());
+          noDuplicates[0]++;
+        } else {
+          writer.writePair(pending.peekSource(), pending.peekTarget());
+          lineCounter++;
+        }
+        pending.pop();
+      }
+
+      return lineCounter;
+    } finally {
+      for(final RunReader run : runs) {
+        run.close();
+        run.getFile().delete();
+      }
+      readAhead.close();
+      pending.close();
+      pendingFile.delete();
+    }
+  }
+
+  private final ICorpus corpus;
+  private final File tempDirectory;
+  private final Charset inputCharSet;
+  private final Charset outputCharSet;
+  private final Logger logger;
+  private long maxMemory = Runtime.getRuntime().maxMemory() / 4;
+  private int noThreads = 1;
+  private int noBands = DEFAULT_NO_BANDS;
+  private int noRows = DEFAULT_NO_ROWS;
+  private int shingleSize = DEFAULT_SHINGLE_SIZE;
+  private MergeEngine mergeEngine = MergeEngine.LOSER_TREE;
+  private IRunCodec runCodec = RunCodec.NONE;
+  private int maxFanIn = RunCascade.DEFAULT_MAX_FAN_IN;
+  private int readAheadSize = RunReadAhead.DEFAULT_BUFFER_SIZE;
+  private boolean syncOutput = false;
+  private CorpusCompression outputCompression = CorpusCompression.NONE;
+  private final List<IPairFilter> filters = new ArrayList<IPairFilter>();
+  private PairFilterChain filterChain = null;
+  private IAuditSink auditSink;
+
+  public NearDuplicateUniquer(
+      final File theSourceFile,
+      final File theTargetFile,
+      final Charset theInputCharSet,
+      final File theTempDirectory,
+      final Charset theOutputCharSet,
+      final Logger theLogger) {
+    this(
+        new FileCorpus(theSourceFile, theTargetFile),
+        theInputCharSet,
+        theTempDirectory,
+        theOutputCharSet,
+        theLogger);
+  }
+
+  public NearDuplicateUniquer(
+      final ICorpus theCorpus,
+      final Charset theInputCharSet,
+      final File theTempDirectory,
+      final Charset theOutputCharSet,
+      final Logger theLogger) {
+    corpus = theCorpus;
+    tempDirectory = theTempDirectory;
+    inputCharSet = theInputCharSet;
+    outputCharSet = theOutputCharSet;
+    logger = theLogger;
+    auditSink = new LoggerAuditSink(theLogger);
+  }
+
+  /**
+   * Sets the memory the set of band keys may use before spilling to
+   * partitions. The default is a quarter of the maximum heap.
+   */
+  public void setMaxMemory(final long theMaxMemory) {
+    maxMemory = theMaxMemory;
+  }
+
+  /**
+   * Sets the number of threads computing signatures whilst pairs are read.
+   */
+  public void setNoThreads(final int theNoThreads) {
+    if(theNoThreads < 1) {
+      throw new IllegalArgumentException(
+          "Number of threads must be positive: " + theNoThreads);
+    }
+    noThreads = theNoThreads;
+  }
+
+  /**
+   * Sets how alike pairs must be to be near duplicates; see
+   * {@link MinHashSignatures}. The default is 10 bands of 5 rows over
+   * shingles of 2 tokens, which catches pairs whose shingles are about
+   * two thirds the same.
+   */
+  public void setSignature(
+      final int theNoBands, final int theNoRows, final int theShingleSize) {
+    // Fails early on bad values
+    new MinHashSignatures(theNoBands, theNoRows, theShingleSize);
+    noBands = theNoBands;
+    noRows = theNoRows;
+    shingleSize = theShingleSize;
+  }
+
+  /**
+   * Selects the merge of the partitions' duplicates after spilling.
+   */
+  public void setMergeEngine(final MergeEngine theMergeEngine) {
+    mergeEngine = theMergeEngine;
+  }
+
+  /**
+   * Sets the codec applied to the partition files.
+   */
+  public void setRunCodec(final IRunCodec theRunCodec) {
+    runCodec = theRunCodec;
+  }
+
+  /**
+   * Sets the most partition duplicates files merged at once.
+   */
+  public void setMaxFanIn(final int theMaxFanIn) {
+    maxFanIn = theMaxFanIn;
+  }
+
+  /**
+   * Sets the size of the two buffers each duplicates file is read ahead
+   * into during the merge. Zero turns reading ahead off.
+   */
+  public void setReadAheadSize(final int theReadAheadSize) {
+    readAheadSize = theReadAheadSize;
+  }
+
+  /**
+   * Sets whether the output files are forced to the disk once they have
+   * been written.
+   */
+  public void setSyncOutput(final boolean theSyncOutput) {
+    syncOutput = theSyncOutput;
+  }
+
+  /**
+   * Sets the compression the output is written in. The default is
+   * {@link CorpusCompression#NONE}.
+   */
+  public void setOutputCompression(
+      final CorpusCompression theOutputCompression) {
+    outputCompression = theOutputCompression;
+  }
+
+  @Override
+  public void setAuditSink(final IAuditSink theAuditSink) {
+    auditSink = theAuditSink;
+  }
+
+  @Override
+  public void addFilter(final IPairFilter filter) {
+    filters.add(filter);
+  }
+
+  @Override
+  public List<PairFilterStatistics> getFilterStatistics() {
+    return (filterChain != null) ?
+        filterChain.getStatistics() :
+        Collections.<PairFilterStatistics>emptyList();
+  }
+
+  @Override
+  public ImmutablePair<Long, Long> unique(
+      final String suffix, final int maxNoTokens)
+  throws Exception {
+    return unique(suffix, maxNoTokens, false);
+  }
+
+  /**
+   * Uniques the corpus, failing with a {@link LineCountMismatchException} as
+   * soon as the source and target files are found to have a different
+   * number of lines.
+   */
+  @Override
+  public ImmutablePair<Long, Long> uniqueWithLineCountCheck(
+      final String suffix, final int maxNoTokens)
+  throws Exception {
+    return unique(suffix, maxNoTokens, true);
+  }
+
+  private ImmutablePair<Long, Long> unique(
+      final String suffix, final int maxNoTokens, final boolean checkLineCounts)
+  throws Exception {
+    final List<File> missingFiles = new ArrayList<File>(
+        corpus.getMissingFiles());
+    if(tempDirectory.exists() == false) missingFiles.add(tempDirectory);
+    if(missingFiles.size() > 0) {
+      throw new FileNotFoundException(
+          String.format(
+              "Missing files or directories: %s",
+              StringUtils.join(missingFiles, ", ")));
+    }
+
+    final PairFilterChain filter = PairFilters.create(maxNoTokens, filters);
+    filterChain = filter;
+
+    logger.info(
+        "Starting near duplicate uniquing with " + corpus + " filtering on " +
+        ((maxNoTokens == ICorpusUniquer.UNLIMITED_TOKENS) ?
+            "infinite number of" :
+            maxNoTokens) +
+        " tokens using " + noBands + " bands of " + noRows + " rows and " +
+        "suffix [" + suffix + "]...");
+
+    final IPairWriter writer =
+        corpus.openWriter(
+            suffix, outputCharSet, outputCompression, syncOutput, false);
+    boolean deduped = false;
+    final ExecutorService signers = Executors.newFixedThreadPool(
+        noThreads,
+        new ThreadFactoryBuilder().
+            setNameFormat("uniquer-signer-%d").
+            setDaemon(true).
+            build());
+
+    try {
+      final ImmutablePair<Long, Long> result =
+          dedup(filter, checkLineCounts, writer, signers);
+      deduped = true;
+
+      for(final PairFilterStatistics statistics : filter.getStatistics()) {
+        logger.info(statistics);
+      }
+      logger.info("Finished near duplicate uniquing");
+
+      return result;
+    } finally {
+      signers.shutdownNow();
+      // Don't leave partial output behind
+      if(deduped == true) {
+        writer.close();
+      } else {
+        writer.discard();
+      }
+    }
+  }
+
+  private Future<Batch> sign(
+      final ExecutorService signers,
+      final Batch batch,
+      final ThreadLocal<MinHashSignatures> signatures) {
+    return signers.submit(
+        new Callable<Batch>() {
+          @Override
+          public Batch call() {
+            final MinHashSignatures signature = signatures.get();
+            for(int i = 0; i < batch.size; i++) {
+              signature.bandKeys(
+                  batch.sources[i], batch.targets[i], batch.keys, i * noBands);
+            }
+            return batch;
+          }
+        });
+  }
+
+  private ImmutablePair<Long, Long> dedup(
+      final PairFilterChain filter,
+      final boolean failOnMismatch,
+      final IPairWriter writer,
+      final ExecutorService signers)
+  throws IOException, InterruptedException {
+    final ThreadLocal<MinHashSignatures> signatures =
+        new ThreadLocal<MinHashSignatures>() {
+          @Override
+          protected MinHashSignatures initialValue() {
+            return new MinHashSignatures(noBands, noRows, shingleSize);
+          }
+        };
+    final Queue<Future<Batch>> signing = new ArrayDeque<Future<Batch>>();
+    final Queue<Batch> freeBatches = new ArrayDeque<Batch>();
+    final Spill spill = new Spill();
+    final IPairReader reader =
+        corpus.openReader(inputCharSet, failOnMismatch);
+
+    try {
+      Batch batch = new Batch(noBands);
+      ImmutablePair<String, String> pair = null;
+
+      while((pair = reader.readPair()) != null) {
+        // Filter
+        if(filter.apply(pair) == false) {
+          auditSink.dropped(
+              filter.getDroppedBy(),
+              reader.getLineNumber(),
+              pair.getLeft(),
+              pair.getRight());
+          continue;
+        }
+
+        batch.sources[batch.size] = pair.getLeft();
+        batch.targets[batch.size] = pair.getRight();
+        batch.lineNumbers[batch.size] = reader.getLineNumber();
+        batch.size++;
+
+        if(batch.size == BATCH_SIZE) {
+          signing.add(sign(signers, batch, signatures));
+          // Keep every thread busy with a batch to spare
+          if(signing.size() > 2 * noThreads) {
+            final Batch signed = signing.remove().get();
+            spill.dedup(signed, writer);
+            signed.size = 0;
+            freeBatches.add(signed);
+          }
+          batch = (freeBatches.isEmpty() == false) ?
+              freeBatches.remove() : new Batch(noBands);
+        }
+      }
+      signing.add(sign(signers, batch, signatures));
+
+      while(signing.isEmpty() == false) {
+        spill.dedup(signing.remove().get(), writer);
+      }
+
+      if(reader.getMismatch() != null) {
+        logger.warn(reader.getMismatch().getMessage());
+      }
+    } catch(final ExecutionException ex) {
+      throw new IOException("Failed computing signatures", ex.getCause());
+    } finally {
+      try {
+        spill.closePartitions();
+      } finally {
+        reader.close();
+      }
+    }
+
+    return spill.finish(writer);
+  }
+
+  // The set of band keys seen, and the partitions it spills to once full
+  private class Spill {
+    FingerprintSet set = new FingerprintSet(maxMemory);
+    long bytesRead = 0;
+    long lineCounter = 0;
+    final long[] noDuplicates = {0};
+    final FingerprintPartitions partitions =
+        new FingerprintPartitions("near", tempDirectory, runCodec, maxMemory);
+    File pendingFile = null;
+    RunWriter pending = null;
+
+    void dedup(final Batch batch, final IPairWriter writer)
+    throws IOException {
+      for(int i = 0; i < batch.size; i++) {
+        final byte[] source = batch.sources[i].getBytes(Charsets.UTF_8);
+        final byte[] target = batch.targets[i].getBytes(Charsets.UTF_8);
+        final int offset = i * noBands;
+        bytesRead += source.length + target.length + 2;
+
+        if(set != null) {
+          boolean duplicate = false;
+          for(int band = 0; band < noBands; band++) {
+            duplicate |= set.add(batch.keys[offset + band], KEY_LOW) == false;
+          }
+
+          if(duplicate == false) {
+            writer.writePair(source, target);
+            lineCounter++;
+          } else {
+            auditSink.duplicate(batch.lineNumbers[i], source, target);
+            noDuplicates[0]++;
+          }
+
+          if(set.isFull() == true) {
+            spill(batch.lineNumbers[i]);
+          }
+        } else {
+          for(int band = 0; band < noBands; band++) {
+            partitions.add(
+                batch.keys[offset + band],
+                KEY_LOW,
+                batch.lineNumbers[i],
+                EMPTY,
+                EMPTY);
+          }
+          pending.write(EMPTY, 0, batch.lineNumbers[i], source, target);
+        }
+      }
+    }
+
+    // Spills what has been seen and partitions the rest of the input
+    private void spill(final long lineNumber) throws IOException {
+      final int noPartitions =
+          FingerprintPartitions.estimateNoPartitions(
+              corpus.getSize(), bytesRead);
+      logger.info(
+          "Band key set is full after " + lineNumber + " lines, spilling " +
+          "to " + noPartitions + " partitions");
+
+      partitions.spill(set, noPartitions);
+      set = null;
+      pendingFile = partitions.createTempFile("pairs");
+      pending = new RunWriter(pendingFile, runCodec);
+    }
+
+    void closePartitions() throws IOException {
+      try {
+        partitions.close();
+      } finally {
+        if(pending != null) {
+          pending.close();
+        }
+      }
+    }
+
+    ImmutablePair<Long, Long> finish(final IPairWriter writer)
+    throws IOException {
+      if(partitions.isSpilled() == true) {
+        final List<File> duplicatesFiles = new ArrayList<File>();
+        for(int i = 0; i < partitions.getNoPartitions(); i++) {
+          duplicatesFiles.add(findDuplicates(partitions, i));
+        }
+
+        final RunCascade cascade = new RunCascade(
+            tempDirectory, runCodec, readAheadSize, mergeEngine, logger);
+        lineCounter += writeSurvivors(
+            pendingFile,
+            cascade.reduce(
+                duplicatesFiles,
+                RunCascade.getFanIn(maxMemory, maxFanIn, readAheadSize)),
+            writer,
+            noDuplicates);
+      }
+
+      return new ImmutablePair<Long, Long>(noDuplicates[0], lineCounter);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.capitati.corpus.utils;
+
+/**
+ * What a filter of a {@link PairFilterChain} did: the pairs it saw, the
+ * pairs it dropped and the time it took.
+ */
+public class PairFilterStatistics {
+  private final String name;
+  private final long noEvaluations;
+  private final long noDrops;
+  private final long time;
+
+  public PairFilterStatistics(
+      final String theName,
+      final long theNoEvaluations,
+      final long theNoDrops,
+      final long theTime) {
+    name = theName;
+    noEvaluations = theNoEvaluations;
+    noDrops = theNoDrops;
+    time = theTime;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getNoEvaluations() {
+    return noEvaluations;
+  }
+
+  public long getNoDrops() {
+    return noDrops;
+  }
+
+  /**
+   * @return The estimated nanoseconds spent in the filter.
+   */
+  public long getTime() {
+    return time;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "Filter [%s] dropped %d of %d sentence pairs in %d ms",
+        name, noDrops, noEvaluations, time / 1000000);
+  }
+}
@@ -0,0 +1,58 @@
+package com.capitati.corpus.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import com.google.common.base.Function;
+
+/**
+ * The sentence pair filters shared by the uniquers.
+ */
+public final class PairFilters {
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private PairFilters() {
+  }
+
+  /**
+   * Creates the filter dropping pairs with an empty side or with a side of
+   * more than a maximum number of tokens.
+   *
+   * @param maxNoTokens The maximum number of tokens, or
+   * {@link ICorpusUniquer#UNLIMITED_TOKENS}.
+   * @return A function answering false for pairs to drop.
+   */
+  public static Function<ImmutablePair<String, String>, Boolean> create(
+      final int maxNoTokens) {
+    return create(maxNoTokens, Collections.<IPairFilter>emptyList());
+  }
+
+  /**
+   * Creates a chain of the empty side and token filter followed by more
+   * filters. The limits of any {@link ScanFilter} among them are set on
+   * the first filter instead, so that each pair is scanned once.
+   */
+  public static PairFilterChain create(
+      final int maxNoTokens, final Collection<? extends IPairFilter> filters) {
+    final ScanFilter scanFilter = new ScanFilter();
+    if(maxNoTokens > ICorpusUniquer.UNLIMITED_TOKENS) {
+      scanFilter.setMaxNoTokens(maxNoTokens);
+    }
+
+    final List<IPairFilter> chain = new ArrayList<IPairFilter>();
+    chain.add(scanFilter);
+    for(final IPairFilter filter : filters) {
+      if(filter instanceof ScanFilter) {
+        scanFilter.addLimits((ScanFilter )filter);
+      } else {
+        chain.add(filter);
+      }
+    }
+    return new PairFilterChain(chain);
+  }
+}
@@ -0,0 +1,177 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Reads a file through two large direct buffers. While one is being
+ * consumed the other is filled on an I/O thread, so that the reader only
+ * waits when it catches up with the disk.
+ * <p>
+ * Many streams can share one I/O thread: their reads are then issued one
+ * after another, in large sequential chunks.
+ * <p>
+ * Any stream can be read ahead too, so that whatever work it does, such as
+ * decompressing, overlaps with the reader's.
+ */
+public class PrefetchingInputStream extends InputStream {
+  private final ReadableByteChannel channel;
+  private final ExecutorService executor;
+  private ByteBuffer current;
+  private Fill nextFill;
+  private Future<ByteBuffer> next;
+
+  public PrefetchingInputStream(
+      final File theFile,
+      final ExecutorService theExecutor,
+      final int theBufferSize) throws IOException {
+    this(new FileInputStream(theFile).getChannel(), theExecutor, theBufferSize);
+  }
+
+  public PrefetchingInputStream(
+      final InputStream theStream,
+      final ExecutorService theExecutor,
+      final int theBufferSize) {
+    this(Channels.newChannel(theStream), theExecutor, theBufferSize);
+  }
+
+  private PrefetchingInputStream(
+      final ReadableByteChannel theChannel,
+      final ExecutorService theExecutor,
+      final int theBufferSize) {
+    channel = theChannel;
+    executor = theExecutor;
+    current = ByteBuffer.allocateDirect(theBufferSize);
+    current.limit(0);
+    next = fill(ByteBuffer.allocateDirect(theBufferSize));
+  }
+
+  /**
+   * Fills a buffer unless it is claimed by {@link #close} before starting.
+   */
+  private final class Fill implements Callable<ByteBuffer> {
+    private final ByteBuffer buffer;
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+    Fill(final ByteBuffer theBuffer) {
+      buffer = theBuffer;
+    }
+
+    /**
+     * @return False if the fill has already started.
+     */
+    boolean claim() {
+      return claimed.compareAndSet(false, true);
+    }
+
+    @Override
+    public ByteBuffer call() throws IOException {
+      buffer.clear();
+      if(claim() == true) {
+        while(buffer.hasRemaining() == true && channel.read(buffer) >= 0) {
+          // Keep reading until the buffer is full or the file ends
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+  }
+
+  private Future<ByteBuffer> fill(final ByteBuffer buffer) {
+    nextFill = new Fill(buffer);
+    return executor.submit(nextFill);
+  }
+
+  private ByteBuffer await(final Future<ByteBuffer> future)
+  throws IOException {
+    try {
+      return future.get();
+    } catch(final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst reading ahead");
+    } catch(final ExecutionException ex) {
+      Throwables.propagateIfInstanceOf(ex.getCause(), IOException.class);
+      throw Throwables.propagate(ex.getCause());
+    }
+  }
+
+  // Swaps in the buffer read ahead and starts refilling the drained one
+  private boolean advance() throws IOException {
+    if(next == null) {
+      return false;
+    }
+
+    final ByteBuffer filled = await(next);
+    final ByteBuffer drained = current;
+    current = filled;
+    // A buffer that was not filled up holds the end of the file
+    next = (filled.limit() == filled.capacity()) ?
+        fill(drained) : null;
+
+    return current.hasRemaining();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if(current.hasRemaining() == false && advance() == false) {
+      return -1;
+    }
+    return current.get() & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] bytes, final int offset, final int length)
+  throws IOException {
+    if(length == 0) {
+      return 0;
+    }
+    if(current.hasRemaining() == false && advance() == false) {
+      return -1;
+    }
+
+    final int noBytes = Math.min(length, current.remaining());
+    current.get(bytes, offset, noBytes);
+    return noBytes;
+  }
+
+  @Override
+  public int available() {
+    return current.remaining();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if(next != null) {
+        if(nextFill.claim() == true) {
+          // Not started, so it never reads the channel
+          next.cancel(false);
+        } else {
+          // Let a read in progress finish before the channel goes away
+          try {
+            Uninterruptibles.getUninterruptibly(next);
+          } catch(final ExecutionException ex) {
+            // Ignore...
+          }
+        }
+        next = null;
+      }
+    } finally {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.capitati.corpus.utils;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Merges runs with a binary heap, polling and re-adding the winning run for
+ * every record consumed.
+ */
+public class PriorityQueueMerger<T> implements IRunMerger<T> {
+  private final PriorityQueue<T> queue;
+  private final Predicate<? super T> exhausted;
+
+  public PriorityQueueMerger(
+      final Collection<? extends T> theRuns,
+      final Comparator<? super T> theComparator,
+      final Predicate<? super T> theExhaustedPredicate) {
+    queue = new PriorityQueue<T>(
+        Math.max(1, theRuns.size()), theComparator);
+    exhausted = theExhaustedPredicate;
+    for(final T run : theRuns) {
+      if(exhausted.apply(run) == false) {
+        queue.add(run);
+      }
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return queue.isEmpty();
+  }
+
+  @Override
+  public T top() {
+    return queue.peek();
+  }
+
+  @Override
+  public void update() {
+    final T run = queue.poll();
+    if(exhausted.apply(run) == false) {
+      queue.add(run); // add it back
+    }
+  }
+}
@@ -0,0 +1,287 @@
+package com.capitati.corpus.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Rewrites a file with a uniquer's metrics in the Prometheus text format,
+ * every so often and once more when closed, for a node exporter's textfile
+ * collector. Each version is written next to the file and renamed over
+ * it, so the collector never reads half a file; the collector only reads
+ * files named *.prom.
+ */
+public class PrometheusTextFile implements Closeable {
+  public static final long DEFAULT_INTERVAL = 15;
+
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  // Escapes a label value as the text format asks
+  private static String escape(final String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").
+        replace("\n", "\\n");
+  }
+
+  private static String format(final double value) {
+    return String.format(Locale.ROOT, "%.6f", value);
+  }
+
+  /**
+   * Formats metrics with a label naming the corpus on every sample.
+   */
+  static String format(final IUniquerMetrics metrics, final String corpus) {
+    final String label = "corpus=\"" + escape(corpus) + "\"";
+    final StringBuilder text = new StringBuilder();
+
+    final String phase = metrics.getPhase();
+    header(text, "phase", "gauge", "Whether the job is in each phase.");
+    for(final UniquerMetrics.Phase each : UniquerMetrics.Phase.values()) {
+      sample(
+          text,
+          "phase",
+          label + ",phase=\"" + each.getName() + "\"",
+          each.getName().equals(phase) ? "1" : "0");
+    }
+    gauge(
+        text,
+        label,
+        "last_progress_timestamp_seconds",
+        "When a pair was last read, spilled or merged.",
+        format(metrics.getLastProgressTime() / 1000.0));
+    counter(
+        text,
+        label,
+        "pairs_read_total",
+        "Sentence pairs read from the input.",
+        Long.toString(metrics.getPairsRead()));
+    counter(
+        text,
+        label,
+        "bytes_read_total",
+        "Bytes of text read from the input, after any decompression.",
+        Long.toString(metrics.getBytesRead()));
+
+    header(
+        text, "pairs_dropped_total", "counter",
+        "Sentence pairs dropped by each filter.");
+    for(final Map.Entry<String, Long> dropped :
+        metrics.getPairsDropped().entrySet()) {
+      sample(
+          text,
+          "pairs_dropped_total",
+          label + ",filter=\"" + escape(dropped.getKey()) + "\"",
+          Long.toString(dropped.getValue()));
+    }
+
+    counter(
+        text,
+        label,
+        "runs_spilled_total",
+        "Sorted temporary files written whilst reading.",
+        Long.toString(metrics.getRunsSpilled()));
+    counter(
+        text,
+        label,
+        "run_bytes_total",
+        "Bytes of the sorted temporary files written whilst reading.",
+        Long.toString(metrics.getRunBytes()));
+    gauge(
+        text,
+        label,
+        "run_bytes_max",
+        "Bytes of the largest sorted temporary file.",
+        Long.toString(metrics.getLargestRunBytes()));
+    gauge(
+        text,
+        label,
+        "merge_fan_in",
+        "Temporary files the final merge reads at once.",
+        Integer.toString(metrics.getMergeFanIn()));
+    counter(
+        text,
+        label,
+        "pairs_written_total",
+        "Sentence pairs written to the output.",
+        Long.toString(metrics.getPairsWritten()));
+    counter(
+        text,
+        label,
+        "duplicates_total",
+        "Sentence pairs dropped as duplicates.",
+        Long.toString(metrics.getDuplicates()));
+    gauge(
+        text,
+        label,
+        "heap_used_bytes",
+        "Heap in use.",
+        Long.toString(metrics.getHeapUsed()));
+    gauge(
+        text,
+        label,
+        "heap_budget_bytes",
+        "Heap the blocks being sorted may use.",
+        Long.toString(metrics.getHeapBudget()));
+
+    header(
+        text, "phase_wall_seconds_total", "counter",
+        "Wall clock time spent in each phase.");
+    sample(
+        text, "phase_wall_seconds_total", label + ",phase=\"sort\"",
+        format(metrics.getSortWallTime() / NANOS_PER_SECOND));
+    sample(
+        text, "phase_wall_seconds_total", label + ",phase=\"merge\"",
+        format(metrics.getMergeWallTime() / NANOS_PER_SECOND));
+    header(
+        text, "phase_cpu_seconds_total", "counter",
+        "CPU time spent in each phase, by every thread taking part.");
+    sample(
+        text, "phase_cpu_seconds_total", label + ",phase=\"sort\"",
+        format(metrics.getSortCpuTime() / NANOS_PER_SECOND));
+    sample(
+        text, "phase_cpu_seconds_total", label + ",phase=\"merge\"",
+        format(metrics.getMergeCpuTime() / NANOS_PER_SECOND));
+
+    return text.toString();
+  }
+
+  private static void header(
+      final StringBuilder text,
+      final String name,
+      final String type,
+      final String help) {
+    text.append("# HELP uniquer_").append(name).append(' ').append(help);
+    text.append('\n');
+    text.append("# TYPE uniquer_").append(name).append(' ').append(type);
+    text.append('\n');
+  }
+
+  private static void sample(
+      final StringBuilder text,
+      final String name,
+      final String labels,
+      final String value) {
+    text.append("uniquer_").append(name).append('{').append(labels);
+    text.append("} ").append(value).append('\n');
+  }
+
+  private static void counter(
+      final StringBuilder text,
+      final String label,
+      final String name,
+      final String help,
+      final String value) {
+    header(text, name, "counter", help);
+    sample(text, name, label, value);
+  }
+
+  private static void gauge(
+      final StringBuilder text,
+      final String label,
+      final String name,
+      final String help,
+      final String value) {
+    header(text, name, "gauge", help);
+    sample(text, name, label, value);
+  }
+
+  private final File file;
+  private final IUniquerMetrics metrics;
+  private final String corpus;
+  private final Logger logger;
+  private ScheduledExecutorService scheduler = null;
+
+  /**
+   * @param theCorpus Labels every sample, to tell jobs writing files to
+   * the same collector apart.
+   */
+  public PrometheusTextFile(
+      final File theFile,
+      final IUniquerMetrics theMetrics,
+      final String theCorpus,
+      final Logger theLogger) {
+    file = theFile;
+    metrics = theMetrics;
+    corpus = theCorpus;
+    logger = theLogger;
+  }
+
+  /**
+   * Writes the file now and then every interval until closed. A failure to
+   * write is logged and tried again at the next interval.
+   */
+  public synchronized void start(final long interval, final TimeUnit unit)
+  throws IOException {
+    write();
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().
+            setNameFormat("uniquer-metrics-%d").
+            setDaemon(true).
+            build());
+    scheduler.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              write();
+            } catch(final IOException ex) {
+              logger.warn("Cannot write the metrics to " + file, ex);
+            }
+          }
+        },
+        interval,
+        interval,
+        unit);
+  }
+
+  /**
+   * Rewrites the file with the metrics as they are now.
+   */
+  public synchronized void write() throws IOException {
+    final File newFile = new File(file.getPath() + ".new");
+    final FileOutputStream stream = new FileOutputStream(newFile);
+    try {
+      final Writer writer = new OutputStreamWriter(stream, Charsets.UTF_8);
+      writer.write(format(metrics, corpus));
+      writer.flush();
+    } finally {
+      stream.close();
+    }
+
+    Files.move(
+        newFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Stops rewriting the file and writes it a last time.
+   */
+  @Override
+  public void close() throws IOException {
+    final ScheduledExecutorService stopping;
+    synchronized(this) {
+      stopping = scheduler;
+      scheduler = null;
+    }
+    if(stopping != null) {
+      stopping.shutdownNow();
+    }
+    write();
+  }
+}
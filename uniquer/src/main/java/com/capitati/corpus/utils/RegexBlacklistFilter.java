@@ -0,0 +1,86 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Drops pairs where either side contains a match for any of a list of
+ * regular expressions. The expressions are joined into one alternation so
+ * that each side is searched once.
+ */
+public class RegexBlacklistFilter implements IPairFilter {
+  /**
+   * Reads the expressions from a file, one per line, skipping blank lines
+   * and lines starting with '#'.
+   */
+  public static RegexBlacklistFilter fromFile(
+      final File file, final Charset charSet) throws IOException {
+    final List<String> expressions = new ArrayList<String>();
+    final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), charSet));
+    try {
+      String line;
+      while((line = reader.readLine()) != null) {
+        if(line.trim().length() > 0 && line.startsWith("#") == false) {
+          expressions.add(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    return new RegexBlacklistFilter(expressions);
+  }
+
+  private final Matcher matcher;
+  private final String hash;
+
+  public RegexBlacklistFilter(final Collection<String> theExpressions) {
+    final StringBuilder alternation = new StringBuilder();
+    for(final String expression : theExpressions) {
+      // Check each expression alone so errors point at the right one
+      Pattern.compile(expression);
+      if(alternation.length() > 0) {
+        alternation.append('|');
+      }
+      alternation.append("(?:").append(expression).append(')');
+    }
+    // An empty blacklist matches nothing
+    final String pattern =
+        (alternation.length() > 0) ? alternation.toString() : "(?!)";
+    matcher = Pattern.compile(pattern).matcher("");
+    hash = Hashing.sha1().hashString(pattern, Charsets.UTF_8).toString();
+  }
+
+  @Override
+  public String getName() {
+    return "blacklist";
+  }
+
+  /**
+   * @return The name and a hash of the expressions, which may be too many
+   * to list.
+   */
+  @Override
+  public String describe() {
+    return getName() + " sha1=" + hash;
+  }
+
+  @Override
+  public boolean accept(final String source, final String target) {
+    return matcher.reset(source).find() == false &&
+        matcher.reset(target).find() == false;
+  }
+}
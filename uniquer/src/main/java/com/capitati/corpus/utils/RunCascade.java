@@ -0,0 +1,189 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Cuts the number of runs down to a fan-in before the final merge.
+ * <p>
+ * Groups of neighbouring runs are merged into intermediate runs, passing
+ * every record through, until no more than the fan-in are left. Duplicates
+ * are left for the final merge. Because neighbours are merged and ties go to
+ * the earlier run, records with equal keys stay in their original order.
+ */
+public class RunCascade {
+  // Leaves room under the common limit of 1024 open files per process
+  public static final int DEFAULT_MAX_FAN_IN = 512;
+  // The read buffer, the record being decoded and any codec state
+  private static final long BYTES_PER_OPEN_RUN = 3L * RunWriter.BUFFER_SIZE;
+  private static final int MIN_FAN_IN = 2;
+
+  /**
+   * The number of runs that can be open at once within a buffer budget,
+   * each read ahead into buffers of a size, but no more than a maximum.
+   */
+  public static int getFanIn(
+      final long bufferBudget, final int maxFanIn, final int readAheadSize) {
+    final long bytesPerRun =
+        BYTES_PER_OPEN_RUN + RunReadAhead.getBytesPerRun(readAheadSize);
+    return (int )Math.max(
+        MIN_FAN_IN, Math.min(maxFanIn, bufferBudget / bytesPerRun));
+  }
+
+  private final File tempDirectory;
+  private final IRunCodec runCodec;
+  private final int readAheadSize;
+  private final MergeEngine mergeEngine;
+  private final Logger logger;
+  private JobManifest jobManifest = null;
+
+  public RunCascade(
+      final File theTempDirectory,
+      final IRunCodec theRunCodec,
+      final int theReadAheadSize,
+      final MergeEngine theMergeEngine,
+      final Logger theLogger) {
+    tempDirectory = theTempDirectory;
+    runCodec = theRunCodec;
+    readAheadSize = theReadAheadSize;
+    mergeEngine = theMergeEngine;
+    logger = theLogger;
+  }
+
+  /**
+   * Records each merged run in a job manifest in place of the runs it was
+   * merged from, which are then kept until the job is done.
+   */
+  public void setJobManifest(final JobManifest theJobManifest) {
+    jobManifest = theJobManifest;
+  }
+
+  /**
+   * Merges runs until at most fanIn are left. The runs merged away are
+   * deleted, and on failure so are all the others unless a job manifest
+   * records them.
+   */
+  public List<File> reduce(final List<File> runs, final int fanIn)
+  throws IOException {
+    if(fanIn < MIN_FAN_IN) {
+      throw new IllegalArgumentException(
+          "Fan-in must be at least " + MIN_FAN_IN + ": " + fanIn);
+    }
+
+    List<File> pass = runs;
+    int noPasses = 0;
+    while(pass.size() > fanIn) {
+      logger.info(
+          "Merging " + pass.size() + " temporary files in groups of " +
+          fanIn);
+
+      final List<File> nextPass = new ArrayList<File>();
+      int i = 0;
+      try {
+        // Only merge as many groups as it takes for the next pass to fit
+        while(i < pass.size() && pass.size() - i + nextPass.size() > fanIn) {
+          final int end = Math.min(i + fanIn, pass.size());
+          nextPass.add(merge(pass.subList(i, end)));
+          i = end;
+        }
+        nextPass.addAll(pass.subList(i, pass.size()));
+      } catch(final IOException ex) {
+        // A job manifest keeps the runs for the job to be resumed
+        if(jobManifest == null) {
+          deleteFiles(nextPass);
+          deleteFiles(pass.subList(i, pass.size()));
+        }
+        throw ex;
+      }
+
+      pass = nextPass;
+      noPasses++;
+    }
+
+    if(noPasses > 0) {
+      logger.info(
+          "Merged down to " + pass.size() + " temporary files in " +
+          noPasses + " passes");
+    }
+
+    return pass;
+  }
+
+  private File merge(final List<File> group) throws IOException {
+    final File merged = File.createTempFile("merge", "run", tempDirectory);
+    if(jobManifest == null) {
+      merged.deleteOnExit();
+    }
+
+    final List<RunReader> runs = new ArrayList<RunReader>();
+    final RunReadAhead readAhead = new RunReadAhead(runCodec, readAheadSize);
+    boolean done = false;
+    try {
+      for(final File file : group) {
+        runs.add(readAhead.open(file));
+      }
+      final IRunMerger<RunReader> merger =
+          mergeEngine.create(
+              runs,
+              new Comparator<RunReader>() {
+                @Override
+                public int compare(final RunReader i, final RunReader j) {
+                  return SortKeys.compare(i.peekKey(), j.peekKey());
+                }
+              },
+              new Predicate<RunReader>() {
+                @Override
+                public boolean apply(final RunReader i) {
+                  return i.empty();
+                }
+              });
+
+      final RunWriter writer = new RunWriter(merged, runCodec);
+      try {
+        while(merger.isEmpty() == false) {
+          final RunReader run = merger.top();
+          writer.write(
+              run.peekKey(),
+              run.peekFingerprint(),
+              run.peekLineNumber(),
+              run.peekSource(),
+              run.peekTarget(),
+              run.peekTargetKey());
+          run.pop();
+          merger.update();
+        }
+      } finally {
+        writer.close();
+      }
+      if(jobManifest != null) {
+        jobManifest.replaceRuns(group, merged);
+      }
+      done = true;
+    } finally {
+      for(final RunReader run : runs) {
+        run.close();
+      }
+      readAhead.close();
+      if(done == true) {
+        deleteFiles(group);
+      } else {
+        merged.delete();
+      }
+    }
+
+    return merged;
+  }
+
+  private static void deleteFiles(final List<File> files) {
+    for(final File file : files) {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.capitati.corpus.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The built-in run file codecs.
+ */
+public enum RunCodec implements IRunCodec {
+  /**
+   * Runs are written as they are.
+   */
+  NONE {
+    @Override
+    public OutputStream encode(final OutputStream out) {
+      return out;
+    }
+
+    @Override
+    public InputStream decode(final InputStream in) {
+      return in;
+    }
+  },
+  /**
+   * Deflate at its fastest level, trading a little CPU for roughly
+   * halving the temporary disk space and I/O on natural language text.
+   */
+  DEFLATE {
+    @Override
+    public OutputStream encode(final OutputStream out) {
+      final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+      return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            deflater.end();
+          }
+        }
+      };
+    }
+
+    @Override
+    public InputStream decode(final InputStream in) {
+      final Inflater inflater = new Inflater();
+      return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            inflater.end();
+          }
+        }
+      };
+    }
+  };
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Looks a codec up by its command line name, e.g. "deflate".
+   */
+  public static RunCodec forName(final String name) {
+    return valueOf(name.trim().toUpperCase());
+  }
+
+  @Override
+  public String getName() {
+    return name().toLowerCase();
+  }
+}
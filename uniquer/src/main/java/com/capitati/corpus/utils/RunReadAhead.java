@@ -0,0 +1,61 @@
+package com.capitati.corpus.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Opens the runs of a merge so that each one is read ahead through a
+ * {@link PrefetchingInputStream}, all sharing a single I/O thread. A buffer
+ * size of zero reads the runs directly instead.
+ */
+public class RunReadAhead implements Closeable {
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * The memory read ahead for each open run.
+   */
+  public static long getBytesPerRun(final int bufferSize) {
+    return 2L * bufferSize;
+  }
+
+  private final IRunCodec runCodec;
+  private final int bufferSize;
+  private final ExecutorService executor;
+
+  public RunReadAhead(final IRunCodec theRunCodec, final int theBufferSize) {
+    if(theBufferSize < 0) {
+      throw new IllegalArgumentException(
+          "Read ahead buffer size must not be negative: " + theBufferSize);
+    }
+    runCodec = theRunCodec;
+    bufferSize = theBufferSize;
+    executor = (bufferSize > 0) ?
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().
+                setNameFormat("uniquer-read-ahead-%d").
+                setDaemon(true).
+                build()) :
+        null;
+  }
+
+  public RunReader open(final File file) throws IOException {
+    final InputStream stream = (executor != null) ?
+        new PrefetchingInputStream(file, executor, bufferSize) :
+        new FileInputStream(file);
+    return new RunReader(file, runCodec, stream);
+  }
+
+  @Override
+  public void close() {
+    if(executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
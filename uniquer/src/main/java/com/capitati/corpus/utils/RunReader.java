@@ -0,0 +1,168 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads back a run written by {@link RunWriter}, one record ahead, so that
+ * the head record's key can be compared during the merge without decoding
+ * anything.
+ */
+public class RunReader implements Closeable {
+  private final File file;
+  private final DataInputStream in;
+  private byte[] key;
+  private long fingerprint;
+  private long lineNumber;
+  private byte[] source;
+  private byte[] target;
+  private byte[] targetKey;
+  private boolean empty;
+
+  public RunReader(final File theFile, final IRunCodec theCodec)
+  throws IOException {
+    this(theFile, theCodec, new FileInputStream(theFile));
+  }
+
+  /**
+   * Reads a run from a stream of the file's bytes, which is closed with the
+   * reader.
+   */
+  public RunReader(
+      final File theFile,
+      final IRunCodec theCodec,
+      final InputStream stream) throws IOException {
+    file = theFile;
+    try {
+      in = new DataInputStream(
+          new BufferedInputStream(
+              theCodec.decode(stream), RunWriter.BUFFER_SIZE));
+    } catch(final IOException ex) {
+      stream.close();
+      throw ex;
+    }
+    reload();
+  }
+
+  private void reload() throws IOException {
+    final int keyLength = readLength();
+    if(keyLength < 0) {
+      empty = true;
+      key = null;
+      source = null;
+      target = null;
+      targetKey = null;
+      return;
+    }
+
+    key = readBytes(keyLength);
+    fingerprint = in.readLong();
+    lineNumber = readVarLong();
+    source = readBytes(readLength());
+    target = readBytes(readLength());
+    targetKey = readBytes(readLength());
+  }
+
+  // Returns -1 at a clean end of the run
+  private int readLength() throws IOException {
+    int length = 0;
+    int shift = 0;
+    int b;
+
+    do {
+      b = in.read();
+      if(b < 0) {
+        if(shift == 0) {
+          return -1;
+        }
+        throw new EOFException("Truncated record in run " + file);
+      }
+      length |= (b & 0x7f) << shift;
+      shift += 7;
+    } while((b & 0x80) != 0);
+
+    return length;
+  }
+
+  private long readVarLong() throws IOException {
+    long value = 0;
+    int shift = 0;
+    int b;
+
+    do {
+      b = in.read();
+      if(b < 0) {
+        throw new EOFException("Truncated record in run " + file);
+      }
+      value |= (long )(b & 0x7f) << shift;
+      shift += 7;
+    } while((b & 0x80) != 0);
+
+    return value;
+  }
+
+  private byte[] readBytes(final int length) throws IOException {
+    if(length < 0) {
+      throw new EOFException("Truncated record in run " + file);
+    }
+
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  public boolean empty() {
+    return empty;
+  }
+
+  public byte[] peekKey() {
+    return key;
+  }
+
+  public long peekFingerprint() {
+    return fingerprint;
+  }
+
+  public long peekLineNumber() {
+    return lineNumber;
+  }
+
+  public byte[] peekSource() {
+    return source;
+  }
+
+  public byte[] peekTarget() {
+    return target;
+  }
+
+  /**
+   * @return The target's sort key, empty if the run was written without.
+   */
+  public byte[] peekTargetKey() {
+    return targetKey;
+  }
+
+  /**
+   * Moves on to the next record.
+   */
+  public void pop() throws IOException {
+    if(empty == false) {
+      reload();
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,87 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a sorted run: a single file of interleaved, length prefixed
+ * records, each holding the sort key, a 64 bit fingerprint, the input line
+ * number, the UTF-8 bytes of the source and target sentences and,
+ * optionally, the target's sort key. The file's bytes pass through an
+ * {@link IRunCodec}.
+ */
+public class RunWriter implements Closeable {
+  static final int BUFFER_SIZE = 64 * 1024;
+  private static final byte[] NO_KEY = new byte[0];
+
+  private final DataOutputStream out;
+
+  public RunWriter(final File theFile, final IRunCodec theCodec)
+  throws IOException {
+    final FileOutputStream stream = new FileOutputStream(theFile);
+    try {
+      out = new DataOutputStream(
+          new BufferedOutputStream(theCodec.encode(stream), BUFFER_SIZE));
+    } catch(final IOException ex) {
+      stream.close();
+      throw ex;
+    }
+  }
+
+  public void write(
+      final byte[] key,
+      final long fingerprint,
+      final long lineNumber,
+      final byte[] source,
+      final byte[] target) throws IOException {
+    write(key, fingerprint, lineNumber, source, target, NO_KEY);
+  }
+
+  /**
+   * @param targetKey The target's sort key, or an empty array.
+   */
+  public void write(
+      final byte[] key,
+      final long fingerprint,
+      final long lineNumber,
+      final byte[] source,
+      final byte[] target,
+      final byte[] targetKey) throws IOException {
+    writeBytes(key);
+    out.writeLong(fingerprint);
+    writeVarLong(lineNumber);
+    writeBytes(source);
+    writeBytes(target);
+    writeBytes(targetKey);
+  }
+
+  private void writeVarLong(final long value) throws IOException {
+    // Unsigned LEB128
+    long rest = value;
+    while((rest & ~0x7fL) != 0) {
+      out.write((int )(rest & 0x7f) | 0x80);
+      rest >>>= 7;
+    }
+    out.write((int )rest);
+  }
+
+  private void writeBytes(final byte[] bytes) throws IOException {
+    // Unsigned LEB128 length
+    int length = bytes.length;
+    while((length & ~0x7f) != 0) {
+      out.write((length & 0x7f) | 0x80);
+      length >>>= 7;
+    }
+    out.write(length);
+    out.write(bytes);
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,177 @@
+package com.capitati.corpus.utils;
+
+/**
+ * Drops sentence pairs on limits that a single scan of each side answers:
+ * an empty side, the number of tokens, the number of characters and the
+ * ratio between the sides' numbers of tokens.
+ * <p>
+ * Tokens are runs of characters other than the space, as split by
+ * {@code "[ ]+"}, but counted without a regex or any allocation. Counting
+ * stops as soon as the maximum is passed unless the ratio needs the full
+ * count. Unset limits cost nothing.
+ */
+public class ScanFilter implements IPairFilter {
+  public static final int UNLIMITED = -1;
+
+  private int maxNoTokens = UNLIMITED;
+  private int minNoTokens = UNLIMITED;
+  private int maxNoChars = UNLIMITED;
+  private double maxTokenRatio = UNLIMITED;
+
+  /**
+   * Counts the tokens of a line, giving up once there are more than a
+   * limit.
+   *
+   * @return The number of tokens, or limit + 1 when there are more.
+   */
+  static int countTokens(final String line, final int limit) {
+    final int length = line.length();
+    if(length == 0) {
+      // Just as splitting gives a single empty token
+      return 1;
+    }
+
+    int noTokens = 0;
+    boolean inToken = false;
+
+    for(int i = 0; i < length; i++) {
+      if(line.charAt(i) == ' ') {
+        inToken = false;
+      } else if(inToken == false) {
+        inToken = true;
+        if(++noTokens > limit) {
+          return noTokens;
+        }
+      }
+    }
+
+    // A leading space splits off an empty token
+    if(noTokens > 0 && line.charAt(0) == ' ') {
+      noTokens++;
+    }
+
+    return noTokens;
+  }
+
+  public void setMaxNoTokens(final int theMaxNoTokens) {
+    maxNoTokens = theMaxNoTokens;
+  }
+
+  public void setMinNoTokens(final int theMinNoTokens) {
+    minNoTokens = theMinNoTokens;
+  }
+
+  /**
+   * Sets the most UTF-16 characters a side may have.
+   */
+  public void setMaxNoChars(final int theMaxNoChars) {
+    maxNoChars = theMaxNoChars;
+  }
+
+  /**
+   * Sets the largest ratio of the longer side's number of tokens to the
+   * shorter side's.
+   */
+  public void setMaxTokenRatio(final double theMaxTokenRatio) {
+    maxTokenRatio = theMaxTokenRatio;
+  }
+
+  /**
+   * Takes on another scan filter's limits, keeping the stricter of any
+   * limit both set, so that one scan answers them all.
+   */
+  void addLimits(final ScanFilter other) {
+    maxNoTokens = stricterMax(maxNoTokens, other.maxNoTokens);
+    maxNoChars = stricterMax(maxNoChars, other.maxNoChars);
+    minNoTokens = Math.max(minNoTokens, other.minNoTokens);
+    maxTokenRatio = (maxTokenRatio <= UNLIMITED) ?
+        other.maxTokenRatio :
+        (other.maxTokenRatio <= UNLIMITED) ?
+            maxTokenRatio : Math.min(maxTokenRatio, other.maxTokenRatio);
+  }
+
+  private static int stricterMax(final int limit, final int otherLimit) {
+    if(limit <= UNLIMITED) {
+      return otherLimit;
+    }
+    return (otherLimit <= UNLIMITED) ? limit : Math.min(limit, otherLimit);
+  }
+
+  private boolean needsTokens() {
+    return maxNoTokens > UNLIMITED ||
+        minNoTokens > UNLIMITED ||
+        maxTokenRatio > UNLIMITED;
+  }
+
+  /**
+   * @return The limits in use, e.g. "empty,maxtokens,ratio".
+   */
+  @Override
+  public String getName() {
+    final StringBuilder name = new StringBuilder("empty");
+    if(maxNoTokens > UNLIMITED) {
+      name.append(",maxtokens");
+    }
+    if(minNoTokens > UNLIMITED) {
+      name.append(",mintokens");
+    }
+    if(maxNoChars > UNLIMITED) {
+      name.append(",maxchars");
+    }
+    if(maxTokenRatio > UNLIMITED) {
+      name.append(",ratio");
+    }
+    return name.toString();
+  }
+
+  @Override
+  public String describe() {
+    return "scan maxtokens=" + maxNoTokens + " mintokens=" + minNoTokens +
+        " maxchars=" + maxNoChars + " ratio=" + maxTokenRatio;
+  }
+
+  @Override
+  public boolean accept(final String source, final String target) {
+    if(source.length() < 1 || target.length() < 1) {
+      return false;
+    }
+
+    if(maxNoChars > UNLIMITED &&
+        (source.length() > maxNoChars || target.length() > maxNoChars)) {
+      return false;
+    }
+
+    if(needsTokens() == false) {
+      return true;
+    }
+
+    // Only the ratio needs to know by how much the maximum is passed
+    final int limit =
+        (maxNoTokens > UNLIMITED && maxTokenRatio <= UNLIMITED) ?
+            maxNoTokens : Integer.MAX_VALUE;
+    final int noSourceTokens = countTokens(source, limit);
+    if(isTokenCountAllowed(noSourceTokens) == false) {
+      return false;
+    }
+    final int noTargetTokens = countTokens(target, limit);
+    if(isTokenCountAllowed(noTargetTokens) == false) {
+      return false;
+    }
+
+    if(maxTokenRatio > UNLIMITED) {
+      final int shorter =
+          Math.max(1, Math.min(noSourceTokens, noTargetTokens));
+      final int longer = Math.max(noSourceTokens, noTargetTokens);
+      if(longer > maxTokenRatio * shorter) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private boolean isTokenCountAllowed(final int noTokens) {
+    return (maxNoTokens <= UNLIMITED || noTokens <= maxNoTokens) &&
+        (minNoTokens <= UNLIMITED || noTokens >= minNoTokens);
+  }
+}
@@ -0,0 +1,105 @@
+package com.capitati.corpus.utils;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Drops pairs where too few of a side's letters are in the script expected
+ * for it, e.g. source sentences that are mostly not Latin.
+ */
+public class ScriptRatioFilter implements IPairFilter {
+  public static final double DEFAULT_MIN_RATIO = 0.5;
+
+  /**
+   * Creates a filter from a specification such as "latin:cyrillic" or
+   * "latin:han,hiragana,katakana:0.8": the source scripts, the target
+   * scripts and, optionally, the minimum ratio. Either list may be "any".
+   */
+  public static ScriptRatioFilter forSpecification(final String specification) {
+    final String[] parts = specification.split(":");
+    if(parts.length < 2 || parts.length > 3) {
+      throw new IllegalArgumentException(
+          "Expected SOURCE:TARGET[:RATIO], got: " + specification);
+    }
+
+    return new ScriptRatioFilter(
+        parseScripts(parts[0]),
+        parseScripts(parts[1]),
+        (parts.length > 2) ?
+            Double.parseDouble(parts[2]) : DEFAULT_MIN_RATIO);
+  }
+
+  private static Set<Character.UnicodeScript> parseScripts(
+      final String scripts) {
+    if("any".equalsIgnoreCase(scripts.trim()) == true) {
+      return null;
+    }
+
+    final Set<Character.UnicodeScript> set =
+        EnumSet.noneOf(Character.UnicodeScript.class);
+    for(final String script : scripts.split(",")) {
+      set.add(Character.UnicodeScript.forName(script.trim()));
+    }
+    return set;
+  }
+
+  private final Set<Character.UnicodeScript> sourceScripts;
+  private final Set<Character.UnicodeScript> targetScripts;
+  private final double minRatio;
+
+  /**
+   * @param theSourceScripts The source's expected scripts, or null for any.
+   * @param theTargetScripts The target's expected scripts, or null for any.
+   * @param theMinRatio The least share of letters in the expected scripts.
+   */
+  public ScriptRatioFilter(
+      final Set<Character.UnicodeScript> theSourceScripts,
+      final Set<Character.UnicodeScript> theTargetScripts,
+      final double theMinRatio) {
+    sourceScripts = theSourceScripts;
+    targetScripts = theTargetScripts;
+    minRatio = theMinRatio;
+  }
+
+  private boolean hasScripts(
+      final String line, final Set<Character.UnicodeScript> scripts) {
+    if(scripts == null) {
+      return true;
+    }
+
+    int noLetters = 0;
+    int noInScripts = 0;
+    for(int i = 0; i < line.length(); ) {
+      final int codePoint = line.codePointAt(i);
+      if(Character.isLetter(codePoint) == true) {
+        noLetters++;
+        if(scripts.contains(Character.UnicodeScript.of(codePoint)) == true) {
+          noInScripts++;
+        }
+      }
+      i += Character.charCount(codePoint);
+    }
+
+    // Sentences without letters, such as numbers, have no script to check
+    return noLetters == 0 || noInScripts >= minRatio * noLetters;
+  }
+
+  @Override
+  public String getName() {
+    return "scripts";
+  }
+
+  @Override
+  public String describe() {
+    return getName() +
+        " source=" + ((sourceScripts == null) ? "any" : sourceScripts) +
+        " target=" + ((targetScripts == null) ? "any" : targetScripts) +
+        " ratio=" + minRatio;
+  }
+
+  @Override
+  public boolean accept(final String source, final String target) {
+    return hasScripts(source, sourceScripts) &&
+        hasScripts(target, targetScripts);
+  }
+}
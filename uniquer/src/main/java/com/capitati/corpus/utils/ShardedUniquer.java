@@ -0,0 +1,460 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+
+/**
+ * Uniques a corpus by partitioning it into shards that are uniqued by
+ * worker processes of their own, standing in for the nodes of a cluster.
+ * <p>
+ * The pairs that pass the filters are split between the shards by a hash
+ * of their source's sort key, normalised the way duplicates are grouped
+ * (see {@link SortKeys#groupHash(byte[])}), so that all the pairs of a
+ * group land in the same shard. Each shard is written to aligned files in
+ * the temporary directory and uniqued by running {@link Main} on them. In
+ * the sort mode the shards' outputs are merged on their sort keys into the
+ * order a single uniquer would write them in; in the hash mode they are
+ * concatenated, each shard in input order.
+ * <p>
+ * The duplicates the workers find are counted but not reported to the
+ * audit sink; pairs dropped by the filters are.
+ */
+public class ShardedUniquer implements ICorpusUniquer {
+  // The suffix the workers write their output with
+  private static final String WORKER_SUFFIX = "uniq";
+
+  // A shard's files, the pairs written to it and the worker uniquing it
+  private static class Shard {
+    final File sourceFile;
+    final File targetFile;
+    final File logFile;
+    long noPairs = 0;
+    Process worker = null;
+
+    Shard(final File tempDirectory) throws IOException {
+      sourceFile = File.createTempFile("shard", ".source", tempDirectory);
+      targetFile = File.createTempFile("shard", ".target", tempDirectory);
+      logFile = File.createTempFile("shard", ".log", tempDirectory);
+    }
+
+    File getOutputFile(final File file) {
+      return new File(file.getAbsolutePath() + "." + WORKER_SUFFIX);
+    }
+
+    void delete() {
+      sourceFile.delete();
+      targetFile.delete();
+      getOutputFile(sourceFile).delete();
+      getOutputFile(targetFile).delete();
+    }
+  }
+
+  // The head of a shard's output during the merge
+  private static class ShardOutput {
+    final IPairReader reader;
+    ImmutablePair<String, String> pair = null;
+    byte[] key = null;
+
+    ShardOutput(final IPairReader theReader) throws IOException {
+      reader = theReader;
+      pop();
+    }
+
+    void pop() throws IOException {
+      pair = reader.readPair();
+      key = (pair != null) ? SortKeys.encode(pair.getLeft()) : null;
+    }
+  }
+
+  private static List<String> createDefaultWorkerCommand() {
+    return Arrays.asList(
+        new File(
+            new File(System.getProperty("java.home"), "bin"),
+            "java").getPath(),
+        "-cp",
+        System.getProperty("java.class.path"),
+        Main.class.getName());
+  }
+
+  private final ICorpus corpus;
+  private final Charset inputCharSet;
+  private final File tempDirectory;
+  private final Charset outputCharSet;
+  private final Logger logger;
+  private final int noShards;
+  private UniquingMode mode = UniquingMode.SORT;
+  private List<String> workerCommand = createDefaultWorkerCommand();
+  private List<String> workerArguments = Collections.<String>emptyList();
+  private MergeEngine mergeEngine = MergeEngine.LOSER_TREE;
+  private boolean syncOutput = false;
+  private CorpusCompression outputCompression = CorpusCompression.NONE;
+  private final List<IPairFilter> filters = new ArrayList<IPairFilter>();
+  private PairFilterChain filterChain = null;
+  private IAuditSink auditSink;
+
+  public ShardedUniquer(
+      final ICorpus theCorpus,
+      final Charset theInputCharSet,
+      final File theTempDirectory,
+      final Charset theOutputCharSet,
+      final Logger theLogger,
+      final int theNoShards) {
+    if(theNoShards < 1) {
+      throw new IllegalArgumentException(
+          "The number of shards must be at least 1: " + theNoShards);
+    }
+    corpus = theCorpus;
+    inputCharSet = theInputCharSet;
+    tempDirectory = theTempDirectory;
+    outputCharSet = theOutputCharSet;
+    logger = theLogger;
+    noShards = theNoShards;
+    auditSink = new LoggerAuditSink(theLogger);
+  }
+
+  /**
+   * Sets how the workers find duplicates, which also decides how their
+   * outputs are put together. The default is {@link UniquingMode#SORT}.
+   */
+  public void setMode(final UniquingMode theMode) {
+    mode = theMode;
+  }
+
+  /**
+   * Sets the command that starts a worker, to which the worker's command
+   * line options are appended. The default runs {@link Main} in a Java
+   * virtual machine like this one, with the same class path.
+   */
+  public void setWorkerCommand(final List<String> theWorkerCommand) {
+    workerCommand = new ArrayList<String>(theWorkerCommand);
+  }
+
+  /**
+   * Sets further command line options for the workers, such as
+   * --heapbudget. The input, output, working directory and mode are set by
+   * the uniquer.
+   */
+  public void setWorkerArguments(final List<String> theWorkerArguments) {
+    workerArguments = new ArrayList<String>(theWorkerArguments);
+  }
+
+  /**
+   * Selects the merge of the shards' outputs in the sort mode.
+   */
+  public void setMergeEngine(final MergeEngine theMergeEngine) {
+    mergeEngine = theMergeEngine;
+  }
+
+  /**
+   * Sets whether the output files are forced to the disk once they have
+   * been written.
+   */
+  public void setSyncOutput(final boolean theSyncOutput) {
+    syncOutput = theSyncOutput;
+  }
+
+  /**
+   * Sets the compression the output is written in. The default is
+   * {@link CorpusCompression#NONE}.
+   */
+  public void setOutputCompression(
+      final CorpusCompression theOutputCompression) {
+    outputCompression = theOutputCompression;
+  }
+
+  @Override
+  public void setAuditSink(final IAuditSink theAuditSink) {
+    auditSink = theAuditSink;
+  }
+
+  @Override
+  public void addFilter(final IPairFilter filter) {
+    filters.add(filter);
+  }
+
+  @Override
+  public List<PairFilterStatistics> getFilterStatistics() {
+    return (filterChain != null) ?
+        filterChain.getStatistics() :
+        Collections.<PairFilterStatistics>emptyList();
+  }
+
+  @Override
+  public ImmutablePair<Long, Long> unique(
+      final String suffix, final int maxNoTokens)
+  throws Exception {
+    return unique(suffix, maxNoTokens, false);
+  }
+
+  /**
+   * Uniques the corpus, failing with a {@link LineCountMismatchException} as
+   * soon as the source and target files are found to have a different
+   * number of lines.
+   */
+  @Override
+  public ImmutablePair<Long, Long> uniqueWithLineCountCheck(
+      final String suffix, final int maxNoTokens)
+  throws Exception {
+    return unique(suffix, maxNoTokens, true);
+  }
+
+  private ImmutablePair<Long, Long> unique(
+      final String suffix, final int maxNoTokens, final boolean checkLineCounts)
+  throws Exception {
+    final List<File> missingFiles = new ArrayList<File>(
+        corpus.getMissingFiles());
+    if(tempDirectory.exists() == false) missingFiles.add(tempDirectory);
+    if(missingFiles.size() > 0) {
+      throw new FileNotFoundException(
+          String.format(
+              "Missing files or directories: %s",
+              StringUtils.join(missingFiles, ", ")));
+    }
+
+    final PairFilterChain filter = PairFilters.create(maxNoTokens, filters);
+    filterChain = filter;
+
+    logger.info(
+        "Starting sharded uniquing with " + corpus + " in " + noShards +
+        " shards filtering on " +
+        ((maxNoTokens == ICorpusUniquer.UNLIMITED_TOKENS) ?
+            "infinite number of" :
+            maxNoTokens) +
+        " tokens using suffix [" + suffix + "]...");
+
+    final List<Shard> shards = new ArrayList<Shard>();
+    boolean uniqued = false;
+    try {
+      for(int i = 0; i < noShards; i++) {
+        shards.add(new Shard(tempDirectory));
+      }
+      partition(filter, checkLineCounts, shards);
+      runWorkers(shards);
+
+      final IPairWriter writer =
+          corpus.openWriter(
+              suffix, outputCharSet, outputCompression, syncOutput, false);
+      long lineCounter = 0;
+      try {
+        lineCounter = (mode == UniquingMode.SORT) ?
+            mergeShards(shards, writer) :
+            concatenateShards(shards, writer);
+        uniqued = true;
+      } finally {
+        // Don't leave partial output behind
+        if(uniqued == true) {
+          writer.close();
+        } else {
+          writer.discard();
+        }
+      }
+
+      long noPairs = 0;
+      for(final Shard shard : shards) {
+        noPairs += shard.noPairs;
+      }
+      for(final PairFilterStatistics statistics : filter.getStatistics()) {
+        logger.info(statistics);
+      }
+      logger.info("Finished sharded uniquing");
+
+      return new ImmutablePair<Long, Long>(
+          noPairs - lineCounter, lineCounter);
+    } finally {
+      for(final Shard shard : shards) {
+        if(shard.worker != null) {
+          shard.worker.destroy();
+        }
+        shard.delete();
+        // Keep the logs of failed workers
+        if(uniqued == true) {
+          shard.logFile.delete();
+        }
+      }
+    }
+  }
+
+  private void partition(
+      final PairFilterChain filter,
+      final boolean failOnMismatch,
+      final List<Shard> shards) throws IOException {
+    final List<IPairWriter> writers = new ArrayList<IPairWriter>();
+    final IPairReader reader =
+        corpus.openReader(inputCharSet, failOnMismatch);
+
+    try {
+      for(final Shard shard : shards) {
+        writers.add(
+            new CorpusPairWriter(
+                shard.sourceFile,
+                shard.targetFile,
+                Charsets.UTF_8,
+                CorpusCompression.NONE,
+                false));
+      }
+
+      ImmutablePair<String, String> pair = null;
+      while((pair = reader.readPair()) != null) {
+        final String sourceLine = pair.getLeft();
+        final String targetLine = pair.getRight();
+
+        // Filter
+        if(filter.apply(pair) == false) {
+          auditSink.dropped(
+              filter.getDroppedBy(),
+              reader.getLineNumber(),
+              sourceLine,
+              targetLine);
+          continue;
+        }
+
+        final int index =
+            (SortKeys.groupHash(SortKeys.encode(sourceLine)) & 0x7fffffff) %
+            shards.size();
+        writers.get(index).writePair(
+            sourceLine.getBytes(Charsets.UTF_8),
+            targetLine.getBytes(Charsets.UTF_8));
+        shards.get(index).noPairs++;
+      }
+
+      if(reader.getMismatch() != null) {
+        logger.warn(reader.getMismatch().getMessage());
+      }
+    } finally {
+      try {
+        for(final IPairWriter writer : writers) {
+          writer.close();
+        }
+      } finally {
+        reader.close();
+      }
+    }
+  }
+
+  private void runWorkers(final List<Shard> shards)
+  throws IOException, InterruptedException {
+    for(final Shard shard : shards) {
+      final List<String> command = new ArrayList<String>(workerCommand);
+      command.addAll(
+          Arrays.asList(
+              "--source", shard.sourceFile.getAbsolutePath(),
+              "--target", shard.targetFile.getAbsolutePath(),
+              "--inputcharset", Charsets.UTF_8.name(),
+              "--outputcharset", Charsets.UTF_8.name(),
+              "--suffix", WORKER_SUFFIX,
+              "--workingdir", tempDirectory.getAbsolutePath(),
+              "--mode", mode.getName()));
+      command.addAll(workerArguments);
+
+      shard.worker = new ProcessBuilder(command).
+          redirectErrorStream(true).
+          redirectOutput(shard.logFile).
+          start();
+    }
+
+    logger.info("Started " + shards.size() + " workers");
+
+    for(final Shard shard : shards) {
+      final int exitCode = shard.worker.waitFor();
+      if(exitCode != 0) {
+        throw new IOException(
+            "The worker uniquing the shard [" + shard.sourceFile +
+            "] failed with exit code " + exitCode + ", see [" +
+            shard.logFile + "]");
+      }
+    }
+  }
+
+  private long mergeShards(
+      final List<Shard> shards, final IPairWriter writer)
+  throws IOException {
+    final List<ShardOutput> outputs = new ArrayList<ShardOutput>();
+
+    try {
+      for(final Shard shard : shards) {
+        outputs.add(
+            new ShardOutput(
+                new CorpusPairReader(
+                    shard.getOutputFile(shard.sourceFile),
+                    shard.getOutputFile(shard.targetFile),
+                    Charsets.UTF_8)));
+      }
+      // Shards never share a key, so ties need no breaking
+      final IRunMerger<ShardOutput> merger =
+          mergeEngine.create(
+              outputs,
+              new Comparator<ShardOutput>() {
+                @Override
+                public int compare(final ShardOutput i, final ShardOutput j) {
+                  return SortKeys.compare(i.key, j.key);
+                }
+              },
+              new Predicate<ShardOutput>() {
+                @Override
+                public boolean apply(final ShardOutput i) {
+                  return i.pair == null;
+                }
+              });
+
+      long lineCounter = 0;
+      while(merger.isEmpty() == false) {
+        final ShardOutput output = merger.top();
+
+        writer.writePair(
+            output.pair.getLeft().getBytes(Charsets.UTF_8),
+            output.pair.getRight().getBytes(Charsets.UTF_8));
+        lineCounter++;
+
+        output.pop();
+        merger.update();
+      }
+
+      return lineCounter;
+    } finally {
+      for(final ShardOutput output : outputs) {
+        output.reader.close();
+      }
+    }
+  }
+
+  private long concatenateShards(
+      final List<Shard> shards, final IPairWriter writer)
+  throws IOException {
+    long lineCounter = 0;
+
+    for(final Shard shard : shards) {
+      final IPairReader reader =
+          new CorpusPairReader(
+              shard.getOutputFile(shard.sourceFile),
+              shard.getOutputFile(shard.targetFile),
+              Charsets.UTF_8);
+      try {
+        ImmutablePair<String, String> pair = null;
+        while((pair = reader.readPair()) != null) {
+          writer.writePair(
+              pair.getLeft().getBytes(Charsets.UTF_8),
+              pair.getRight().getBytes(Charsets.UTF_8));
+          lineCounter++;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    return lineCounter;
+  }
+}
@@ -0,0 +1,148 @@
+package com.capitati.corpus.utils;
+
+import java.util.Comparator;
+
+/**
+ * Binary comparable sort keys for corpus lines.
+ * <p>
+ * A key is the case folded line encoded a char at a time in the CESU-8
+ * style (1, 2 or 3 bytes per UTF-16 code unit). Comparing two keys as
+ * unsigned bytes therefore orders them exactly as comparing the case folded
+ * strings would, without allocating anything per comparison.
+ */
+public final class SortKeys {
+  private static final byte SPACE = ' ';
+  private static final byte UNDERSCORE = '_';
+
+  public static final Comparator<byte[]> COMPARATOR =
+      new Comparator<byte[]>() {
+        @Override
+        public int compare(final byte[] k1, final byte[] k2) {
+          return SortKeys.compare(k1, k2);
+        }
+      };
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private SortKeys() {
+  }
+
+  /**
+   * Computes the sort key of a line.
+   *
+   * @param line The line.
+   * @return The binary comparable key of the case folded line.
+   */
+  public static byte[] encode(final String line) {
+    final String folded = line.toLowerCase();
+    final int noChars = folded.length();
+
+    int length = 0;
+    for(int i = 0; i < noChars; i++) {
+      final char c = folded.charAt(i);
+      length += (c < 0x80) ? 1 : ((c < 0x800) ? 2 : 3);
+    }
+
+    final byte[] key = new byte[length];
+    int pos = 0;
+    for(int i = 0; i < noChars; i++) {
+      final char c = folded.charAt(i);
+      if(c < 0x80) {
+        key[pos++] = (byte )c;
+      } else if(c < 0x800) {
+        key[pos++] = (byte )(0xc0 | (c >> 6));
+        key[pos++] = (byte )(0x80 | (c & 0x3f));
+      } else {
+        key[pos++] = (byte )(0xe0 | (c >> 12));
+        key[pos++] = (byte )(0x80 | ((c >> 6) & 0x3f));
+        key[pos++] = (byte )(0x80 | (c & 0x3f));
+      }
+    }
+
+    return key;
+  }
+
+  /**
+   * Compares two keys as unsigned bytes.
+   */
+  public static int compare(final byte[] k1, final byte[] k2) {
+    final int length = Math.min(k1.length, k2.length);
+
+    for(int i = 0; i < length; i++) {
+      final int diff = (k1[i] & 0xff) - (k2[i] & 0xff);
+      if(diff != 0) {
+        return diff;
+      }
+    }
+
+    return k1.length - k2.length;
+  }
+
+  /**
+   * Tests whether two keys are equal once runs of spaces are replaced by an
+   * underscore, which is how duplicate sentences are recognised.
+   */
+  public static boolean sameGroup(final byte[] k1, final byte[] k2) {
+    return sameGroup(k1, 0, k1.length, k2);
+  }
+
+  /**
+   * Tests whether a key held in part of an array is in the same group as
+   * another key.
+   */
+  public static boolean sameGroup(
+      final byte[] k1, final int offset, final int length, final byte[] k2) {
+    final int end = offset + length;
+    int i = offset;
+    int j = 0;
+
+    while(i < end && j < k2.length) {
+      byte b1 = k1[i++];
+      if(b1 == SPACE) {
+        b1 = UNDERSCORE;
+        while(i < end && k1[i] == SPACE) {
+          i++;
+        }
+      }
+
+      byte b2 = k2[j++];
+      if(b2 == SPACE) {
+        b2 = UNDERSCORE;
+        while(j < k2.length && k2[j] == SPACE) {
+          j++;
+        }
+      }
+
+      if(b1 != b2) {
+        return false;
+      }
+    }
+
+    return i == end && j == k2.length;
+  }
+
+  /**
+   * Hashes a key the way {@link #sameGroup(byte[], byte[])} compares it, so
+   * that keys of the same group have the same hash.
+   */
+  public static int groupHash(final byte[] key) {
+    int hash = 1;
+    int i = 0;
+
+    while(i < key.length) {
+      byte b = key[i++];
+      if(b == SPACE) {
+        b = UNDERSCORE;
+        while(i < key.length && key[i] == SPACE) {
+          i++;
+        }
+      }
+      hash = 31 * hash + b;
+    }
+
+    // Spread the low bits, which pick the shard
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    return hash ^ (hash >>> 7) ^ (hash >>> 4);
+  }
+}
@@ -0,0 +1,69 @@
+package com.capitati.corpus.utils;
+
+import java.util.Comparator;
+
+/**
+ * A sentence pair carrying the sort key of its source sentence, which is
+ * computed once when the pair is read.
+ * <p>
+ * A row of a {@link ColumnCorpus} may be keyed on some of its columns
+ * instead, joined as the corpus joins them, so rows sort a column at a
+ * time. Rows of the same key are then duplicates whatever their other
+ * columns.
+ */
+final class SortRecord {
+  public static final Comparator<SortRecord> KEY_COMPARATOR =
+      new Comparator<SortRecord>() {
+        @Override
+        public int compare(final SortRecord r1, final SortRecord r2) {
+          return SortKeys.compare(r1.key, r2.key);
+        }
+      };
+
+  public final byte[] key;
+  public final String source;
+  public final String target;
+  public final long lineNumber;
+  // Whether pairs of the same key are kept when their targets differ
+  public final boolean distinctTargets;
+
+  public SortRecord(final String theSource, final String theTarget) {
+    this(theSource, theTarget, 0);
+  }
+
+  public SortRecord(
+      final String theSource,
+      final String theTarget,
+      final long theLineNumber) {
+    key = SortKeys.encode(theSource);
+    source = theSource;
+    target = theTarget;
+    lineNumber = theLineNumber;
+    distinctTargets = true;
+  }
+
+  /**
+   * @param theKeyColumns The indexes of the columns making up the key, the
+   * source being column zero and the target holding the others.
+   */
+  public SortRecord(
+      final String theSource,
+      final String theTarget,
+      final int[] theKeyColumns,
+      final long theLineNumber) {
+    final String[] others = ColumnCorpus.splitOthers(theTarget);
+    final StringBuilder joined = new StringBuilder();
+    for(int i = 0; i < theKeyColumns.length; i++) {
+      if(i > 0) {
+        joined.append(ColumnCorpus.SEPARATOR);
+      }
+      joined.append(
+          (theKeyColumns[i] == 0) ? theSource : others[theKeyColumns[i] - 1]);
+    }
+    key = SortKeys.encode(joined.toString());
+    source = theSource;
+    target = theTarget;
+    lineNumber = theLineNumber;
+    distinctTargets = false;
+  }
+}
@@ -0,0 +1,83 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A corpus written to a stream, such as the standard output, as
+ * tab-separated pairs, so a uniquer can sit in a shell pipeline. It is read
+ * either from a stream of tab-separated pairs or from aligned source and
+ * target files, which may be named pipes. Either may be compressed, see
+ * {@link CorpusCompression}. Only the temporary files touch the disk.
+ */
+public class StreamCorpus implements ICorpus {
+  private final InputStream input;
+  private final FileCorpus files;
+  private final OutputStream output;
+
+  public StreamCorpus(
+      final InputStream theInput, final OutputStream theOutput) {
+    input = theInput;
+    files = null;
+    output = theOutput;
+  }
+
+  public StreamCorpus(
+      final File theSourceFile,
+      final File theTargetFile,
+      final OutputStream theOutput) {
+    input = null;
+    files = new FileCorpus(theSourceFile, theTargetFile);
+    output = theOutput;
+  }
+
+  @Override
+  public IPairReader openReader(
+      final Charset charSet, final boolean failOnMismatch) throws IOException {
+    return (files != null) ?
+        files.openReader(charSet, failOnMismatch) :
+        new TsvPairReader(CorpusCompression.open(input), charSet);
+  }
+
+  /**
+   * @return A writer to the stream; the suffix, syncing and appending do
+   * not apply.
+   */
+  @Override
+  public IPairWriter openWriter(
+      final String suffix,
+      final Charset charSet,
+      final CorpusCompression compression,
+      final boolean sync,
+      final boolean append) throws IOException {
+    return new TsvPairWriter(output, "output", charSet, compression);
+  }
+
+  @Override
+  public List<File> getOutputFiles(
+      final String suffix, final CorpusCompression compression) {
+    return Collections.<File>emptyList();
+  }
+
+  @Override
+  public List<File> getMissingFiles() {
+    return (files != null) ?
+        files.getMissingFiles() : Collections.<File>emptyList();
+  }
+
+  @Override
+  public long getSize() {
+    return (files != null) ? files.getSize() : UNKNOWN_SIZE;
+  }
+
+  @Override
+  public String toString() {
+    return ((files != null) ? files.toString() : "[input stream]") +
+        " to the output stream";
+  }
+}
@@ -0,0 +1,157 @@
+package com.capitati.corpus.utils;
+
+import java.util.Arrays;
+
+/**
+ * The target sentences seen for one source sentence during the merge.
+ * <p>
+ * Targets are held as 64 bit fingerprints of their normalised form in an
+ * open addressing table of primitive arrays, which is cleared and reused for
+ * every source group. The {@link SortKeys} key of each target is kept in a
+ * reusable arena so that a fingerprint match can be confirmed by comparing
+ * keys in place. Once the arena reaches its limit further targets are held
+ * by fingerprint only, and once the table holds its most targets further
+ * ones are not remembered at all, so memory per group stays bounded.
+ */
+public class TargetFingerprintSet {
+  private static final int INITIAL_CAPACITY = 64;
+  private static final double MAX_LOAD = 0.5;
+  private static final int NOT_STORED = -1;
+
+  private final int maxArenaBytes;
+  private final int maxSize;
+  private long[] fingerprints;
+  private int[] offsets;
+  private int[] lengths;
+  private int[] usedSlots;
+  private int mask;
+  private int size;
+  private byte[] arena;
+  private int arenaLength;
+
+  /**
+   * @param theMaxArenaBytes The most bytes of keys kept.
+   * @param theMaxSize The most targets held; later ones are never found to
+   * be duplicates.
+   */
+  public TargetFingerprintSet(
+      final int theMaxArenaBytes, final int theMaxSize) {
+    maxArenaBytes = theMaxArenaBytes;
+    maxSize = theMaxSize;
+    allocate(INITIAL_CAPACITY);
+    arena = new byte[Math.min(4096, maxArenaBytes)];
+  }
+
+  private void allocate(final int capacity) {
+    fingerprints = new long[capacity];
+    offsets = new int[capacity];
+    lengths = new int[capacity];
+    usedSlots = new int[capacity];
+    mask = capacity - 1;
+    size = 0;
+  }
+
+  /**
+   * Adds a target unless an equivalent one is already in the set.
+   *
+   * @param fingerprint The fingerprint of the normalised target.
+   * @param key The {@link SortKeys} key of the target.
+   * @return True if the target was not a duplicate.
+   */
+  public boolean add(final long fingerprint, final byte[] key) {
+    // Zero marks an empty slot
+    final long fp = (fingerprint == 0) ? 1 : fingerprint;
+
+    int slot = index(fp);
+    while(fingerprints[slot] != 0) {
+      if(fingerprints[slot] == fp && sameTarget(slot, key) == true) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    if(size >= maxSize) {
+      return true;
+    }
+
+    fingerprints[slot] = fp;
+    usedSlots[size++] = slot;
+    store(slot, key);
+
+    if(size > (mask + 1) * MAX_LOAD) {
+      rehash((mask + 1) * 2);
+    }
+
+    return true;
+  }
+
+  /**
+   * Empties the set for the next source group, keeping its storage.
+   */
+  public void clear() {
+    for(int i = 0; i < size; i++) {
+      fingerprints[usedSlots[i]] = 0;
+    }
+    size = 0;
+    arenaLength = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private void store(final int slot, final byte[] key) {
+    if(arenaLength + key.length > maxArenaBytes) {
+      offsets[slot] = NOT_STORED;
+      return;
+    }
+
+    if(arenaLength + key.length > arena.length) {
+      arena = Arrays.copyOf(
+          arena,
+          Math.min(
+              maxArenaBytes,
+              Math.max(arenaLength + key.length, arena.length * 2)));
+    }
+    System.arraycopy(key, 0, arena, arenaLength, key.length);
+    offsets[slot] = arenaLength;
+    lengths[slot] = key.length;
+    arenaLength += key.length;
+  }
+
+  private boolean sameTarget(final int slot, final byte[] key) {
+    final int offset = offsets[slot];
+    if(offset == NOT_STORED) {
+      // Only the fingerprint is left to go on
+      return true;
+    }
+
+    // False only for a fingerprint collision
+    return SortKeys.sameGroup(arena, offset, lengths[slot], key);
+  }
+
+  private int index(final long fp) {
+    return (int )(fp ^ (fp >>> 32)) & mask;
+  }
+
+  private void rehash(final int capacity) {
+    final long[] oldFingerprints = fingerprints;
+    final int[] oldOffsets = offsets;
+    final int[] oldLengths = lengths;
+    final int[] oldUsedSlots = usedSlots;
+    final int oldSize = size;
+
+    allocate(capacity);
+    for(int i = 0; i < oldSize; i++) {
+      final int oldSlot = oldUsedSlots[i];
+      int slot = index(oldFingerprints[oldSlot]);
+      while(fingerprints[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      fingerprints[slot] = oldFingerprints[oldSlot];
+      offsets[slot] = oldOffsets[oldSlot];
+      lengths[slot] = oldLengths[oldSlot];
+      usedSlots[size++] = slot;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Reads pairs from a stream of lines holding a source and a target
+ * separated by a tab, such as the standard input. The line is split on its
+ * first tab; a line without one has an empty target, which the empty pair
+ * filter drops. The stream is closed with the reader.
+ */
+public class TsvPairReader implements IPairReader {
+  private final BufferedReader reader;
+  private final CountingInputStream stream;
+  private long lineNumber = 0;
+
+  public TsvPairReader(final InputStream theStream, final Charset theCharSet) {
+    stream = new CountingInputStream(theStream);
+    reader = new BufferedReader(new InputStreamReader(stream, theCharSet));
+  }
+
+  @Override
+  public ImmutablePair<String, String> readPair() throws IOException {
+    final String line = reader.readLine();
+    if(line == null) {
+      return null;
+    }
+
+    lineNumber++;
+    final int tab = line.indexOf('\t');
+    if(tab < 0) {
+      return new ImmutablePair<String, String>(StringUtils.strip(line), "");
+    }
+    return new ImmutablePair<String, String>(
+        StringUtils.strip(line.substring(0, tab)),
+        StringUtils.strip(line.substring(tab + 1)));
+  }
+
+  @Override
+  public long skipPairs(final long noPairs) throws IOException {
+    long noSkipped = 0;
+    while(noSkipped < noPairs && readPair() != null) {
+      noSkipped++;
+    }
+    return noSkipped;
+  }
+
+  @Override
+  public long getLineNumber() {
+    return lineNumber;
+  }
+
+  @Override
+  public long getBytesRead() {
+    return stream.getCount();
+  }
+
+  /**
+   * @return Always null, as each line holds both sentences.
+   */
+  @Override
+  public LineCountMismatchException getMismatch() {
+    return null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
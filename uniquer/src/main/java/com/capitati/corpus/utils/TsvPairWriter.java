@@ -0,0 +1,42 @@
+package com.capitati.corpus.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes pairs to a stream as lines holding a source and a target
+ * separated by a tab, such as the standard output. The stream is flushed
+ * on close but left open.
+ */
+public class TsvPairWriter implements IPairWriter {
+  private final CorpusLineWriter writer;
+
+  public TsvPairWriter(
+      final OutputStream theStream,
+      final String theName,
+      final Charset theCharSet,
+      final CorpusCompression theCompression) throws IOException {
+    writer =
+        new CorpusLineWriter(theStream, theName, theCharSet, theCompression);
+  }
+
+  @Override
+  public void writePair(final byte[] source, final byte[] target)
+  throws IOException {
+    writer.writeLine(source, target);
+  }
+
+  /**
+   * Only closes the writer, as what has reached the stream is gone.
+   */
+  @Override
+  public void discard() throws IOException {
+    close();
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+}
@@ -0,0 +1,299 @@
+package com.capitati.corpus.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts what a uniquer does as it goes, for {@link IUniquerMetrics} over
+ * JMX and for {@link PrometheusTextFile}.
+ * <p>
+ * Counters that a single thread moves are plain volatile fields that the
+ * reading and merging loops publish every {@link #PUBLISH_INTERVAL} pairs
+ * and at the end of each block and merge, so that the stores and the clock
+ * stay out of the work done for each pair; the rest are atomic.
+ */
+public class UniquerMetrics implements IUniquerMetrics {
+  public static final String DOMAIN = "com.capitati.corpus.utils";
+  /**
+   * How many pairs the reading and merging loops handle between updates.
+   */
+  public static final int PUBLISH_INTERVAL = 4096;
+
+  /**
+   * The phases of a job, in order.
+   */
+  public enum Phase {
+    IDLE, SORT, MERGE, DONE, FAILED;
+
+    public String getName() {
+      return name().toLowerCase();
+    }
+  }
+
+  private static final ThreadMXBean THREADS =
+      ManagementFactory.getThreadMXBean();
+
+  /**
+   * @return The CPU time of the calling thread, or zero where it cannot be
+   * measured.
+   */
+  static long getThreadCpuTime() {
+    return (THREADS.isCurrentThreadCpuTimeSupported() == true) ?
+        THREADS.getCurrentThreadCpuTime() : 0;
+  }
+
+  private volatile Phase phase = Phase.IDLE;
+  private volatile long lastProgressTime = System.currentTimeMillis();
+  // Moved by the reading thread
+  private volatile long pairsRead = 0;
+  private volatile long bytesRead = 0;
+  // Moved by the merging thread
+  private volatile long pairsWritten = 0;
+  private volatile long duplicates = 0;
+  private volatile int mergeFanIn = 0;
+  private final ConcurrentMap<String, AtomicLong> pairsDropped =
+      new ConcurrentHashMap<String, AtomicLong>();
+  private final AtomicLong runsSpilled = new AtomicLong();
+  private final AtomicLong runBytes = new AtomicLong();
+  private final AtomicLong largestRunBytes = new AtomicLong();
+  private final AtomicLong workerCpuTime = new AtomicLong();
+  private volatile long heapBudget = 0;
+  // The thread running the phase under way, and when it started
+  private volatile long phaseThreadId = -1;
+  private volatile long phaseStartWall = 0;
+  private volatile long phaseStartCpu = 0;
+  private volatile long sortWallTime = 0;
+  private volatile long sortCpuTime = 0;
+  private volatile long mergeWallTime = 0;
+  private volatile long mergeCpuTime = 0;
+  private ObjectName objectName = null;
+
+  /**
+   * Registers the metrics with the platform MBean server, under the type
+   * Uniquer and a name.
+   */
+  public synchronized void register(final String name) throws JMException {
+    final ObjectName theObjectName =
+        new ObjectName(
+            DOMAIN + ":type=Uniquer,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(
+        this, theObjectName);
+    objectName = theObjectName;
+  }
+
+  public synchronized void unregister() throws JMException {
+    if(objectName != null) {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if(server.isRegistered(objectName) == true) {
+        server.unregisterMBean(objectName);
+      }
+      objectName = null;
+    }
+  }
+
+  /**
+   * Ends the phase under way, if any, on the calling thread and starts
+   * another there.
+   */
+  public synchronized void enterPhase(final Phase thePhase) {
+    final long wall = System.nanoTime();
+    final long cpu = getThreadCpuTime();
+    if(phase == Phase.SORT) {
+      sortWallTime += wall - phaseStartWall;
+      sortCpuTime += cpu - phaseStartCpu;
+    } else if(phase == Phase.MERGE) {
+      mergeWallTime += wall - phaseStartWall;
+      mergeCpuTime += cpu - phaseStartCpu;
+    }
+
+    phase = thePhase;
+    phaseThreadId = Thread.currentThread().getId();
+    phaseStartWall = wall;
+    phaseStartCpu = cpu;
+    progressed();
+  }
+
+  private void progressed() {
+    lastProgressTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Records the input read so far, from the reading thread only.
+   */
+  public void read(final long thePairsRead, final long theBytesRead) {
+    pairsRead = thePairsRead;
+    bytesRead = theBytesRead;
+    progressed();
+  }
+
+  public void dropped(final String filter) {
+    AtomicLong count = pairsDropped.get(filter);
+    if(count == null) {
+      final AtomicLong newCount = new AtomicLong();
+      count = pairsDropped.putIfAbsent(filter, newCount);
+      if(count == null) {
+        count = newCount;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  /**
+   * Records a run spilled by any thread.
+   */
+  public void spilled(final long theRunBytes) {
+    runsSpilled.incrementAndGet();
+    runBytes.addAndGet(theRunBytes);
+    long largest = largestRunBytes.get();
+    while(theRunBytes > largest &&
+        largestRunBytes.compareAndSet(largest, theRunBytes) == false) {
+      largest = largestRunBytes.get();
+    }
+    progressed();
+  }
+
+  /**
+   * Adds CPU time spent on the phase by a thread other than the one that
+   * entered it.
+   */
+  public void addWorkerCpuTime(final long theCpuTime) {
+    workerCpuTime.addAndGet(theCpuTime);
+  }
+
+  public void setMergeFanIn(final int theMergeFanIn) {
+    mergeFanIn = theMergeFanIn;
+  }
+
+  /**
+   * Records the merge's output so far, from the merging thread only.
+   */
+  public void merged(final long thePairsWritten, final long theDuplicates) {
+    pairsWritten = thePairsWritten;
+    duplicates = theDuplicates;
+    progressed();
+  }
+
+  public void setHeapBudget(final long theHeapBudget) {
+    heapBudget = theHeapBudget;
+  }
+
+  // The time of the phase under way, if it is the one asked for
+  private synchronized long phaseTime(
+      final Phase thePhase, final boolean cpu) {
+    if(phase != thePhase) {
+      return 0;
+    }
+    if(cpu == false) {
+      return System.nanoTime() - phaseStartWall;
+    }
+    if(THREADS.isThreadCpuTimeSupported() == false) {
+      return 0;
+    }
+    final long now = THREADS.getThreadCpuTime(phaseThreadId);
+    return (now < 0) ? 0 : now - phaseStartCpu;
+  }
+
+  @Override
+  public String getPhase() {
+    return phase.getName();
+  }
+
+  @Override
+  public long getLastProgressTime() {
+    return lastProgressTime;
+  }
+
+  @Override
+  public long getPairsRead() {
+    return pairsRead;
+  }
+
+  @Override
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  @Override
+  public double getPairsReadPerSecond() {
+    final long wallTime = getSortWallTime();
+    return (wallTime > 0) ? pairsRead * 1e9 / wallTime : 0;
+  }
+
+  @Override
+  public Map<String, Long> getPairsDropped() {
+    final Map<String, Long> counts = new TreeMap<String, Long>();
+    for(final Map.Entry<String, AtomicLong> count : pairsDropped.entrySet()) {
+      counts.put(count.getKey(), count.getValue().get());
+    }
+    return counts;
+  }
+
+  @Override
+  public long getRunsSpilled() {
+    return runsSpilled.get();
+  }
+
+  @Override
+  public long getRunBytes() {
+    return runBytes.get();
+  }
+
+  @Override
+  public long getLargestRunBytes() {
+    return largestRunBytes.get();
+  }
+
+  @Override
+  public int getMergeFanIn() {
+    return mergeFanIn;
+  }
+
+  @Override
+  public long getPairsWritten() {
+    return pairsWritten;
+  }
+
+  @Override
+  public long getDuplicates() {
+    return duplicates;
+  }
+
+  @Override
+  public long getHeapUsed() {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  @Override
+  public long getHeapBudget() {
+    return heapBudget;
+  }
+
+  @Override
+  public long getSortWallTime() {
+    return sortWallTime + phaseTime(Phase.SORT, false);
+  }
+
+  @Override
+  public long getSortCpuTime() {
+    return sortCpuTime + phaseTime(Phase.SORT, true) + workerCpuTime.get();
+  }
+
+  @Override
+  public long getMergeWallTime() {
+    return mergeWallTime + phaseTime(Phase.MERGE, false);
+  }
+
+  @Override
+  public long getMergeCpuTime() {
+    return mergeCpuTime + phaseTime(Phase.MERGE, true);
+  }
+}
@@ -0,0 +1,31 @@
+package com.capitati.corpus.utils;
+
+/**
+ * The ways the command line tool can find duplicate sentence pairs.
+ */
+public enum UniquingMode {
+  /**
+   * External sort and merge with {@link CorpusUniquer}.
+   */
+  SORT,
+  /**
+   * Single pass, input order preserving, with {@link HashUniquer}.
+   */
+  HASH,
+  /**
+   * Single pass, input order preserving, also dropping pairs much like an
+   * earlier one, with {@link NearDuplicateUniquer}.
+   */
+  NEAR;
+
+  /**
+   * Looks a mode up by its command line name, e.g. "hash".
+   */
+  public static UniquingMode forName(final String name) {
+    return valueOf(name.trim().toUpperCase());
+  }
+
+  public String getName() {
+    return name().toLowerCase();
+  }
+}
@@ -0,0 +1,211 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnUniquerTest {
+  private static final String SUFFIX = "uniq";
+  private static final Charset CHAR_SET = Charset.forName("UTF-8");
+  private static final String[] LANGUAGES = {"en", "de", "fr"};
+  private final List<File> files = new ArrayList<File>();
+  private final List<File> outputs = new ArrayList<File>();
+  private File tempDir;
+  private Logger logger;
+  private CorpusTestFiles testFiles;
+
+  @Before
+  public void setUp() throws URISyntaxException {
+    testFiles = new CorpusTestFiles();
+    for(final String language : LANGUAGES) {
+      final File file = testFiles.create("columns." + language);
+      files.add(file);
+      outputs.add(testFiles.output(file, SUFFIX));
+    }
+    tempDir = testFiles.getTempDir();
+    logger = CorpusTestFiles.createLogger();
+  }
+
+  @After
+  public void tearDown() {
+    testFiles.delete();
+  }
+
+  private void createTestFiles(final String[]... columns) throws Exception {
+    for(int i = 0; i < columns.length; i++) {
+      testFiles.writeLines(Arrays.asList(columns[i]), files.get(i));
+    }
+  }
+
+  private List<String> readOutput(final int column) throws Exception {
+    return testFiles.readLines(outputs.get(column));
+  }
+
+  private ColumnUniquer createUniquer() {
+    return new ColumnUniquer(files, CHAR_SET, 10, tempDir, CHAR_SET, logger);
+  }
+
+  @Test
+  public void testUniquesOnKeyColumns() throws Exception {
+    createTestFiles(
+        new String[] {"b", "a", "A", "b", "c", "a"},
+        new String[] {"2", "1", "1", "3", "4", "1"},
+        new String[] {"deux", "un", "un", "trois", "", "une"});
+
+    // All columns: the same as a pair of the first two, bar the third
+    ImmutablePair<Long, Long> result =
+        createUniquer().unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+    Assert.assertEquals(1L, (long )result.getLeft());
+    Assert.assertEquals(4L, (long )result.getRight());
+    Assert.assertEquals(Arrays.asList("a", "a", "b", "b"), readOutput(0));
+    Assert.assertEquals(Arrays.asList("1", "1", "2", "3"), readOutput(1));
+    Assert.assertEquals(
+        Arrays.asList("un", "une", "deux", "trois"), readOutput(2));
+
+    // The first and second columns only, keeping the earliest line
+    final ColumnUniquer uniquer = createUniquer();
+    uniquer.setKeyColumns(0, 1);
+    result = uniquer.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+    Assert.assertEquals(2L, (long )result.getLeft());
+    Assert.assertEquals(3L, (long )result.getRight());
+    Assert.assertEquals(Arrays.asList("a", "b", "b"), readOutput(0));
+    Assert.assertEquals(
+        Arrays.asList("un", "deux", "trois"), readOutput(2));
+  }
+
+  @Test
+  public void testSpillsEveryColumnTogether() throws Exception {
+    final int noRows = 40000;
+    final String[][] columns = new String[LANGUAGES.length][noRows];
+    for(int i = 0; i < noRows; i++) {
+      for(int j = 0; j < LANGUAGES.length; j++) {
+        columns[j][i] = LANGUAGES[j] + " " + (i % 5000);
+      }
+    }
+    createTestFiles(columns);
+
+    final ColumnUniquer uniquer = createUniquer();
+    // Blocks of the smallest size, about 10000 rows each, merged in
+    // several passes
+    uniquer.setMemoryBudget(new MemoryBudget(1));
+    uniquer.setMaxFanIn(2);
+    uniquer.setKeyColumns(2);
+    final ImmutablePair<Long, Long> result =
+        uniquer.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+
+    Assert.assertEquals(35000L, (long )result.getLeft());
+    Assert.assertEquals(5000L, (long )result.getRight());
+    final List<String> en = readOutput(0);
+    final List<String> fr = readOutput(2);
+    for(int i = 0; i < en.size(); i++) {
+      Assert.assertEquals(
+          en.get(i).substring(3), fr.get(i).substring(3));
+    }
+  }
+
+  private ColumnUniquer createResumableUniquer(
+      final File manifestFile, final long failingLine) {
+    final ColumnUniquer uniquer = createUniquer();
+    // Blocks of the smallest size, sorted on two threads
+    uniquer.setMemoryBudget(new MemoryBudget(1));
+    uniquer.setNoSortThreads(2);
+    uniquer.setKeyColumns(2);
+    uniquer.setJobManifest(manifestFile);
+    uniquer.setAuditSink(
+        new IAuditSink() {
+          @Override
+          public void dropped(
+              final String filter,
+              final long lineNumber,
+              final String source,
+              final String target) throws IOException {
+            if(lineNumber == failingLine) {
+              throw new IOException("Failing on line " + lineNumber);
+            }
+          }
+
+          @Override
+          public void duplicate(
+              final long lineNumber,
+              final byte[] source,
+              final byte[] target) {
+          }
+
+          @Override
+          public void close() {
+          }
+        });
+    return uniquer;
+  }
+
+  @Test
+  public void testResumesFromJobManifest() throws Exception {
+    final int noRows = 30000;
+    final int failingLine = 25000;
+    final String[][] columns = new String[LANGUAGES.length][noRows];
+    for(int i = 0; i < noRows; i++) {
+      for(int j = 0; j < LANGUAGES.length; j++) {
+        columns[j][i] = LANGUAGES[j] + " " + (i % 5000);
+      }
+    }
+    columns[2][failingLine - 1] = "";
+    createTestFiles(columns);
+
+    final File manifestFile = testFiles.create("columns.manifest");
+    try {
+      createResumableUniquer(manifestFile, failingLine).unique(
+          SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+      Assert.fail("The audit sink should have failed");
+    } catch(final IOException ex) {
+      // Expected
+    }
+    Assert.assertTrue(manifestFile.exists());
+
+    final ColumnUniquer uniquer = createResumableUniquer(manifestFile, -1);
+    final ImmutablePair<Long, Long> result =
+        uniquer.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+
+    Assert.assertEquals(noRows - 5000 - 1, (long )result.getLeft());
+    Assert.assertEquals(5000L, (long )result.getRight());
+    Assert.assertFalse(manifestFile.exists());
+    Assert.assertEquals(0, testFiles.getTempDir().listFiles().length);
+    Assert.assertEquals("done", uniquer.getMetrics().getPhase());
+    Assert.assertEquals(5000L, uniquer.getMetrics().getPairsWritten());
+    final List<String> en = readOutput(0);
+    final List<String> fr = readOutput(2);
+    Assert.assertEquals(5000, fr.size());
+    for(int i = 0; i < en.size(); i++) {
+      Assert.assertEquals(
+          en.get(i).substring(3), fr.get(i).substring(3));
+    }
+  }
+
+  @Test
+  public void testLineCountMismatch() throws Exception {
+    createTestFiles(
+        new String[] {"a", "b"},
+        new String[] {"1", "2"},
+        new String[] {"un"});
+
+    try {
+      createUniquer().uniqueWithLineCountCheck(
+          SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+      Assert.fail("Expected a line count mismatch");
+    } catch(final LineCountMismatchException ex) {
+      Assert.assertEquals(files.get(2), ex.getShorterFile());
+      Assert.assertEquals(1, ex.getLineNumber());
+    }
+  }
+}
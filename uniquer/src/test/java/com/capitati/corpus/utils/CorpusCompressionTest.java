@@ -0,0 +1,95 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class CorpusCompressionTest {
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    // No extension, so compression has to be recognised by the magic bytes
+    file = File.createTempFile("compression", "test");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private void writeAndVerify(final CorpusCompression compression)
+  throws Exception {
+    final List<String> lines = new ArrayList<String>();
+    for(int i = 0; i < 100000; i++) {
+      lines.add("line " + i + " ω 中");
+    }
+
+    final CorpusLineWriter writer =
+        new CorpusLineWriter(file, Charsets.UTF_8, compression, false);
+    try {
+      for(final String line : lines) {
+        writer.writeLine(line.getBytes(Charsets.UTF_8));
+      }
+    } finally {
+      writer.close();
+    }
+
+    Assert.assertEquals(compression, CorpusCompression.detect(file));
+    final BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                CorpusCompression.open(file), Charsets.UTF_8));
+    final List<String> read = new ArrayList<String>();
+    try {
+      String line = null;
+      while((line = reader.readLine()) != null) {
+        read.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    Assert.assertEquals(lines, read);
+
+    Assert.assertEquals(
+        lines.size(),
+        (long )new FileLineCounter(Charsets.UTF_8, file).countLines().get(
+            file));
+  }
+
+  @Test
+  public void testGzip() throws Exception {
+    writeAndVerify(CorpusCompression.GZIP);
+  }
+
+  @Test
+  public void testBzip2() throws Exception {
+    writeAndVerify(CorpusCompression.BZIP2);
+  }
+
+  @Test
+  public void testPlainStream() throws Exception {
+    Assert.assertEquals(
+        CorpusCompression.NONE,
+        CorpusCompression.forName(" None "));
+
+    // Shorter than any magic bytes
+    final byte[] bytes = "a\n".getBytes(Charsets.UTF_8);
+    final byte[] read = new byte[8];
+    final int noBytes =
+        CorpusCompression.open(new ByteArrayInputStream(bytes)).read(read);
+    Assert.assertEquals(bytes.length, noBytes);
+    Assert.assertEquals("a\n", new String(read, 0, noBytes, Charsets.UTF_8));
+  }
+}
@@ -0,0 +1,108 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class CorpusLineWriterTest {
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("writer", "test");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private void writeAndVerify(
+      final Charset charSet, final boolean sync, final String ... lines)
+  throws Exception {
+    final CorpusLineWriter writer = new CorpusLineWriter(file, charSet, sync);
+    try {
+      for(final String line : lines) {
+        writer.writeLine(line.getBytes(Charsets.UTF_8));
+      }
+    } finally {
+      writer.close();
+    }
+
+    final List<String> written = Files.readAllLines(file.toPath(), charSet);
+    Assert.assertEquals(Arrays.asList(lines), written);
+  }
+
+  @Test
+  public void testUtf8() throws Exception {
+    writeAndVerify(Charsets.UTF_8, false, "one", "", "two ω 中", "three");
+  }
+
+  @Test
+  public void testReencoded() throws Exception {
+    writeAndVerify(Charsets.ISO_8859_1, true, "één", "twee", "drie");
+  }
+
+  @Test
+  public void testManyBatches() throws Exception {
+    // Lines both larger and smaller than a batch
+    final String[] lines = new String[200];
+    for(int i = 0; i < lines.length; i++) {
+      lines[i] = StringUtils.repeat("ω", (i % 10 == 0) ? 700000 : i * 100);
+    }
+    writeAndVerify(Charsets.UTF_8, false, lines);
+  }
+
+  @Test
+  public void testReencodedManyBatches() throws Exception {
+    // A byte order mark at the start only, however many batches there are
+    final String[] lines = new String[3000];
+    for(int i = 0; i < lines.length; i++) {
+      lines[i] = i + " " + StringUtils.repeat("ω", 500);
+    }
+    writeAndVerify(Charset.forName("UTF-16"), false, lines);
+  }
+
+  @Test(timeout = 10000)
+  public void testWriterThreadFailure() throws Exception {
+    final OutputStream failing = new OutputStream() {
+      @Override
+      public void write(final int b) {
+        throw new IllegalStateException("Failed");
+      }
+
+      @Override
+      public void write(
+          final byte[] bytes, final int offset, final int length) {
+        throw new IllegalStateException("Failed");
+      }
+    };
+
+    // Many more batches than are recycled, so a dead writer thread would
+    // leave the caller waiting for a free one
+    final byte[] line = StringUtils.repeat("x", 1000).getBytes(Charsets.UTF_8);
+    final CorpusLineWriter writer =
+        new CorpusLineWriter(failing, "failing", Charsets.UTF_8);
+    try {
+      for(int i = 0; i < 10000; i++) {
+        writer.writeLine(line);
+      }
+      writer.close();
+      Assert.fail("The writer thread should have failed");
+    } catch(final IllegalStateException ex) {
+      Assert.assertEquals("Failed", ex.getMessage());
+    }
+  }
+}
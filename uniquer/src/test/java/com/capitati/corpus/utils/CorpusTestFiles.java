@@ -0,0 +1,102 @@
+package com.capitati.corpus.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.NOPLogger;
+import org.apache.log4j.spi.NOPLoggerRepository;
+
+/**
+ * The files a uniquer test writes its corpus to and reads the output from,
+ * in the test classes directory, and the temporary directory the uniquer
+ * spills to. The files are deleted once the test is done.
+ */
+final class CorpusTestFiles {
+  private static final Charset CHAR_SET = Charset.forName("UTF-8");
+
+  private final String directory;
+  private final File tempDir;
+  private final List<File> files = new ArrayList<File>();
+
+  CorpusTestFiles() throws URISyntaxException {
+    directory =
+        getClass().getClassLoader().getResource(".").toURI().getRawPath();
+    tempDir = new File(directory, "temp");
+    if(tempDir.exists() == false) {
+      tempDir.mkdirs();
+    }
+  }
+
+  static Logger createLogger() {
+    return new NOPLogger(new NOPLoggerRepository(), "uniquer");
+  }
+
+  File getTempDir() {
+    return tempDir;
+  }
+
+  /**
+   * @return A file in the test classes directory.
+   */
+  File create(final String name) {
+    final File file = new File(directory, name);
+    files.add(file);
+    return file;
+  }
+
+  /**
+   * @return The file a uniquer writes a file's output to.
+   */
+  File output(final File file, final String suffix) {
+    final File output = new File(file.getPath() + "." + suffix);
+    files.add(output);
+    return output;
+  }
+
+  void delete() {
+    for(final File file : files) {
+      file.delete();
+    }
+  }
+
+  void writeLines(final List<String> lines, final File file)
+  throws Exception {
+    final BufferedWriter writer =
+        new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), CHAR_SET));
+    try {
+      for(final String line : lines) {
+        writer.write(line);
+        writer.newLine();
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  List<String> readLines(final File file) throws Exception {
+    final List<String> lines = new ArrayList<String>();
+    final BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), CHAR_SET));
+    try {
+      String line = null;
+      while((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return lines;
+  }
+}
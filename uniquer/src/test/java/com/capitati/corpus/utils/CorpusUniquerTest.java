@@ -2,14 +2,21 @@ package com.capitati.corpus.utils;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.Assert;
 
@@ -22,6 +29,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+
 /**
  * Unit test for simple App.
  */
@@ -43,6 +52,8 @@ public class CorpusUniquerTest {
 	private File uniqTargetFile;
 	private File tempDir;
 	private Logger logger;
+	private int noSortThreads;
+	private IRunCodec runCodec;
 	
 	@Before
 	public void setUp() throws URISyntaxException {
@@ -57,6 +68,8 @@ public class CorpusUniquerTest {
 	  }
 	  
 	  logger = Logger.getLogger(CorpusUniquerTest.class);
+	  noSortThreads = 1;
+	  runCodec = RunCodec.NONE;
 	}
 
 	@After
@@ -152,6 +165,8 @@ public class CorpusUniquerTest {
         tempDir,
         OUTPUT_CHAR_SET,
         logger);
+    sorter.setNoSortThreads(noSortThreads);
+    sorter.setRunCodec(runCodec);
     final ImmutablePair<Long, Long> result = sorter.unique(SUFFIX, maxNoTokens);
     
     Assert.assertEquals(noSentencePairs, (long )result.getRight());
@@ -177,6 +192,60 @@ public class CorpusUniquerTest {
         ICorpusUniquer.UNLIMITED_TOKENS);
   }
 	
+  private ImmutablePair<Long, Long> uniqueInBlocks(
+      final int theNoSortThreads, final List<String> outputLines)
+  throws Exception {
+    final CorpusUniquer sorter = new CorpusUniquer(
+        sourceFile,
+        targetFile,
+        INPUT_CHAR_SET,
+        100,
+        tempDir,
+        OUTPUT_CHAR_SET,
+        logger);
+    // Blocks of the smallest size, several of them in flight at once
+    sorter.setMemoryBudget(new MemoryBudget(1));
+    sorter.setNoSortThreads(theNoSortThreads);
+    final ImmutablePair<Long, Long> result =
+        sorter.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+    Assert.assertTrue(sorter.getMetrics().getRunsSpilled() > 4);
+
+    final List<String> source =
+        Files.readAllLines(uniqSourceFile.toPath(), OUTPUT_CHAR_SET);
+    final List<String> target =
+        Files.readAllLines(uniqTargetFile.toPath(), OUTPUT_CHAR_SET);
+    for(int i = 0; i < source.size(); i++) {
+      outputLines.add(source.get(i) + "\t" + target.get(i));
+    }
+    return result;
+  }
+
+  @Test
+  public void testCorpusSortWithSortThreads() throws Exception {
+    final int noPairs = 60000;
+    final String[] source = new String[noPairs];
+    final String[] target = new String[noPairs];
+    for(int i = 0; i < noPairs; i++) {
+      // Each sentence comes again, cased otherwise, in later blocks
+      final int sentence = i % 20000;
+      source[i] =
+          ((i / 20000 % 2 == 0) ? "Sentence " : "sentence ") + sentence;
+      target[i] = "Satz " + (sentence % 3);
+    }
+    createTestFiles(source, target);
+
+    final List<String> expected = new ArrayList<String>();
+    final ImmutablePair<Long, Long> expectedResult =
+        uniqueInBlocks(1, expected);
+    final List<String> actual = new ArrayList<String>();
+    final ImmutablePair<Long, Long> result = uniqueInBlocks(4, actual);
+
+    Assert.assertEquals(40000L, (long )expectedResult.getLeft());
+    Assert.assertEquals(20000L, (long )expectedResult.getRight());
+    Assert.assertEquals(expectedResult, result);
+    Assert.assertEquals(expected, actual);
+  }
+
 	@Test
 	public void testWithDuplicates() throws Exception {
     final String[] source = {
@@ -205,6 +274,302 @@ public class CorpusUniquerTest {
         ICorpusUniquer.UNLIMITED_TOKENS);
   }
 	
+  @Test
+  public void testWithDuplicatesDeflatedRuns() throws Exception {
+    final String[] source = {
+        "The man in the hat",
+        "THE  MAN IN THE HAT",
+        "The  man in the hat",
+        "The man  in the hat",
+        "THE MAN IN THE HAT",
+        "THE  MAN IN THE HAT"};
+    final String[] target = {"5", "5", "2", "3", "4", "5"};
+    final String[] targetSource = {
+        "THE  MAN IN THE HAT",
+        "The  man in the hat",
+        "The man  in the hat",
+        "THE MAN IN THE HAT"
+    };
+    final String[] targetTarget = {"5", "2", "3", "4"};
+
+    runCodec = RunCodec.DEFLATE;
+    createTestAndVerify(
+        source,
+        target,
+        targetSource,
+        targetTarget,
+        4,
+        2,
+        ICorpusUniquer.UNLIMITED_TOKENS);
+  }
+
+  @Test
+  public void testWithDuplicatesCascadedMerge() throws Exception {
+    final String[] source = {
+        "The man in the hat",
+        "THE  MAN IN THE HAT",
+        "The  man in the hat",
+        "The man  in the hat",
+        "THE MAN IN THE HAT",
+        "THE  MAN IN THE HAT"};
+    final String[] target = {"5", "5", "2", "3", "4", "5"};
+    final String[] targetSource = {
+        "THE  MAN IN THE HAT",
+        "The  man in the hat",
+        "The man  in the hat",
+        "THE MAN IN THE HAT"
+    };
+    final String[] targetTarget = {"5", "2", "3", "4"};
+
+    createTestFiles(source, target);
+    final CorpusUniquer sorter = new CorpusUniquer(
+        sourceFile,
+        targetFile,
+        INPUT_CHAR_SET,
+        10,
+        tempDir,
+        OUTPUT_CHAR_SET,
+        logger);
+
+    // One run per pair, merged two at a time over three passes
+    final List<File> runs = new ArrayList<File>();
+    for(int i = 0; i < source.length; i++) {
+      final List<SortRecord> block = new ArrayList<SortRecord>();
+      block.add(new SortRecord(source[i], target[i]));
+      runs.add(sorter.sortAndSave(block));
+    }
+    final List<File> reduced =
+        new RunCascade(
+            tempDir,
+            RunCodec.NONE,
+            RunReadAhead.DEFAULT_BUFFER_SIZE,
+            MergeEngine.LOSER_TREE,
+            logger).reduce(runs, 2);
+    Assert.assertEquals(2, reduced.size());
+
+    final ImmutablePair<Long, Long> result =
+        sorter.mergeSortedFiles(uniqSourceFile, uniqTargetFile, reduced);
+    Assert.assertEquals(4, (long )result.getRight());
+    Assert.assertEquals(2, (long )result.getLeft());
+
+    verifyFiles(targetSource, targetTarget);
+  }
+
+  @Test
+  public void testAuditLog() throws Exception {
+    final String[] source = {"b", "a", "B", "c\td", "a"};
+    final String[] target = {"2", "1", "2", "", "1"};
+    createTestFiles(source, target);
+
+    final File auditFile = new File(tempDir, "audit.tsv");
+    final AuditLog auditLog = new AuditLog(auditFile, 1);
+    final CorpusUniquer sorter = new CorpusUniquer(
+        sourceFile,
+        targetFile,
+        INPUT_CHAR_SET,
+        10,
+        tempDir,
+        OUTPUT_CHAR_SET,
+        logger);
+    sorter.setAuditSink(auditLog);
+    sorter.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+    auditLog.close();
+
+    // Drops are seen whilst reading, duplicates whilst merging
+    final List<String> records =
+        Files.readAllLines(auditFile.toPath(), Charsets.UTF_8);
+    auditFile.delete();
+    Assert.assertEquals(
+        Arrays.asList(
+            "filter:empty\t4\tc\\td\t",
+            "duplicate\t5\ta\t1",
+            "duplicate\t3\tB\t2"),
+        records);
+    Assert.assertEquals(2, (long )auditLog.getCounts().get("duplicate"));
+  }
+
+  private ImmutablePair<Long, Long> uniqueWithManifest(
+      final File manifestFile, final IAuditSink auditSink) throws Exception {
+    return uniqueWithManifest(manifestFile, auditSink, ScanFilter.UNLIMITED);
+  }
+
+  private ImmutablePair<Long, Long> uniqueWithManifest(
+      final File manifestFile,
+      final IAuditSink auditSink,
+      final double maxTokenRatio) throws Exception {
+    final CorpusUniquer sorter = new CorpusUniquer(
+        sourceFile,
+        targetFile,
+        INPUT_CHAR_SET,
+        10,
+        tempDir,
+        OUTPUT_CHAR_SET,
+        logger);
+    // Blocks of the smallest size, merged two at a time
+    sorter.setMemoryBudget(new MemoryBudget(1));
+    sorter.setJobManifest(manifestFile);
+    sorter.setAuditSink(auditSink);
+    final ScanFilter ratioFilter = new ScanFilter();
+    ratioFilter.setMaxTokenRatio(maxTokenRatio);
+    sorter.addFilter(ratioFilter);
+    return sorter.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+  }
+
+  private static IAuditSink failingAuditSink(final long failingLine) {
+    return new IAuditSink() {
+      @Override
+      public void dropped(
+          final String filter,
+          final long lineNumber,
+          final String source,
+          final String target) throws IOException {
+        if(lineNumber == failingLine) {
+          throw new IOException("Failing on line " + lineNumber);
+        }
+      }
+
+      @Override
+      public void duplicate(
+          final long lineNumber, final byte[] source, final byte[] target) {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  private static IAuditSink recordingAuditSink(final List<Long> droppedLines) {
+    return new IAuditSink() {
+      @Override
+      public void dropped(
+          final String filter,
+          final long lineNumber,
+          final String source,
+          final String target) {
+        droppedLines.add(lineNumber);
+      }
+
+      @Override
+      public void duplicate(
+          final long lineNumber, final byte[] source, final byte[] target) {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  @Test
+  public void testResumeFromJobManifest() throws Exception {
+    final int noPairs = 30000;
+    final int failingLine = 25000;
+    final String[] source = new String[noPairs];
+    final String[] target = new String[noPairs];
+    for(int i = 0; i < noPairs; i++) {
+      source[i] = "sentence " + (i % 9000) + " of the padded test corpus";
+      target[i] = "satz " + (i % 9000) + " des gepolsterten testkorpus";
+    }
+    source[4] = "";
+    source[failingLine - 1] = "";
+    createTestFiles(source, target);
+
+    final File manifestFile = new File(tempDir, "job.manifest");
+    final List<Long> droppedLines = new ArrayList<Long>();
+
+    try {
+      uniqueWithManifest(manifestFile, failingAuditSink(failingLine));
+      Assert.fail("The audit sink should have failed");
+    } catch(final IOException ex) {
+      // Expected
+    }
+    Assert.assertTrue(manifestFile.exists());
+
+    final ImmutablePair<Long, Long> result =
+        uniqueWithManifest(manifestFile, recordingAuditSink(droppedLines));
+    Assert.assertEquals(9000, (long )result.getRight());
+    Assert.assertEquals(noPairs - 9000 - 2, (long )result.getLeft());
+    // Lines before the last run spilled were not read again
+    Assert.assertEquals(Arrays.asList((long )failingLine), droppedLines);
+    Assert.assertFalse(manifestFile.exists());
+    final List<String> uniqSource =
+        Files.readAllLines(uniqSourceFile.toPath(), OUTPUT_CHAR_SET);
+    Assert.assertEquals(9000, uniqSource.size());
+    Assert.assertEquals(
+        "sentence 0 of the padded test corpus", uniqSource.get(0));
+    // The runs kept for resuming are gone once the job is done
+    Assert.assertEquals(0, tempDir.listFiles().length);
+  }
+
+  @Test
+  public void testResumeWithOtherFilterSettings() throws Exception {
+    final int noPairs = 30000;
+    final int failingLine = 25000;
+    final String[] source = new String[noPairs];
+    final String[] target = new String[noPairs];
+    for(int i = 0; i < noPairs; i++) {
+      source[i] = "sentence " + (i % 9000) + " of the padded test corpus";
+      target[i] = "satz " + (i % 9000) + " des gepolsterten testkorpus";
+    }
+    source[4] = "";
+    source[failingLine - 1] = "";
+    createTestFiles(source, target);
+
+    final File manifestFile = new File(tempDir, "job.manifest");
+    final List<Long> droppedLines = new ArrayList<Long>();
+    try {
+      uniqueWithManifest(manifestFile, failingAuditSink(failingLine), 2);
+      Assert.fail("The audit sink should have failed");
+    } catch(final IOException ex) {
+      // Expected
+    }
+    Assert.assertTrue(manifestFile.exists());
+
+    // Another ratio may drop other pairs, so the runs are not reused
+    final ImmutablePair<Long, Long> result = uniqueWithManifest(
+        manifestFile, recordingAuditSink(droppedLines), 3);
+    Assert.assertEquals(9000, (long )result.getRight());
+    Assert.assertEquals(noPairs - 9000 - 2, (long )result.getLeft());
+    Assert.assertEquals(
+        Arrays.asList(5L, (long )failingLine), droppedLines);
+    Assert.assertFalse(manifestFile.exists());
+    Assert.assertEquals(0, tempDir.listFiles().length);
+  }
+
+  @Test
+  public void testStreamedWithDuplicates() throws Exception {
+    final String input =
+        "The man in the hat\t5\n" +
+        "THE  MAN IN THE HAT\t5\n" +
+        "No target\n" +
+        "The  man in the hat\t2\n" +
+        "THE MAN IN THE HAT\t4\n" +
+        "THE  MAN IN THE HAT\t5\n";
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    final CorpusUniquer sorter = new CorpusUniquer(
+        new StreamCorpus(
+            new ByteArrayInputStream(input.getBytes(INPUT_CHAR_SET)), output),
+        INPUT_CHAR_SET,
+        10,
+        tempDir,
+        OUTPUT_CHAR_SET,
+        logger);
+    final ImmutablePair<Long, Long> result =
+        sorter.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+
+    Assert.assertEquals(3, (long )result.getRight());
+    Assert.assertEquals(2, (long )result.getLeft());
+    final String newLine = System.getProperty("line.separator");
+    Assert.assertEquals(
+        "THE  MAN IN THE HAT\t5" + newLine +
+        "The  man in the hat\t2" + newLine +
+        "THE MAN IN THE HAT\t4" + newLine,
+        new String(output.toByteArray(), OUTPUT_CHAR_SET));
+    Assert.assertFalse(uniqSourceFile.exists());
+  }
+
 	@Test
 	public void testFilterLongSentences() throws Exception {
 	  final String[] source = {
@@ -244,6 +609,35 @@ public class CorpusUniquerTest {
 	      3);
 	  }
 
+  @Test
+  public void testLineCountMismatch() throws Exception {
+    createTestFiles(new String[] {"a", "b"}, new String[] {"1", "2"});
+    final FileOutputStream extra = new FileOutputStream(targetFile, true);
+    try {
+      extra.write("3\n".getBytes(INPUT_CHAR_SET));
+    } finally {
+      extra.close();
+    }
+
+    final CorpusUniquer sorter = new CorpusUniquer(
+        sourceFile,
+        targetFile,
+        INPUT_CHAR_SET,
+        10,
+        tempDir,
+        OUTPUT_CHAR_SET,
+        logger);
+    try {
+      sorter.uniqueWithLineCountCheck(
+          SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+      Assert.fail("Expected a line count mismatch");
+    } catch(final LineCountMismatchException ex) {
+      Assert.assertEquals(sourceFile, ex.getShorterFile());
+      Assert.assertEquals(2, ex.getLineNumber());
+    }
+    Assert.assertFalse(uniqSourceFile.exists());
+  }
+
 	@Test
 	public void testEmptyLines() throws Exception {
 	  final String[] source = {
@@ -0,0 +1,71 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileLineCounterTest {
+  private File terminated;
+  private File unterminated;
+  private File empty;
+
+  @Before
+  public void setUp() throws Exception {
+    terminated = File.createTempFile("counter", "terminated");
+    unterminated = File.createTempFile("counter", "unterminated");
+    empty = File.createTempFile("counter", "empty");
+  }
+
+  @After
+  public void tearDown() {
+    terminated.delete();
+    unterminated.delete();
+    empty.delete();
+  }
+
+  private static void write(
+      final File file, final String text, final Charset charSet)
+  throws Exception {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(text.getBytes(charSet));
+    } finally {
+      out.close();
+    }
+  }
+
+  private void countAndVerify(final Charset charSet) throws Exception {
+    write(terminated, "one\ntwo ω\nthree\n", charSet);
+    write(unterminated, "one\n\nthree 中", charSet);
+    write(empty, "", charSet);
+
+    final Map<File, Long> lineNos =
+        new FileLineCounter(charSet, terminated, unterminated, empty).
+            countLines();
+
+    Assert.assertEquals(3L, (long )lineNos.get(terminated));
+    Assert.assertEquals(3L, (long )lineNos.get(unterminated));
+    Assert.assertEquals(0L, (long )lineNos.get(empty));
+  }
+
+  @Test
+  public void testMappedCount() throws Exception {
+    Assert.assertTrue(
+        FileLineCounter.isAsciiCompatible(Charset.forName("UTF-8")));
+    countAndVerify(Charset.forName("UTF-8"));
+  }
+
+  @Test
+  public void testDecodingCount() throws Exception {
+    Assert.assertFalse(
+        FileLineCounter.isAsciiCompatible(Charset.forName("UTF-16")));
+    countAndVerify(Charset.forName("UTF-16"));
+  }
+}
@@ -0,0 +1,246 @@
+package com.capitati.corpus.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashUniquerTest {
+  private static final String SUFFIX = "uniq";
+  private static final Charset CHAR_SET = Charset.forName("UTF-8");
+  private File sourceFile;
+  private File targetFile;
+  private File uniqSourceFile;
+  private File uniqTargetFile;
+  private File tempDir;
+  private Logger logger;
+  private CorpusTestFiles testFiles;
+
+  @Before
+  public void setUp() throws URISyntaxException {
+    testFiles = new CorpusTestFiles();
+    sourceFile = testFiles.create("hash-source.test");
+    targetFile = testFiles.create("hash-target.test");
+    uniqSourceFile = testFiles.output(sourceFile, SUFFIX);
+    uniqTargetFile = testFiles.output(targetFile, SUFFIX);
+    tempDir = testFiles.getTempDir();
+    logger = CorpusTestFiles.createLogger();
+  }
+
+  @After
+  public void tearDown() {
+    testFiles.delete();
+  }
+
+  private void uniqueAndVerify(
+      final List<String> source,
+      final List<String> target,
+      final long maxMemory) throws Exception {
+    testFiles.writeLines(source, sourceFile);
+    testFiles.writeLines(target, targetFile);
+
+    // Expected: first occurrence of each normalised pair, in input order
+    final List<String> expectedSource = new ArrayList<String>();
+    final List<String> expectedTarget = new ArrayList<String>();
+    final Set<String> seen = new HashSet<String>();
+    for(int i = 0; i < source.size(); i++) {
+      final String key =
+          source.get(i).toLowerCase().replaceAll("[ ]+", "_") + "\t" +
+          target.get(i).toLowerCase().replaceAll("[ ]+", "_");
+      if(seen.add(key) == true) {
+        expectedSource.add(source.get(i));
+        expectedTarget.add(target.get(i));
+      }
+    }
+
+    final HashUniquer uniquer = new HashUniquer(
+        sourceFile, targetFile, CHAR_SET, tempDir, CHAR_SET, logger);
+    uniquer.setMaxMemory(maxMemory);
+    final ImmutablePair<Long, Long> result =
+        uniquer.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+
+    Assert.assertEquals(expectedSource.size(), (long )result.getRight());
+    Assert.assertEquals(
+        source.size() - expectedSource.size(), (long )result.getLeft());
+    Assert.assertEquals(expectedSource, testFiles.readLines(uniqSourceFile));
+    Assert.assertEquals(expectedTarget, testFiles.readLines(uniqTargetFile));
+  }
+
+  @Test
+  public void testKeepsInputOrder() throws Exception {
+    final List<String> source = new ArrayList<String>();
+    final List<String> target = new ArrayList<String>();
+    final String[][] pairs = {
+        {"z", "1"}, {"The man  in the hat", "5"}, {"a", "2"},
+        {"THE MAN IN THE HAT", "5"}, {"z", "2"}, {"Z", "1"}};
+    for(final String[] pair : pairs) {
+      source.add(pair[0]);
+      target.add(pair[1]);
+    }
+
+    uniqueAndVerify(source, target, Runtime.getRuntime().maxMemory());
+  }
+
+  @Test
+  public void testSpillsToPartitions() throws Exception {
+    final Random random = new Random(3);
+    final List<String> source = new ArrayList<String>();
+    final List<String> target = new ArrayList<String>();
+    for(int i = 0; i < 20000; i++) {
+      final int n = random.nextInt(5000);
+      source.add("sentence " + n);
+      target.add("satz " + (n % 7));
+    }
+
+    // Too small for more than the initial table
+    uniqueAndVerify(source, target, 0);
+  }
+
+  @Test
+  public void testStreamsTabSeparatedPairs() throws Exception {
+    final Random random = new Random(5);
+    final List<String> source = new ArrayList<String>();
+    final List<String> target = new ArrayList<String>();
+    final StringBuilder input = new StringBuilder();
+    for(int i = 0; i < 20000; i++) {
+      final int n = random.nextInt(5000);
+      source.add("sentence " + n);
+      target.add("satz " + (n % 7));
+      input.append(source.get(i)).append('\t').append(target.get(i));
+      input.append('\n');
+    }
+    uniqueAndVerify(source, target, 0);
+
+    // A stream of unknown size spills to partitions all the same
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final HashUniquer uniquer = new HashUniquer(
+        new StreamCorpus(
+            new ByteArrayInputStream(input.toString().getBytes(CHAR_SET)),
+            output),
+        CHAR_SET,
+        tempDir,
+        CHAR_SET,
+        logger);
+    uniquer.setMaxMemory(0);
+    uniquer.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+
+    final List<String> uniqSource = testFiles.readLines(uniqSourceFile);
+    final List<String> uniqTarget = testFiles.readLines(uniqTargetFile);
+    final List<String> expected = new ArrayList<String>();
+    for(int i = 0; i < uniqSource.size(); i++) {
+      expected.add(uniqSource.get(i) + "\t" + uniqTarget.get(i));
+    }
+    Assert.assertEquals(
+        expected,
+        Arrays.asList(
+            new String(output.toByteArray(), CHAR_SET).split(
+                System.getProperty("line.separator"))));
+  }
+
+  @Test
+  public void testAppendsAgainstFingerprintIndex() throws Exception {
+    final File indexFile = new File(tempDir, "hash.index");
+    final List<String> expectedSource = new ArrayList<String>();
+    final Set<String> seen = new HashSet<String>();
+    final Random random = new Random(13);
+
+    try {
+      // Each crawl repeats some of the last; the second outgrows the table
+      for(final int noPairs : new int[] {20000, 80000, 1000}) {
+        final int noWritten = expectedSource.size();
+        final List<String> source = new ArrayList<String>();
+        final List<String> target = new ArrayList<String>();
+        for(int i = 0; i < noPairs; i++) {
+          final int n = random.nextInt(noPairs);
+          source.add("sentence " + n);
+          target.add("satz");
+          if(seen.add("sentence " + n) == true) {
+            expectedSource.add("sentence " + n);
+          }
+        }
+        testFiles.writeLines(source, sourceFile);
+        testFiles.writeLines(target, targetFile);
+
+        final HashUniquer uniquer = new HashUniquer(
+            sourceFile, targetFile, CHAR_SET, tempDir, CHAR_SET, logger);
+        uniquer.setMaxMemory(0);
+        uniquer.setFingerprintIndex(indexFile);
+        final ImmutablePair<Long, Long> result =
+            uniquer.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+
+        Assert.assertEquals(
+            expectedSource.size() - noWritten, (long )result.getRight());
+        Assert.assertEquals(
+            noPairs - result.getRight(), (long )result.getLeft());
+        Assert.assertEquals(
+            expectedSource, testFiles.readLines(uniqSourceFile));
+        Assert.assertEquals(
+            expectedSource.size(), testFiles.readLines(uniqTargetFile).size());
+      }
+
+      // A run that fails leaves the output and the index as they were
+      final HashUniquer failing = new HashUniquer(
+          sourceFile, targetFile, CHAR_SET, tempDir, CHAR_SET, logger);
+      failing.setFingerprintIndex(indexFile);
+      failing.addFilter(
+          new IPairFilter() {
+            @Override
+            public String getName() {
+              return "failing";
+            }
+
+            @Override
+            public String describe() {
+              return getName();
+            }
+
+            @Override
+            public boolean accept(final String source, final String target) {
+              if(source.startsWith("another") == true) {
+                throw new IllegalStateException("Failed");
+              }
+              return true;
+            }
+          });
+      testFiles.writeLines(
+          Arrays.asList("new sentence", "another sentence"), sourceFile);
+      testFiles.writeLines(Arrays.asList("satz", "satz"), targetFile);
+      try {
+        failing.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+        Assert.fail();
+      } catch(final IllegalStateException ex) {
+        // Expected
+      }
+      Assert.assertEquals(expectedSource, testFiles.readLines(uniqSourceFile));
+
+      final HashUniquer uniquer = new HashUniquer(
+          sourceFile, targetFile, CHAR_SET, tempDir, CHAR_SET, logger);
+      uniquer.setFingerprintIndex(indexFile);
+      Assert.assertEquals(
+          2L,
+          (long )uniquer.unique(
+              SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS).getRight());
+    } finally {
+      for(final File file : tempDir.listFiles()) {
+        if(file.getName().startsWith(indexFile.getName()) == true) {
+          file.delete();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.NOPLogger;
+import org.apache.log4j.spi.NOPLoggerRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobManifestTest {
+  private final Logger logger =
+      new NOPLogger(new NOPLoggerRepository(), "test");
+  private File manifestFile;
+  private File[] runs;
+
+  @Before
+  public void setUp() throws Exception {
+    manifestFile = File.createTempFile("job", "manifest");
+    manifestFile.delete();
+    runs = new File[4];
+    for(int i = 0; i < runs.length; i++) {
+      runs[i] = File.createTempFile("job", "run");
+    }
+  }
+
+  @After
+  public void tearDown() {
+    manifestFile.delete();
+    for(final File run : runs) {
+      run.delete();
+    }
+  }
+
+  @Test
+  public void testResumesAfterUnbrokenRuns() throws Exception {
+    final JobManifest manifest = new JobManifest(manifestFile, "job");
+    Assert.assertFalse(manifest.load(logger));
+    // Blocks finishing out of order, one with no pairs left, one missing
+    manifest.addRun(100, 200, runs[1]);
+    manifest.addRun(0, 100, runs[0]);
+    manifest.addRun(200, 250, null);
+    manifest.addRun(300, 400, runs[3]);
+
+    final JobManifest resumed = new JobManifest(manifestFile, "job");
+    Assert.assertTrue(resumed.load(logger));
+    Assert.assertFalse(resumed.isSorted());
+    Assert.assertEquals(250, resumed.getResumeLine());
+    Assert.assertEquals(Arrays.asList(runs[0], runs[1]), resumed.getRuns());
+    Assert.assertFalse(runs[3].exists());
+
+    resumed.addRun(250, 300, runs[2]);
+    resumed.setSorted();
+    // The first two runs merged into a new one
+    runs[3].createNewFile();
+    resumed.replaceRuns(Arrays.asList(runs[0], runs[1]), runs[3]);
+
+    final JobManifest merged = new JobManifest(manifestFile, "job");
+    Assert.assertTrue(merged.load(logger));
+    Assert.assertTrue(merged.isSorted());
+    Assert.assertEquals(300, merged.getResumeLine());
+    Assert.assertEquals(Arrays.asList(runs[3], runs[2]), merged.getRuns());
+
+    merged.delete();
+    Assert.assertFalse(manifestFile.exists());
+    Assert.assertFalse(runs[2].exists());
+  }
+
+  @Test
+  public void testDiscardsOtherJobs() throws Exception {
+    final JobManifest manifest = new JobManifest(manifestFile, "job");
+    manifest.addRun(0, 100, runs[0]);
+
+    final JobManifest other = new JobManifest(manifestFile, "other job");
+    Assert.assertFalse(other.load(logger));
+    Assert.assertTrue(other.getRuns().isEmpty());
+    Assert.assertFalse(runs[0].exists());
+    Assert.assertFalse(manifestFile.exists());
+  }
+}
@@ -0,0 +1,51 @@
+package com.capitati.corpus.utils;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class MemoryBudgetTest {
+  @Test
+  public void testRecordSizeCountsBothSides() {
+    final SortRecord shortTarget = new SortRecord("a source sentence", "t");
+    final SortRecord longTarget =
+        new SortRecord("a source sentence", "a much longer target sentence");
+
+    Assert.assertTrue(
+        MemoryBudget.sizeOf(longTarget) > MemoryBudget.sizeOf(shortTarget));
+    Assert.assertTrue(
+        MemoryBudget.sizeOf(shortTarget) >
+            MemoryBudget.sizeOf(shortTarget.source) +
+            MemoryBudget.sizeOf(shortTarget.target) +
+            shortTarget.key.length);
+    // Characters beyond Latin-1 never take less room than Latin-1 ones
+    Assert.assertTrue(
+        MemoryBudget.sizeOf("中文中文") >=
+            MemoryBudget.sizeOf("abcd"));
+  }
+
+  @Test
+  public void testBlockSize() {
+    final MemoryBudget budget = new MemoryBudget(64L * 1024 * 1024);
+
+    Assert.assertEquals(64L * 1024 * 1024, budget.getBlockSize(1));
+    Assert.assertEquals(16L * 1024 * 1024, budget.getBlockSize(4));
+    // Never smaller than the minimum block
+    Assert.assertEquals(1024L * 1024, budget.getBlockSize(1000));
+  }
+
+  @Test
+  public void testParseSize() {
+    Assert.assertEquals(65536L, MemoryBudget.parseSize("65536"));
+    Assert.assertEquals(512L * 1024, MemoryBudget.parseSize("512k"));
+    Assert.assertEquals(512L * 1024 * 1024, MemoryBudget.parseSize("512M"));
+    Assert.assertEquals(2L * 1024 * 1024 * 1024, MemoryBudget.parseSize("2g"));
+
+    try {
+      MemoryBudget.parseSize("lots");
+      Assert.fail("Expected an IllegalArgumentException");
+    } catch(final IllegalArgumentException ex) {
+      // Expected
+    }
+  }
+}
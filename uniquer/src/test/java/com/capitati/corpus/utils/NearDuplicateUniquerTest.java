@@ -0,0 +1,122 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NearDuplicateUniquerTest {
+  private static final String SUFFIX = "uniq";
+  private static final Charset CHAR_SET = Charset.forName("UTF-8");
+  private static final String[] WORDS = {
+      "the", "cat", "sat", "on", "a", "mat", "while", "dog", "ran", "to",
+      "house", "garden", "quickly", "red", "blue", "green", "big", "small"};
+  private File sourceFile;
+  private File targetFile;
+  private File uniqSourceFile;
+  private File uniqTargetFile;
+  private File tempDir;
+  private Logger logger;
+  private CorpusTestFiles testFiles;
+
+  @Before
+  public void setUp() throws URISyntaxException {
+    testFiles = new CorpusTestFiles();
+    sourceFile = testFiles.create("near-source.test");
+    targetFile = testFiles.create("near-target.test");
+    uniqSourceFile = testFiles.output(sourceFile, SUFFIX);
+    uniqTargetFile = testFiles.output(targetFile, SUFFIX);
+    tempDir = testFiles.getTempDir();
+    logger = CorpusTestFiles.createLogger();
+  }
+
+  @After
+  public void tearDown() {
+    testFiles.delete();
+  }
+
+  private ImmutablePair<Long, Long> unique(
+      final long maxMemory, final int noThreads) throws Exception {
+    final NearDuplicateUniquer uniquer = new NearDuplicateUniquer(
+        sourceFile, targetFile, CHAR_SET, tempDir, CHAR_SET, logger);
+    uniquer.setMaxMemory(maxMemory);
+    uniquer.setNoThreads(noThreads);
+    return uniquer.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+  }
+
+  @Test
+  public void testDropsNearDuplicates() throws Exception {
+    testFiles.writeLines(
+        Arrays.asList(
+            "The price is 10 dollars.",
+            "the price is 25 dollars!",
+            "The cat sat on the mat in the garden of the big red house",
+            "The cat sat on the mat in the garden of the big blue house",
+            "Something else entirely",
+            "東京は日本の首都です",
+            "東京は日本の首都です。"),
+        sourceFile);
+    testFiles.writeLines(
+        Arrays.asList(
+            "Der Preis beträgt 10 Dollar.",
+            "Der Preis beträgt 25 Dollar!",
+            "Die Katze saß auf der Matte im Garten des großen roten Hauses",
+            "Die Katze saß auf der Matte im Garten des großen roten Hauses",
+            "Etwas ganz anderes",
+            "Tokyo is the capital of Japan",
+            "Tokyo is the capital of Japan."),
+        targetFile);
+
+    final ImmutablePair<Long, Long> result =
+        unique(Runtime.getRuntime().maxMemory(), 1);
+
+    Assert.assertEquals(3L, (long )result.getLeft());
+    Assert.assertEquals(
+        Arrays.asList(
+            "The price is 10 dollars.",
+            "The cat sat on the mat in the garden of the big red house",
+            "Something else entirely",
+            "東京は日本の首都です"),
+        testFiles.readLines(uniqSourceFile));
+    Assert.assertEquals(4, testFiles.readLines(uniqTargetFile).size());
+  }
+
+  @Test
+  public void testSpillsToPartitions() throws Exception {
+    final Random random = new Random(17);
+    final List<String> source = new ArrayList<String>();
+    final List<String> target = new ArrayList<String>();
+    for(int i = 0; i < 30000; i++) {
+      final StringBuilder sentence = new StringBuilder();
+      for(int j = 0; j < 6; j++) {
+        sentence.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+      }
+      source.add(sentence.toString().trim());
+      target.add("satz " + random.nextInt(100));
+    }
+    testFiles.writeLines(source, sourceFile);
+    testFiles.writeLines(target, targetFile);
+
+    final ImmutablePair<Long, Long> inMemory =
+        unique(Runtime.getRuntime().maxMemory(), 1);
+    final List<String> expected = testFiles.readLines(uniqSourceFile);
+    Assert.assertTrue(inMemory.getLeft() > 0);
+    Assert.assertEquals((long )inMemory.getRight(), expected.size());
+
+    // Too small for more than the initial table, signed by several threads
+    final ImmutablePair<Long, Long> spilled = unique(0, 3);
+    Assert.assertEquals(inMemory, spilled);
+    Assert.assertEquals(expected, testFiles.readLines(uniqSourceFile));
+  }
+}
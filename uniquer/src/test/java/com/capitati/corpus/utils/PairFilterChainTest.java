@@ -0,0 +1,86 @@
+package com.capitati.corpus.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class PairFilterChainTest {
+  @Test
+  public void testFilters() {
+    Assert.assertFalse(
+        new IdenticalPairFilter().accept("Hello World", "hello world"));
+    Assert.assertTrue(new IdenticalPairFilter().accept("Hello", "Bonjour"));
+
+    final RegexBlacklistFilter blacklist =
+        new RegexBlacklistFilter(Arrays.asList("https?://", "^\\d+$"));
+    Assert.assertFalse(blacklist.accept("see http://x.org", "voir"));
+    Assert.assertFalse(blacklist.accept("page", "12"));
+    Assert.assertTrue(blacklist.accept("page 12", "12 pages"));
+
+    final ScriptRatioFilter scripts =
+        ScriptRatioFilter.forSpecification("latin:cyrillic");
+    Assert.assertTrue(scripts.accept("The cat", "Кошка"));
+    Assert.assertFalse(scripts.accept("The cat", "The cat"));
+    Assert.assertTrue(scripts.accept("42", "42"));
+  }
+
+  @Test
+  public void testStatistics() {
+    final PairFilterChain chain =
+        PairFilters.create(
+            3,
+            Arrays.asList(
+                new IdenticalPairFilter(),
+                new RegexBlacklistFilter(Arrays.asList("bad"))));
+
+    // Enough pairs for the chain to reorder itself several times
+    for(int i = 0; i < 100000; i++) {
+      switch(i % 4) {
+        case 0:
+          Assert.assertFalse(chain.accept("a b c d", "1"));
+          break;
+        case 1:
+          Assert.assertFalse(chain.accept("same", "same"));
+          break;
+        case 2:
+          Assert.assertFalse(chain.accept("bad", "1"));
+          break;
+        default:
+          Assert.assertTrue(chain.accept("good", "1"));
+      }
+    }
+
+    final List<PairFilterStatistics> statistics = chain.getStatistics();
+    Assert.assertEquals(3, statistics.size());
+    Assert.assertEquals("empty,maxtokens", statistics.get(0).getName());
+    Assert.assertEquals("identical", statistics.get(1).getName());
+    Assert.assertEquals("blacklist", statistics.get(2).getName());
+    for(final PairFilterStatistics filter : statistics) {
+      Assert.assertEquals(25000, filter.getNoDrops());
+    }
+  }
+
+  @Test
+  public void testScanFiltersShareOneScan() {
+    final ScanFilter ratioFilter = new ScanFilter();
+    ratioFilter.setMaxTokenRatio(2);
+    ratioFilter.setMaxNoTokens(5);
+    final PairFilterChain chain =
+        PairFilters.create(
+            3, Arrays.asList(ratioFilter, new IdenticalPairFilter()));
+
+    Assert.assertFalse(chain.accept("a b c d", "1 2 3 4"));
+    Assert.assertFalse(chain.accept("a b c", "1"));
+    Assert.assertFalse(chain.accept("", "1"));
+    Assert.assertTrue(chain.accept("a b", "1"));
+
+    final List<PairFilterStatistics> statistics = chain.getStatistics();
+    Assert.assertEquals(2, statistics.size());
+    Assert.assertEquals("empty,maxtokens,ratio", statistics.get(0).getName());
+    Assert.assertEquals(3, statistics.get(0).getNoDrops());
+    Assert.assertEquals("identical", statistics.get(1).getName());
+  }
+}
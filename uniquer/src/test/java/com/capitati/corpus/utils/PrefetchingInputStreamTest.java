@@ -0,0 +1,135 @@
+package com.capitati.corpus.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefetchingInputStreamTest {
+  private File file;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("prefetch", "test");
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    file.delete();
+  }
+
+  private byte[] readBack(final int bufferSize, final int chunkSize)
+  throws Exception {
+    final PrefetchingInputStream in =
+        new PrefetchingInputStream(file, executor, bufferSize);
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] chunk = new byte[chunkSize];
+      int noBytes;
+      while((noBytes = in.read(chunk, 0, chunkSize)) >= 0) {
+        out.write(chunk, 0, noBytes);
+        // Mix in single byte reads
+        final int b = in.read();
+        if(b < 0) {
+          break;
+        }
+        out.write(b);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testReadsWholeFile() throws Exception {
+    final byte[] bytes = new byte[10000];
+    new Random(3).nextBytes(bytes);
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+
+    // Buffers smaller than, dividing and larger than the file
+    Assert.assertTrue(Arrays.equals(bytes, readBack(64, 7)));
+    Assert.assertTrue(Arrays.equals(bytes, readBack(1000, 100)));
+    Assert.assertTrue(Arrays.equals(bytes, readBack(65536, 4096)));
+  }
+
+  @Test
+  public void testEmptyFile() throws Exception {
+    Assert.assertEquals(0, readBack(64, 16).length);
+  }
+
+  @Test
+  public void testCloseWaitsForReadInProgress() throws Exception {
+    final CountDownLatch reading = new CountDownLatch(1);
+    final CountDownLatch finishRead = new CountDownLatch(1);
+    final AtomicBoolean inRead = new AtomicBoolean(false);
+    final AtomicBoolean closedInRead = new AtomicBoolean(false);
+    final InputStream slow = new InputStream() {
+      @Override
+      public int read() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public int read(final byte[] bytes, final int offset, final int length)
+      throws InterruptedIOException {
+        inRead.set(true);
+        reading.countDown();
+        try {
+          finishRead.await();
+        } catch(final InterruptedException ex) {
+          throw new InterruptedIOException();
+        }
+        inRead.set(false);
+        return -1;
+      }
+
+      @Override
+      public void close() {
+        closedInRead.set(inRead.get());
+      }
+    };
+
+    final PrefetchingInputStream in =
+        new PrefetchingInputStream(slow, executor, 64);
+    reading.await();
+    final Thread closer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          in.close();
+        } catch(final Exception ex) {
+          // Ignore...
+        }
+      }
+    };
+    closer.start();
+    closer.join(200);
+    Assert.assertTrue(closer.isAlive());
+
+    finishRead.countDown();
+    closer.join();
+    Assert.assertFalse(closedInRead.get());
+  }
+}
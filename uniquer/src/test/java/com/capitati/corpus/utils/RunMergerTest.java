@@ -0,0 +1,111 @@
+package com.capitati.corpus.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+
+public class RunMergerTest {
+  private static final Comparator<PeekingIterator<Integer>> HEAD_COMPARATOR =
+      new Comparator<PeekingIterator<Integer>>() {
+        @Override
+        public int compare(
+            final PeekingIterator<Integer> i,
+            final PeekingIterator<Integer> j) {
+          return i.peek().compareTo(j.peek());
+        }
+      };
+  private static final Predicate<PeekingIterator<Integer>> EXHAUSTED =
+      new Predicate<PeekingIterator<Integer>>() {
+        @Override
+        public boolean apply(final PeekingIterator<Integer> i) {
+          return i.hasNext() == false;
+        }
+      };
+
+  private static List<Integer> merge(
+      final MergeEngine engine, final List<List<Integer>> runs)
+  throws Exception {
+    final List<PeekingIterator<Integer>> iterators =
+        new ArrayList<PeekingIterator<Integer>>();
+    for(final List<Integer> run : runs) {
+      iterators.add(Iterators.peekingIterator(run.iterator()));
+    }
+
+    final IRunMerger<PeekingIterator<Integer>> merger =
+        engine.create(iterators, HEAD_COMPARATOR, EXHAUSTED);
+    final List<Integer> merged = new ArrayList<Integer>();
+    while(merger.isEmpty() == false) {
+      merged.add(merger.top().next());
+      merger.update();
+    }
+
+    return merged;
+  }
+
+  private static void verifyMerge(final List<List<Integer>> runs)
+  throws Exception {
+    final List<Integer> expected = new ArrayList<Integer>();
+    for(final List<Integer> run : runs) {
+      expected.addAll(run);
+    }
+    Collections.sort(expected);
+
+    for(final MergeEngine engine : MergeEngine.values()) {
+      Assert.assertEquals(engine.getName(), expected, merge(engine, runs));
+    }
+  }
+
+  @Test
+  public void testNoRuns() throws Exception {
+    verifyMerge(new ArrayList<List<Integer>>());
+  }
+
+  @Test
+  public void testEmptyRuns() throws Exception {
+    final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+    runs.add(new ArrayList<Integer>());
+    runs.add(Lists.newArrayList(3, 5));
+    runs.add(new ArrayList<Integer>());
+
+    verifyMerge(runs);
+  }
+
+  @Test
+  public void testRandomRuns() throws Exception {
+    final Random random = new Random(42);
+
+    for(int noRuns = 1; noRuns <= 17; noRuns++) {
+      final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+      for(int i = 0; i < noRuns; i++) {
+        final List<Integer> run = new ArrayList<Integer>();
+        final int length = random.nextInt(50);
+        for(int j = 0; j < length; j++) {
+          run.add(random.nextInt(20));
+        }
+        Collections.sort(run);
+        runs.add(run);
+      }
+
+      verifyMerge(runs);
+    }
+  }
+
+  @Test
+  public void testForName() {
+    Assert.assertEquals(
+        MergeEngine.LOSER_TREE, MergeEngine.forName("loser-tree"));
+    Assert.assertEquals(
+        MergeEngine.PRIORITY_QUEUE, MergeEngine.forName("priority-queue"));
+  }
+}
@@ -0,0 +1,63 @@
+package com.capitati.corpus.utils;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ScanFilterTest {
+  private static final char[] ALPHABET = {' ', ' ', ' ', 'a', 'b', '\t', 'ω'};
+
+  private static boolean accepts(
+      final ScanFilter filter, final String source, final String target) {
+    return filter.accept(source, target);
+  }
+
+  @Test
+  public void testCountMatchesSplit() {
+    final Random random = new Random(11);
+
+    for(int i = 0; i < 10000; i++) {
+      final StringBuilder line = new StringBuilder();
+      final int length = random.nextInt(12);
+      for(int j = 0; j < length; j++) {
+        line.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+      }
+
+      final int expected = line.toString().split("[ ]+").length;
+      Assert.assertEquals(
+          "[" + line + "]",
+          expected,
+          ScanFilter.countTokens(line.toString(), Integer.MAX_VALUE));
+      // Counting stops just past the limit
+      Assert.assertEquals(
+          "[" + line + "]",
+          Math.min(expected, 3),
+          Math.min(ScanFilter.countTokens(line.toString(), 2), 3));
+    }
+  }
+
+  @Test
+  public void testLimits() {
+    final ScanFilter filter = new ScanFilter();
+    Assert.assertTrue(accepts(filter, "a b c d", "1"));
+    Assert.assertFalse(accepts(filter, "", "1"));
+
+    filter.setMaxNoTokens(3);
+    Assert.assertTrue(accepts(filter, "a  b c", "1 2 3"));
+    Assert.assertFalse(accepts(filter, "a b c d", "1"));
+    Assert.assertFalse(accepts(filter, "a", "1 2 3 4"));
+
+    filter.setMinNoTokens(2);
+    Assert.assertFalse(accepts(filter, "a", "1 2"));
+
+    filter.setMaxTokenRatio(1.5);
+    Assert.assertTrue(accepts(filter, "a b", "1 2 3"));
+    Assert.assertFalse(accepts(filter, "a b", "1 2 3 4"));
+
+    filter.setMaxNoChars(5);
+    Assert.assertTrue(accepts(filter, "a b", "1 2 3"));
+    Assert.assertFalse(accepts(filter, "a b", "1 2 34"));
+  }
+}
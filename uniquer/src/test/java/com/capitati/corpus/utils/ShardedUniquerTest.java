@@ -0,0 +1,119 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedUniquerTest {
+  private static final Charset CHAR_SET = Charset.forName("UTF-8");
+  private File sourceFile;
+  private File targetFile;
+  private File tempDir;
+  private Logger logger;
+  private CorpusTestFiles testFiles;
+
+  @Before
+  public void setUp() throws URISyntaxException {
+    testFiles = new CorpusTestFiles();
+    sourceFile = testFiles.create("sharded-source.test");
+    targetFile = testFiles.create("sharded-target.test");
+    for(final String suffix : new String[] {"single", "sharded"}) {
+      testFiles.output(sourceFile, suffix);
+      testFiles.output(targetFile, suffix);
+    }
+    tempDir = testFiles.getTempDir();
+    logger = CorpusTestFiles.createLogger();
+  }
+
+  @After
+  public void tearDown() {
+    testFiles.delete();
+  }
+
+  private void writeCorpus(final int noPairs, final long seed)
+  throws Exception {
+    final Random random = new Random(seed);
+    final List<String> source = new ArrayList<String>();
+    final List<String> target = new ArrayList<String>();
+    for(int i = 0; i < noPairs; i++) {
+      final int n = random.nextInt(noPairs / 4);
+      // Duplicates differing in case and runs of spaces
+      final String sentence =
+          (random.nextBoolean() == true) ? "The  sentence " : "the sentence ";
+      source.add(sentence + n);
+      target.add("satz " + (n % 7));
+    }
+    testFiles.writeLines(source, sourceFile);
+    testFiles.writeLines(target, targetFile);
+  }
+
+  private List<String> readPairs(final String suffix) throws Exception {
+    final List<String> source =
+        testFiles.readLines(testFiles.output(sourceFile, suffix));
+    final List<String> target =
+        testFiles.readLines(testFiles.output(targetFile, suffix));
+    final List<String> pairs = new ArrayList<String>();
+    for(int i = 0; i < source.size(); i++) {
+      pairs.add(source.get(i) + "\t" + target.get(i));
+    }
+    return pairs;
+  }
+
+  private ImmutablePair<Long, Long> uniqueSharded(final UniquingMode mode)
+  throws Exception {
+    final ShardedUniquer uniquer = new ShardedUniquer(
+        new FileCorpus(sourceFile, targetFile),
+        CHAR_SET,
+        tempDir,
+        CHAR_SET,
+        logger,
+        3);
+    uniquer.setMode(mode);
+    return uniquer.unique("sharded", ICorpusUniquer.UNLIMITED_TOKENS);
+  }
+
+  @Test
+  public void testMergesSortedShards() throws Exception {
+    writeCorpus(20000, 7);
+
+    final ImmutablePair<Long, Long> single = new CorpusUniquer(
+        sourceFile, targetFile, CHAR_SET, 10, tempDir, CHAR_SET, logger).
+        unique("single", ICorpusUniquer.UNLIMITED_TOKENS);
+    final ImmutablePair<Long, Long> sharded =
+        uniqueSharded(UniquingMode.SORT);
+
+    Assert.assertEquals(single, sharded);
+    Assert.assertEquals(readPairs("single"), readPairs("sharded"));
+  }
+
+  @Test
+  public void testConcatenatesHashedShards() throws Exception {
+    writeCorpus(20000, 11);
+
+    final ImmutablePair<Long, Long> single = new HashUniquer(
+        sourceFile, targetFile, CHAR_SET, tempDir, CHAR_SET, logger).
+        unique("single", ICorpusUniquer.UNLIMITED_TOKENS);
+    final ImmutablePair<Long, Long> sharded =
+        uniqueSharded(UniquingMode.HASH);
+
+    Assert.assertEquals(single, sharded);
+    // The same pairs are kept, in shard rather than input order
+    final List<String> expected = readPairs("single");
+    final List<String> actual = readPairs("sharded");
+    Collections.sort(expected);
+    Collections.sort(actual);
+    Assert.assertEquals(expected, actual);
+  }
+}
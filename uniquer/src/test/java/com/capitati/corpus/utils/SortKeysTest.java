@@ -0,0 +1,65 @@
+package com.capitati.corpus.utils;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SortKeysTest {
+  private static final char[] ALPHABET = {
+      ' ', ' ', '_', 'a', 'B', 'z', '1', 'é', 'É', 'Ж',
+      '中', '\ud83d', '\ude00', 'Ａ', '�'};
+
+  private static String randomLine(final Random random) {
+    final StringBuilder line = new StringBuilder();
+    final int length = random.nextInt(8);
+    for(int i = 0; i < length; i++) {
+      line.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+    }
+    return line.toString();
+  }
+
+  @Test
+  public void testOrderMatchesFoldedStrings() {
+    final Random random = new Random(7);
+
+    for(int i = 0; i < 10000; i++) {
+      final String s1 = randomLine(random);
+      final String s2 = randomLine(random);
+      final int expected =
+          Integer.signum(s1.toLowerCase().compareTo(s2.toLowerCase()));
+
+      Assert.assertEquals(
+          s1 + " <> " + s2,
+          expected,
+          Integer.signum(
+              SortKeys.compare(SortKeys.encode(s1), SortKeys.encode(s2))));
+    }
+  }
+
+  @Test
+  public void testGroupsMatchProcessedLines() {
+    final Random random = new Random(11);
+
+    for(int i = 0; i < 10000; i++) {
+      final String s1 = randomLine(random);
+      final String s2 = (random.nextBoolean() == true) ?
+          s1.replace(" ", "  ").toUpperCase() : randomLine(random);
+      final boolean expected =
+          s1.toLowerCase().replaceAll("[ ]+", "_").equals(
+              s2.toLowerCase().replaceAll("[ ]+", "_"));
+
+      Assert.assertEquals(
+          s1 + " == " + s2,
+          expected,
+          SortKeys.sameGroup(SortKeys.encode(s1), SortKeys.encode(s2)));
+      if(expected == true) {
+        Assert.assertEquals(
+            s1 + " == " + s2,
+            SortKeys.groupHash(SortKeys.encode(s1)),
+            SortKeys.groupHash(SortKeys.encode(s2)));
+      }
+    }
+  }
+}
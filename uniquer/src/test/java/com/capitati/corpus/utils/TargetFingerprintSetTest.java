@@ -0,0 +1,49 @@
+package com.capitati.corpus.utils;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class TargetFingerprintSetTest {
+  private final Fingerprints fingerprints = new Fingerprints();
+
+  private boolean add(final TargetFingerprintSet set, final String target) {
+    final byte[] key = SortKeys.encode(target);
+    return set.add(fingerprints.fingerprint(key), key);
+  }
+
+  @Test
+  public void testDuplicates() {
+    final TargetFingerprintSet set = new TargetFingerprintSet(1024, 1024);
+    Assert.assertTrue(add(set, "Das ist ein Satz"));
+    Assert.assertFalse(add(set, "das  ist ein SATZ"));
+    Assert.assertTrue(add(set, "Das ist ein anderer Satz"));
+    // A different target with the same fingerprint is told apart by its key
+    final long fingerprint =
+        fingerprints.fingerprint(SortKeys.encode("das ist ein satz"));
+    Assert.assertTrue(set.add(fingerprint, SortKeys.encode("Noch ein Satz")));
+    Assert.assertEquals(3, set.size());
+
+    set.clear();
+    Assert.assertEquals(0, set.size());
+    Assert.assertTrue(add(set, "Das ist ein Satz"));
+  }
+
+  @Test
+  public void testLimits() {
+    // Room for the key of the first target only
+    final TargetFingerprintSet set = new TargetFingerprintSet(8, 100);
+    Assert.assertTrue(add(set, "satz 1"));
+    Assert.assertTrue(add(set, "satz 2"));
+    Assert.assertFalse(add(set, "Satz 1"));
+    Assert.assertFalse(add(set, "Satz 2"));
+
+    for(int i = 3; i <= 200; i++) {
+      Assert.assertTrue(add(set, "satz " + i));
+    }
+    // Targets past the most held are not remembered
+    Assert.assertEquals(100, set.size());
+    Assert.assertFalse(add(set, "satz 100"));
+    Assert.assertTrue(add(set, "satz 101"));
+  }
+}
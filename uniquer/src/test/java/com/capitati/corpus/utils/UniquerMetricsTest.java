@@ -0,0 +1,98 @@
+package com.capitati.corpus.utils;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UniquerMetricsTest {
+  private static final String SUFFIX = "uniq";
+  private static final Charset CHAR_SET = Charset.forName("UTF-8");
+  private File sourceFile;
+  private File targetFile;
+  private File metricsFile;
+  private File tempDir;
+  private Logger logger;
+  private CorpusTestFiles testFiles;
+
+  @Before
+  public void setUp() throws URISyntaxException {
+    testFiles = new CorpusTestFiles();
+    sourceFile = testFiles.create("metrics-source.test");
+    targetFile = testFiles.create("metrics-target.test");
+    testFiles.output(sourceFile, SUFFIX);
+    testFiles.output(targetFile, SUFFIX);
+    metricsFile = testFiles.create("metrics.prom");
+    tempDir = testFiles.getTempDir();
+    logger = CorpusTestFiles.createLogger();
+  }
+
+  @After
+  public void tearDown() {
+    testFiles.delete();
+  }
+
+  @Test
+  public void testCountsAJob() throws Exception {
+    testFiles.writeLines(Arrays.asList("a", "b", "A", "", "c"), sourceFile);
+    testFiles.writeLines(Arrays.asList("1", "2", "1", "3", "4"), targetFile);
+
+    final CorpusUniquer sorter = new CorpusUniquer(
+        sourceFile, targetFile, CHAR_SET, 10, tempDir, CHAR_SET, logger);
+    sorter.setNoSortThreads(2);
+    final UniquerMetrics metrics = sorter.getMetrics();
+    Assert.assertEquals("idle", metrics.getPhase());
+    metrics.register("test");
+    try {
+      sorter.unique(SUFFIX, ICorpusUniquer.UNLIMITED_TOKENS);
+
+      Assert.assertEquals("done", metrics.getPhase());
+      Assert.assertEquals(5, metrics.getPairsRead());
+      Assert.assertEquals(
+          sourceFile.length() + targetFile.length(), metrics.getBytesRead());
+      Assert.assertEquals(
+          Long.valueOf(1), metrics.getPairsDropped().get("empty"));
+      Assert.assertEquals(1, metrics.getRunsSpilled());
+      Assert.assertTrue(metrics.getRunBytes() > 0);
+      Assert.assertEquals(1, metrics.getMergeFanIn());
+      Assert.assertEquals(3, metrics.getPairsWritten());
+      Assert.assertEquals(1, metrics.getDuplicates());
+      Assert.assertTrue(metrics.getSortWallTime() > 0);
+      Assert.assertTrue(metrics.getMergeWallTime() > 0);
+
+      final Object pairsRead =
+          ManagementFactory.getPlatformMBeanServer().getAttribute(
+              new ObjectName(
+                  UniquerMetrics.DOMAIN + ":type=Uniquer,name=\"test\""),
+              "PairsRead");
+      Assert.assertEquals(Long.valueOf(5), pairsRead);
+    } finally {
+      metrics.unregister();
+    }
+
+    new PrometheusTextFile(
+        metricsFile, metrics, "a \"quoted\" corpus", logger).close();
+    final List<String> lines = testFiles.readLines(metricsFile);
+    Assert.assertTrue(
+        lines.contains(
+            "uniquer_phase{corpus=\"a \\\"quoted\\\" corpus\"," +
+            "phase=\"done\"} 1"));
+    Assert.assertTrue(
+        lines.contains(
+            "uniquer_pairs_dropped_total{corpus=\"a \\\"quoted\\\" " +
+            "corpus\",filter=\"empty\"} 1"));
+    Assert.assertTrue(
+        lines.contains("# TYPE uniquer_duplicates_total counter"));
+  }
+}